@@ -0,0 +1,113 @@
+package lu.uni.serval.flakime.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+import lu.uni.serval.flakime.core.data.TestClass;
+import lu.uni.serval.flakime.core.instrumentation.backend.BackendFactory;
+import lu.uni.serval.flakime.core.instrumentation.backend.InstrumentationBackend;
+import lu.uni.serval.flakime.core.instrumentation.models.Model;
+import lu.uni.serval.flakime.runtime.FlakimeRuntime;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the flake points on a test body.
+ * <p>
+ * The test method of the {@value Fixture#BODY} fixture is run as compiled, in {@link #baseline}, and as instrumented by
+ * each backend, in {@link #instrumented}. Every statement of the instrumented method is a flake point whose
+ * probability is the smallest positive double, so that the points are kept by the instrumentation but never flake.
+ * The instrumented method is measured in a JVM where the disable flag is set, which should be as fast as the baseline,
+ * and in a JVM where flakes are enabled, which gives the cost of the calls to {@link FlakimeRuntime} themselves.
+ * <p>
+ * No configuration of the runtime is installed next to the classes, so the flake reports are disabled and the
+ * default disable flag, {@code FLAKIME_DISABLE}, is read.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-DFLAKIME_DISABLE=true")
+public class DisabledFlakePointsBenchmark {
+    private static final Model MODEL = Fixture.constantModel(Double.MIN_VALUE);
+
+    @State(Scope.Benchmark)
+    public static class Bodies {
+        @Param({"javassist", "asm"})
+        String backend;
+
+        File directory;
+        LongUnaryOperator baseline;
+        LongUnaryOperator instrumented;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            directory = Files.createTempDirectory("flakime-benchmarks").toFile();
+
+            final Fixture fixture = Fixture.create(Fixture.BODY, directory);
+            final File output = new File(directory, "instrumented");
+            final InstrumentationBackend instrumentationBackend = BackendFactory.fromName(backend, Fixture.LOGGER, 1.0);
+
+            for (TestClass testClass : fixture.load(output)) {
+                instrumentationBackend.instrument(testClass, MODEL);
+                testClass.detach();
+            }
+
+            baseline = newBody(fixture.getClassDirectory());
+            instrumented = newBody(output);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            FileUtils.deleteDirectory(directory);
+        }
+
+        /**
+         * Load the test class of the fixture from a directory, in a class loader of its own. The runtime and the test
+         * annotations are loaded by the class loader of the benchmarks.
+         */
+        private static LongUnaryOperator newBody(File classDirectory) throws Exception {
+            final ClassLoader classLoader = new URLClassLoader(new URL[]{classDirectory.toURI().toURL()},
+                    DisabledFlakePointsBenchmark.class.getClassLoader());
+
+            return (LongUnaryOperator) classLoader.loadClass(Fixture.BODY_CLASS).getConstructor().newInstance();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Operand {
+        long value = 3;
+    }
+
+    @Benchmark
+    public long baseline(Bodies bodies, Operand operand) {
+        return bodies.baseline.applyAsLong(operand.value);
+    }
+
+    @Benchmark
+    public long instrumented(Bodies bodies, Operand operand) {
+        return bodies.instrumented.applyAsLong(operand.value);
+    }
+
+    @Benchmark
+    @Fork(value = 2, jvmArgsAppend = "-DFLAKIME_DISABLE=false")
+    public long instrumentedEnabled(Bodies bodies, Operand operand) {
+        return bodies.instrumented.applyAsLong(operand.value);
+    }
+}
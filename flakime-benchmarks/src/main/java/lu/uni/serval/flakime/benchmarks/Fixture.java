@@ -0,0 +1,327 @@
+package lu.uni.serval.flakime.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javassist.ClassPool;
+import javassist.NotFoundException;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import lu.uni.serval.flakime.core.data.Project;
+import lu.uni.serval.flakime.core.data.TestClass;
+import lu.uni.serval.flakime.core.data.TestMethod;
+import lu.uni.serval.flakime.core.instrumentation.models.Model;
+import lu.uni.serval.flakime.core.utils.Logger;
+import lu.uni.serval.flakime.core.utils.NameFilter;
+
+/**
+ * Compiled test project the instrumentation benchmarks run on.
+ * <p>
+ * The sources are compiled with debug information when the fixture is created, as the instrumentation needs the line
+ * numbers of the statements. Three fixtures are available:
+ * <ul>
+ *     <li>{@value #SIMPLE_JAVA}: the project used by the tests of flakime-core, packaged with the benchmarks;</li>
+ *     <li>{@value #LARGE}: a generated test class whose methods have hundreds of statements and branches;</li>
+ *     <li>{@value #BODY}: a generated test class, {@value #BODY_CLASS}, whose single test method is a
+ *     {@link java.util.function.LongUnaryOperator} of {@value #BODY_STATEMENTS} statements, so that it can be run
+ *     once instrumented.</li>
+ * </ul>
+ */
+class Fixture {
+    static final String SIMPLE_JAVA = "simple-java-2";
+    static final String LARGE = "large";
+    static final String BODY = "body";
+    static final String BODY_CLASS = "org.example.body.BodyTest";
+
+    static final Set<String> ANNOTATION_FILTERS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "^@org\\.junit\\.jupiter\\.api\\.Test*.",
+            "@org\\.junit\\.Test"
+    )));
+
+    static final Logger LOGGER = new Logger() {
+        @Override
+        public void info(String message) {
+        }
+
+        @Override
+        public void warn(String message) {
+        }
+
+        @Override
+        public void debug(String message) {
+        }
+
+        @Override
+        public void error(String message) {
+        }
+    };
+
+    private static final int LARGE_METHODS = 20;
+    private static final int LARGE_STATEMENTS = 300;
+    private static final int BODY_STATEMENTS = 8;
+
+    private final File classDirectory;
+    private final File sourceDirectory;
+    private final List<String> dependencies;
+    private final ClassPool classPool;
+    private final Map<String, File> testClasses;
+
+    private Fixture(File classDirectory, File sourceDirectory, List<String> dependencies) throws NotFoundException {
+        this.classDirectory = classDirectory;
+        this.sourceDirectory = sourceDirectory;
+        this.dependencies = dependencies;
+        this.classPool = Project.configureClassPool(new ClassPool(true), classDirectory, dependencies);
+        this.testClasses = new LinkedHashMap<>();
+
+        for (TestClass testClass : project()) {
+            final List<TestMethod> testMethods = testClass.getTestMethods();
+            this.testClasses.put(testClass.getName(), testMethods.isEmpty() ? null : testMethods.get(0).getSourceCodeFile());
+            testClass.detach();
+        }
+    }
+
+    /**
+     * @param name      The name of the fixture
+     * @param directory The directory the fixture is compiled in
+     * @return The compiled fixture
+     * @throws Exception if the fixture could not be compiled
+     */
+    static Fixture create(String name, File directory) throws Exception {
+        final File sources = new File(directory, "src");
+        final File mainClasses = new File(directory, "classes");
+        final File testClasses = new File(directory, "test-classes");
+
+        switch (name) {
+            case SIMPLE_JAVA:
+                extract("fixtures/" + SIMPLE_JAVA + "/", sources);
+                compile(new File(sources, "main/java"), mainClasses, System.getProperty("java.class.path"));
+                compile(new File(sources, "test/java"), testClasses, mainClasses.getAbsolutePath() + File.pathSeparator + System.getProperty("java.class.path"));
+                return new Fixture(testClasses, new File(sources, "test/java"), Collections.singletonList(mainClasses.getAbsolutePath()));
+            case LARGE:
+                generate(new File(sources, "test/java"));
+                compile(new File(sources, "test/java"), testClasses, System.getProperty("java.class.path"));
+                return new Fixture(testClasses, new File(sources, "test/java"), Collections.emptyList());
+            case BODY:
+                generateBody(new File(sources, "test/java"));
+                compile(new File(sources, "test/java"), testClasses, System.getProperty("java.class.path"));
+                return new Fixture(testClasses, new File(sources, "test/java"), Collections.emptyList());
+            default:
+                throw new IllegalArgumentException("Unknown fixture " + name);
+        }
+    }
+
+    /**
+     * @return A new project over the compiled test classes, scanning the class directory
+     * @throws NotFoundException if the class directory cannot be read
+     */
+    Project project() throws NotFoundException {
+        return new Project(LOGGER, ANNOTATION_FILTERS, Collections.emptySet(), Collections.emptySet(), classDirectory, sourceDirectory, dependencies);
+    }
+
+    /**
+     * @return The directory of the compiled test classes
+     */
+    File getClassDirectory() {
+        return classDirectory;
+    }
+
+    /**
+     * Load the test classes in fresh class pools, without scanning the class directory again.
+     *
+     * @param outputDirectory The directory the classes are written to
+     * @return The test classes, ready to be instrumented
+     * @throws NotFoundException if a class cannot be loaded
+     */
+    List<TestClass> load(File outputDirectory) throws NotFoundException {
+        final NameFilter annotationFilter = new NameFilter(ANNOTATION_FILTERS);
+        final NameFilter methodFilter = new NameFilter(Collections.emptySet());
+        final List<TestClass> loaded = new ArrayList<>(testClasses.size());
+
+        for (Map.Entry<String, File> testClass : testClasses.entrySet()) {
+            final ClassPool isolatedClassPool = new ClassPool(classPool);
+            isolatedClassPool.childFirstLookup = true;
+            isolatedClassPool.appendClassPath(classDirectory.getAbsolutePath());
+
+            loaded.add(new TestClass(LOGGER, annotationFilter, methodFilter, isolatedClassPool.get(testClass.getKey()), testClass.getValue(), outputDirectory));
+        }
+
+        return loaded;
+    }
+
+    /**
+     * @param probability The probability of every flake point
+     * @return A model giving the same probability to every statement
+     */
+    static Model constantModel(double probability) {
+        return new Model() {
+            @Override
+            public void preProcess(Project p, double flakeRate) {
+            }
+
+            @Override
+            public double getTestFlakinessProbability(TestMethod test, int lineNumber, double flakeRate) {
+                return probability;
+            }
+
+            @Override
+            public double getTestFlakinessProbability(TestMethod test, double flakeRate) {
+                return probability;
+            }
+
+            @Override
+            public void postProcess() {
+            }
+        };
+    }
+
+    /**
+     * Copy the resources under a prefix, whether the benchmarks run from the class directory or from their jar.
+     */
+    private static void extract(String prefix, File destination) throws IOException, URISyntaxException {
+        final URL location = Fixture.class.getProtectionDomain().getCodeSource().getLocation();
+        final File root = new File(location.toURI());
+
+        if (root.isDirectory()) {
+            final File source = new File(root, prefix);
+
+            try (Stream<Path> files = Files.walk(source.toPath())) {
+                for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                    final File target = new File(destination, source.toPath().relativize(file).toString());
+                    Files.createDirectories(target.getParentFile().toPath());
+                    Files.copy(file, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+
+            return;
+        }
+
+        try (JarFile jar = new JarFile(root)) {
+            final Enumeration<JarEntry> entries = jar.entries();
+
+            while (entries.hasMoreElements()) {
+                final JarEntry entry = entries.nextElement();
+
+                if (entry.isDirectory() || !entry.getName().startsWith(prefix)) {
+                    continue;
+                }
+
+                final File target = new File(destination, entry.getName().substring(prefix.length()));
+                Files.createDirectories(target.getParentFile().toPath());
+
+                try (InputStream in = jar.getInputStream(entry)) {
+                    Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a test class with {@value #LARGE_METHODS} methods of {@value #LARGE_STATEMENTS} statements, one per line,
+     * with a branch every ten statements.
+     */
+    private static void generate(File sourceDirectory) throws IOException {
+        final StringBuilder source = new StringBuilder()
+                .append("package org.example.large;\n\n")
+                .append("import org.junit.jupiter.api.Test;\n\n")
+                .append("public class LargeTest {\n");
+
+        for (int m = 0; m < LARGE_METHODS; ++m) {
+            source.append("    @Test\n")
+                    .append("    public void test").append(m).append("() {\n")
+                    .append("        long value = ").append(m).append(";\n");
+
+            for (int s = 0; s < LARGE_STATEMENTS; ++s) {
+                if (s % 10 == 9) {
+                    source.append("        if (value % 7 == 0) {\n")
+                            .append("            value = value + ").append(s).append(";\n")
+                            .append("        }\n");
+                } else {
+                    source.append("        value = value * 31 + ").append(s).append(";\n");
+                }
+            }
+
+            source.append("        System.out.println(value);\n")
+                    .append("    }\n\n");
+        }
+
+        source.append("}\n");
+
+        final File file = new File(sourceDirectory, "org/example/large/LargeTest.java");
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), source.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write the test class {@value #BODY_CLASS}, whose test method mixes its operand into a hash in
+     * {@value #BODY_STATEMENTS} statements, one per line.
+     */
+    private static void generateBody(File sourceDirectory) throws IOException {
+        final StringBuilder source = new StringBuilder()
+                .append("package org.example.body;\n\n")
+                .append("import java.util.function.LongUnaryOperator;\n")
+                .append("import org.junit.jupiter.api.Test;\n\n")
+                .append("public class BodyTest implements LongUnaryOperator {\n")
+                .append("    @Test\n")
+                .append("    @Override\n")
+                .append("    public long applyAsLong(long value) {\n")
+                .append("        long hash = value;\n");
+
+        for (int s = 1; s < BODY_STATEMENTS; ++s) {
+            source.append("        hash = hash * 31 + ").append(2 * s + 1).append(";\n");
+        }
+
+        source.append("        return hash;\n")
+                .append("    }\n")
+                .append("}\n");
+
+        final File file = new File(sourceDirectory, "org/example/body/BodyTest.java");
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), source.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compile the sources of a directory with debug information, for Java 8 as the fixture projects.
+     */
+    private static void compile(File sourceDirectory, File classDirectory, String classpath) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("The benchmarks need a JDK to compile their fixtures");
+        }
+
+        final List<String> arguments = new ArrayList<>(Arrays.asList(
+                "-g", "-nowarn", "-Xlint:-options", "-source", "8", "-target", "8",
+                "-encoding", "UTF-8",
+                "-classpath", classpath,
+                "-d", classDirectory.getAbsolutePath()
+        ));
+
+        try (Stream<Path> files = Files.walk(sourceDirectory.toPath())) {
+            files.filter(f -> f.toString().endsWith(".java")).forEach(f -> arguments.add(f.toString()));
+        }
+
+        Files.createDirectories(classDirectory.toPath());
+
+        if (compiler.run(null, null, null, arguments.toArray(new String[0])) != 0) {
+            throw new IllegalStateException("Failed to compile " + sourceDirectory);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package lu.uni.serval.flakime.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import lu.uni.serval.flakime.core.instrumentation.models.vocabulary.CompiledForest;
+import lu.uni.serval.flakime.core.instrumentation.models.vocabulary.TokenCounts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * Cost of computing the probability of a test body with the random forest of the vocabulary model.
+ * <p>
+ * The forest is trained on synthetic token counts shaped like those of the model: a nominal label followed by one
+ * numeric attribute per token of the vocabulary, most of them zero. {@link #weka(Forest, Bodies)} builds a sparse
+ * instance and goes through {@code RandomForest.distributionForInstance}, as the model did before the forest was
+ * flattened, and {@link #compiled(Forest, Bodies)} evaluates the same counts with {@link CompiledForest}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ForestInferenceBenchmark {
+    private static final int NUMBER_BODIES = 256;
+
+    @State(Scope.Benchmark)
+    public static class Forest {
+        @Param({"100"})
+        int trees;
+
+        @Param({"5000"})
+        int vocabularySize;
+
+        Instances header;
+        RandomForest forest;
+        CompiledForest compiled;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            final ArrayList<String> labels = new ArrayList<>();
+            labels.add("0");
+            labels.add("1");
+
+            final ArrayList<Attribute> attributes = new ArrayList<>();
+            attributes.add(new Attribute("flakime_label", labels));
+            for (int i = 0; i < vocabularySize; ++i) {
+                attributes.add(new Attribute("token" + i));
+            }
+
+            final Random random = new Random(0);
+            final Instances instances = new Instances("trainData", attributes, 2000);
+            instances.setClassIndex(0);
+
+            for (int i = 0; i < 2000; ++i) {
+                final int label = random.nextInt(2);
+                instances.add(instance(instances, body(random, vocabularySize, label), label));
+            }
+
+            forest = new RandomForest();
+            forest.setNumIterations(trees);
+            forest.setSeed(0);
+            forest.buildClassifier(instances);
+
+            header = new Instances(instances, 0);
+            compiled = CompiledForest.compile(forest, header);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Bodies {
+        TokenCounts[] counts;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(Forest forest) {
+            final Random random = new Random(1);
+            counts = new TokenCounts[NUMBER_BODIES];
+
+            for (int i = 0; i < counts.length; ++i) {
+                counts[i] = body(random, forest.vocabularySize, random.nextInt(2));
+            }
+        }
+
+        TokenCounts next() {
+            next = (next + 1) % counts.length;
+            return counts[next];
+        }
+    }
+
+    @Benchmark
+    public double weka(Forest forest, Bodies bodies) throws Exception {
+        return forest.forest.distributionForInstance(instance(forest.header, bodies.next(), 0))[1];
+    }
+
+    @Benchmark
+    public double compiled(Forest forest, Bodies bodies) {
+        return forest.compiled.probability(bodies.next(), 1);
+    }
+
+    /**
+     * Tokens drawn with a skewed distribution, as in source code where a few tokens are very frequent. Flaky bodies
+     * draw more often from a band of the vocabulary, so that the trees have something to learn.
+     */
+    private static TokenCounts body(Random random, int vocabularySize, int label) {
+        final int[] sequence = new int[20 + random.nextInt(200)];
+
+        for (int i = 0; i < sequence.length; ++i) {
+            final int token = (int) (vocabularySize * Math.pow(random.nextDouble(), 3));
+            sequence[i] = label == 1 && random.nextInt(4) == 0
+                    ? vocabularySize / 2 + random.nextInt(vocabularySize / 4)
+                    : Math.max(1, Math.min(vocabularySize - 1, token));
+        }
+
+        return TokenCounts.of(sequence);
+    }
+
+    private static SparseInstance instance(Instances dataset, TokenCounts counts, int label) {
+        final int offset = label != 0 ? 1 : 0;
+        final double[] values = new double[counts.size() + offset];
+        final int[] indices = new int[counts.size() + offset];
+
+        if (offset == 1) {
+            values[0] = label;
+        }
+
+        for (int i = 0; i < counts.size(); ++i) {
+            values[i + offset] = counts.getCount(i);
+            indices[i + offset] = counts.getIndex(i) + 1;
+        }
+
+        final SparseInstance instance = new SparseInstance(1.0, values, indices, dataset.numAttributes());
+        instance.setDataset(dataset);
+
+        return instance;
+    }
+}
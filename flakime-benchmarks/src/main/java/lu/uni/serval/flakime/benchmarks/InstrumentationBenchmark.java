@@ -0,0 +1,250 @@
+package lu.uni.serval.flakime.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javassist.CannotCompileException;
+import javassist.CtMethod;
+import javassist.NotFoundException;
+import lu.uni.serval.flakime.core.data.TestClass;
+import lu.uni.serval.flakime.core.data.TestMethod;
+import lu.uni.serval.flakime.core.instrumentation.FlakePointTable;
+import lu.uni.serval.flakime.core.instrumentation.FlakimeInstrumenter;
+import lu.uni.serval.flakime.core.instrumentation.backend.BackendFactory;
+import lu.uni.serval.flakime.core.instrumentation.backend.InstrumentationBackend;
+import lu.uni.serval.flakime.core.instrumentation.models.Model;
+import lu.uni.serval.flakime.core.utils.NameFilter;
+import lu.uni.serval.flakime.core.utils.Utils;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the steps of the instrumentation, on the {@link Fixture fixtures} compiled when the trial starts.
+ * <p>
+ * Each benchmark processes every test method of the fixture per operation. Along with the operations per second,
+ * the benchmarks count the flake points (or, for {@link #filters}, the methods) they processed in an auxiliary
+ * counter reported per second, so that fixtures of different sizes can be compared. Running the benchmarks with
+ * {@code -prof gc} adds the bytes allocated per operation.
+ * <ul>
+ *     <li>{@link #scanProject}: listing and loading the test classes, and analysing their control flow;</li>
+ *     <li>{@link #filters}: selecting the test methods with {@link Utils#isTest} and {@link NameFilter#matches};</li>
+ *     <li>{@link #controlFlow}: computing the statement lines of the test methods;</li>
+ *     <li>{@link #computePayload}: computing the payload of every flake point;</li>
+ *     <li>{@link #instrumentMethods}: compiling and inserting the payloads with javassist, without writing;</li>
+ *     <li>{@link #instrumentAndWrite}: instrumenting and writing the classes with each backend.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class InstrumentationBenchmark {
+    private static final double FLAKE_RATE = 1.0;
+    private static final Model MODEL = Fixture.constantModel(0.5);
+
+    @State(Scope.Benchmark)
+    public static class Workspace {
+        @Param({Fixture.SIMPLE_JAVA, Fixture.LARGE})
+        String fixture;
+
+        File directory;
+        Fixture project;
+        List<TestClass> classes;
+        List<TestMethod> methods;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            directory = Files.createTempDirectory("flakime-benchmarks").toFile();
+            project = Fixture.create(fixture, directory);
+            classes = project.load(new File(directory, "output"));
+            methods = new ArrayList<>();
+
+            for (TestClass testClass : classes) {
+                for (TestMethod testMethod : testClass) {
+                    testMethod.getStatementLines();
+                    methods.add(testMethod);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Test classes loaded again before each invocation, as instrumenting modifies them.
+     */
+    @State(Scope.Thread)
+    public static class FreshClasses {
+        File output;
+        List<TestClass> classes;
+
+        @Setup(Level.Trial)
+        public void createOutput() throws IOException {
+            output = Files.createTempDirectory("flakime-benchmarks-output").toFile();
+        }
+
+        @Setup(Level.Invocation)
+        public void load(Workspace workspace) throws NotFoundException {
+            classes = workspace.project.load(output);
+        }
+
+        @TearDown(Level.Invocation)
+        public void detach() {
+            for (TestClass testClass : classes) {
+                testClass.detach();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteOutput() throws IOException {
+            FileUtils.deleteDirectory(output);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Backend {
+        @Param({"javassist", "asm"})
+        String backend;
+
+        InstrumentationBackend instance;
+
+        @Setup(Level.Trial)
+        public void setUp() throws ClassNotFoundException {
+            instance = BackendFactory.fromName(backend, Fixture.LOGGER, FLAKE_RATE);
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Points {
+        public long points;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            points = 0;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Methods {
+        public long methods;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            methods = 0;
+        }
+    }
+
+    @Benchmark
+    public int scanProject(Workspace workspace) throws NotFoundException {
+        return workspace.project.project().getTestMethodMetadata().size();
+    }
+
+    @Benchmark
+    public int filters(Workspace workspace, Methods counter) {
+        final NameFilter annotationFilter = new NameFilter(Fixture.ANNOTATION_FILTERS);
+        final NameFilter methodFilter = new NameFilter(Collections.singleton("^test"));
+        int tests = 0;
+
+        for (TestClass testClass : workspace.classes) {
+            for (CtMethod method : testClass.getCtClass().getDeclaredMethods()) {
+                if (Utils.isTest(method, methodFilter, annotationFilter)) {
+                    ++tests;
+                }
+
+                ++counter.methods;
+            }
+        }
+
+        return tests;
+    }
+
+    @Benchmark
+    public int controlFlow(Workspace workspace, Points counter) {
+        int statements = 0;
+
+        for (TestMethod method : workspace.methods) {
+            final TestMethod fresh = new TestMethod(Fixture.LOGGER, method.getCtMethod(), method.getSourceCodeFile(), method.getCtMethod().getDeclaringClass());
+            statements += fresh.getStatementLines().length;
+        }
+
+        counter.points += statements;
+        return statements;
+    }
+
+    @Benchmark
+    public int computePayload(Workspace workspace, Points counter, Blackhole blackhole) {
+        final FlakePointTable table = new FlakePointTable();
+
+        for (TestMethod method : workspace.methods) {
+            final int[] lineNumbers = method.getStatementLines();
+            final double[] probabilities = MODEL.getStatementFlakinessProbabilities(method, FLAKE_RATE);
+
+            for (int i = 0; i < lineNumbers.length; ++i) {
+                blackhole.consume(FlakimeInstrumenter.computePayload(method, lineNumbers[i], probabilities[i], table));
+            }
+        }
+
+        counter.points += table.size();
+        return table.size();
+    }
+
+    @Benchmark
+    public int instrumentMethods(FreshClasses fresh, Points counter) throws CannotCompileException, NotFoundException {
+        int points = 0;
+
+        for (TestClass testClass : fresh.classes) {
+            final FlakePointTable table = new FlakePointTable();
+            FlakimeInstrumenter.prepare(testClass.getCtClass());
+
+            for (TestMethod testMethod : testClass) {
+                FlakimeInstrumenter.instrument(testMethod, MODEL, table, FLAKE_RATE);
+            }
+
+            FlakimeInstrumenter.complete(testClass.getCtClass(), table);
+            points += table.size();
+        }
+
+        counter.points += points;
+        return points;
+    }
+
+    @Benchmark
+    public int instrumentAndWrite(FreshClasses fresh, Backend backend, Points counter) throws IOException, CannotCompileException {
+        int points = 0;
+
+        for (TestClass testClass : fresh.classes) {
+            backend.instance.instrument(testClass, MODEL);
+
+            for (TestMethod testMethod : testClass) {
+                points += testMethod.getStatementLines().length;
+            }
+        }
+
+        counter.points += points;
+        return points;
+    }
+}
@@ -0,0 +1,154 @@
+package lu.uni.serval.flakime.core.data;
+
+import lu.uni.serval.flakime.core.utils.NameFilter;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * Cheap check telling whether a class file can contain a test method, performed before the class is loaded by
+ * javassist.
+ * <p>
+ * Only the constant pool of the class file is read. Every method name, annotation type and string element value of a
+ * class is stored there as a UTF8 entry, and the method filters are tested against the method names as
+ * {@link lu.uni.serval.flakime.core.utils.Utils#isTest} does.
+ * <p>
+ * The annotation filters are however tested by {@code isTest} against the whole text of the annotations of a method,
+ * element values included, such as {@code @org.junit.jupiter.api.Tag("slow")}, which is not stored in the class file.
+ * The class file is therefore only screened when every annotation filter is an {@code @} followed by name characters,
+ * escaped dots and quantifiers, optionally anchored with {@code ^} and ending with a single {@code .}, like the default
+ * filters: such a filter can only match the name of an annotation type, or the text of a string value, followed by at
+ * most one character. Each annotation type and each other UTF8 entry is then tested as is and followed by a space.
+ * When any annotation filter may match more than that, every class is accepted. A file which cannot be parsed is
+ * always accepted.
+ */
+public class ClassFileFilter {
+    private static final int MAGIC = 0xCAFEBABE;
+    // An annotation filter which can only match an annotation type or a string value, see the class documentation
+    private static final Pattern NAME_ONLY = Pattern.compile("\\^?@(?:(?:[\\w$]|\\\\[.$])[?*+]?)*\\.?");
+
+    private final NameFilter annotationFilters;
+    private final NameFilter methodFilters;
+    private final boolean screenable;
+
+    /**
+     * @param annotationFilters The test annotation filter (i.e. the regex identifying a test by its annotation)
+     * @param methodFilters The test method filter (i.e. the regex identifying a test by name)
+     */
+    public ClassFileFilter(NameFilter annotationFilters, NameFilter methodFilters) {
+        this.annotationFilters = annotationFilters;
+        this.methodFilters = methodFilters;
+        this.screenable = annotationFilters.getRules().stream().allMatch(rule -> NAME_ONLY.matcher(rule).matches());
+    }
+
+    /**
+     * This method is thread safe.
+     *
+     * @param classFile The class file to check
+     * @return False if the class cannot declare any test method
+     */
+    public boolean mayContainTests(File classFile) {
+        // Without any annotation rule, every method is considered as a test
+        if (!annotationFilters.hasRules() || !screenable) {
+            return true;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(classFile)))) {
+            return scanConstantPool(in);
+        } catch (IOException | RuntimeException e) {
+            return true;
+        }
+    }
+
+    private boolean scanConstantPool(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            return true;
+        }
+
+        skip(in, 4); // minor and major versions
+
+        final int count = in.readUnsignedShort();
+        byte[] buffer = new byte[256];
+
+        for (int i = 1; i < count; ++i) {
+            final int tag = in.readUnsignedByte();
+
+            switch (tag) {
+                case 1: // Utf8
+                    final int length = in.readUnsignedShort();
+                    if (length > buffer.length) {
+                        buffer = new byte[Math.max(length, buffer.length * 2)];
+                    }
+                    in.readFully(buffer, 0, length);
+
+                    if (matches(buffer, length)) {
+                        return true;
+                    }
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    skip(in, 4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    skip(in, 8);
+                    ++i;
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    skip(in, 2);
+                    break;
+                case 15: // MethodHandle
+                    skip(in, 3);
+                    break;
+                default:
+                    // Unknown constant, let javassist decide
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The entries are decoded as standard UTF-8, which only differs from the modified UTF-8 of class files for the
+     * null character and supplementary characters.
+     */
+    private boolean matches(byte[] buffer, int length) {
+        final String value = new String(buffer, 0, length, StandardCharsets.UTF_8);
+        final boolean isDescriptor = length > 2 && buffer[0] == 'L' && buffer[length - 1] == ';';
+
+        if (isDescriptor) {
+            final String annotation = "@" + value.substring(1, value.length() - 1).replace('/', '.');
+
+            if (annotationFilters.matches(annotation) || annotationFilters.matches(annotation + " ")) {
+                return true;
+            }
+        } else if (value.indexOf('@') >= 0 && (annotationFilters.matches(value) || annotationFilters.matches(value + " "))) {
+            // A string element value holding the text of an annotation
+            return true;
+        }
+
+        return methodFilters.hasRules() && methodFilters.matches(value);
+    }
+
+    private static void skip(DataInputStream in, int n) throws IOException {
+        if (in.skipBytes(n) != n) {
+            throw new IOException("Unexpected end of class file");
+        }
+    }
+}
@@ -3,12 +3,14 @@ package lu.uni.serval.flakime.core.data;
 import javassist.*;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.*;
+import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import lu.uni.serval.flakime.core.utils.*;
 import lu.uni.serval.flakime.core.utils.NameFilter;
+import lu.uni.serval.flakime.runtime.FlakimeRuntime;
 import org.apache.commons.io.FileUtils;
 
 import static org.apache.commons.io.FilenameUtils.removeExtension;
@@ -19,11 +21,35 @@ public class Project implements Iterable<TestClass> {
     private final NameFilter methodFilters;
     private final NameFilter classFilters;
     private final File classDirectory;
-    private final File sourceDirectory;
+    private final List<File> sourceDirectories;
+    private final SourceIndex sourceIndex;
     private final ClassPool classPool;
-    private final List<TestClass> testClasses;
+    private final BiPredicate<String, File> classSelector;
+    private final Map<String, File> testClassSources;
 
     public Project(Logger logger, Set<String> annotationFilters, Set<String> methodFilters, Set<String> classFilters, File classDirectory, File sourceDirectory, List<String> dependencies) throws NotFoundException {
+        this(logger, annotationFilters, methodFilters, classFilters, classDirectory, sourceDirectory, dependencies, (className, classFile) -> true);
+    }
+
+    public Project(Logger logger, Set<String> annotationFilters, Set<String> methodFilters, Set<String> classFilters, File classDirectory, File sourceDirectory, List<String> dependencies, BiPredicate<String, File> classSelector) throws NotFoundException {
+        this(logger, annotationFilters, methodFilters, classFilters, classDirectory, Collections.singletonList(sourceDirectory), dependencies, classSelector);
+    }
+
+    /**
+     * Project constructor
+     *
+     * @param logger Reference to logger
+     * @param annotationFilters The annotations identifying a test method
+     * @param methodFilters The names identifying a test method
+     * @param classFilters The names of the classes to consider
+     * @param classDirectory The directory holding the compiled test classes
+     * @param sourceDirectories The directories holding the test sources, by decreasing priority
+     * @param dependencies The classpath of the tests
+     * @param classSelector Predicate called with the name and the class file of each candidate test class before it
+     *                      is loaded. Classes for which it returns false are left untouched.
+     * @throws NotFoundException if the class directory or a dependency cannot be appended to the ClassPool
+     */
+    public Project(Logger logger, Set<String> annotationFilters, Set<String> methodFilters, Set<String> classFilters, File classDirectory, List<File> sourceDirectories, List<String> dependencies, BiPredicate<String, File> classSelector) throws NotFoundException {
 
         if (logger == null){
             this.logger = new Logger() {
@@ -55,18 +81,91 @@ public class Project implements Iterable<TestClass> {
         this.methodFilters = new NameFilter(methodFilters);
         this.classFilters = new NameFilter(classFilters);
         this.classDirectory = classDirectory;
-        this.sourceDirectory = sourceDirectory;
+        this.sourceDirectories = sourceDirectories;
+        this.sourceIndex = new SourceIndex(this.logger, sourceDirectories);
         this.classPool = configureClassPool(getDefaultClassPool(), this.classDirectory, dependencies);
-        this.testClasses = initTestClasses();
+        this.classSelector = classSelector;
+        this.testClassSources = initTestClassSources();
     }
 
+    /**
+     * @return The number of classes selected for instrumentation. They are not loaded to compute it.
+     */
     public int getNumberClasses(){
-        return this.testClasses.size();
+        return this.testClassSources.size();
     }
 
+    /**
+     * Iterate over the test classes, loading each one when it is reached. See {@link #stream()}.
+     *
+     * @return An iterator over freshly loaded test classes
+     */
     @Override
     public Iterator<TestClass> iterator(){
-        return this.testClasses.iterator();
+        return stream().iterator();
+    }
+
+    /**
+     * Lazily load the test classes of the project.
+     * <p>
+     * Each class lives in its own ClassPool and is only referenced by the returned {@link TestClass}, so the memory
+     * used by the project is bounded by the number of classes being processed rather than by the size of the module.
+     * Callers should {@link TestClass#detach()} a class once they are done with it.
+     * <p>
+     * Nothing is cached between traversals: every traversal loads the classes again from the class directory, and a
+     * class written in place by a previous traversal is seen as written, for instance already instrumented. Callers
+     * traversing a project again after writing to it must skip such classes, see
+     * {@link lu.uni.serval.flakime.core.instrumentation.FlakimeInstrumenter#isInstrumented}. The list of test classes
+     * itself is computed once, when the project is created.
+     *
+     * @return A sequential stream of test classes
+     */
+    public Stream<TestClass> stream() {
+        return this.testClassSources.entrySet().stream()
+                .map(entry -> createTestClass(entry.getKey(), entry.getValue()))
+                .filter(Objects::nonNull);
+    }
+
+    /**
+     * @return The names of the test classes, in the order of {@link #stream()}. No class is loaded.
+     */
+    public List<String> getTestClassNames() {
+        return new ArrayList<>(this.testClassSources.keySet());
+    }
+
+    /**
+     * Load a single test class in its own ClassPool, as {@link #stream()} does.
+     * <p>
+     * The shared project ClassPool is only used for lookups, which javassist synchronizes, so several threads may load
+     * different classes concurrently.
+     *
+     * @param className The name of a class returned by {@link #getTestClassNames()}
+     * @return The freshly loaded class or {@code null} if it is not a test class of the project or cannot be loaded
+     */
+    public TestClass loadTestClass(String className) {
+        final File sourceFile = this.testClassSources.get(className);
+        return sourceFile != null ? createTestClass(className, sourceFile) : null;
+    }
+
+    /**
+     * Lightweight pass over the test methods of the project for models needing a global view. The classes are
+     * loaded one by one and detached as soon as the metadata of their methods is extracted. As any traversal, see
+     * {@link #stream()}, it reads the classes as they are on disk, so it is meant to be called before instrumenting.
+     *
+     * @return The metadata of every test method of the project
+     */
+    public List<TestMethodMetadata> getTestMethodMetadata() {
+        final List<TestMethodMetadata> metadata = new ArrayList<>();
+
+        for (TestClass testClass : this) {
+            for (TestMethod testMethod : testClass) {
+                metadata.add(testMethod.getMetadata());
+            }
+
+            testClass.detach();
+        }
+
+        return metadata;
     }
 
     /**
@@ -98,38 +197,86 @@ public class Project implements Iterable<TestClass> {
         }
 
         classPool.appendSystemPath();
+        classPool.appendClassPath(new ClassClassPath(FlakimeRuntime.class));
 
         return classPool;
     }
 
-    private List<TestClass> initTestClasses() {
+    /**
+     * Create a ClassPool dedicated to a single test class.
+     * <p>
+     * The test class is loaded by the child pool itself while library lookups are delegated to the shared project
+     * pool. Instrumenting (and writing) a class therefore never touches javassist state owned by another test class,
+     * which allows several classes to be processed concurrently.
+     *
+     * @return A child of the project ClassPool
+     * @throws NotFoundException if the class directory cannot be appended to the pool
+     */
+    private ClassPool createIsolatedClassPool() throws NotFoundException {
+        final ClassPool isolatedClassPool = new ClassPool(this.classPool);
+        isolatedClassPool.childFirstLookup = true;
+        isolatedClassPool.appendClassPath(this.classDirectory.getAbsolutePath());
+
+        return isolatedClassPool;
+    }
+
+    private TestClass createTestClass(String className, File sourceFile) {
+        try {
+            return TestClassFactory.create(this.logger, this.annotationFilters, this.methodFilters, className, createIsolatedClassPool(), sourceFile, this.classDirectory);
+        } catch (NotFoundException e) {
+            logger.warn(String.format("Failed to create class pool for %s: %s", className, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * List the test classes of the project without loading them.
+     * <p>
+     * The class files are first screened in parallel by a {@link ClassFileFilter}, so that only the classes which may
+     * declare a test method are later loaded by javassist.
+     *
+     * @return The source file of each selected class indexed by class name, in the order of the file listing
+     */
+    private Map<String, File> initTestClassSources() {
         final String[] extensions = {"class"};
+        final ClassFileFilter classFileFilter = new ClassFileFilter(this.annotationFilters, this.methodFilters);
+        final Collection<File> classFiles = FileUtils.listFiles(classDirectory, extensions, true);
 
-        return FileUtils.listFiles(classDirectory, extensions, true).stream()
+        final List<String> candidates = classFiles.parallelStream()
+                .filter(classFileFilter::mayContainTests)
                 .map(f -> extractClassNameFromFile(classDirectory, f))
                 .filter(Objects::nonNull)
                 .filter(classFilters::matches)
-                .map(name -> getSourceFile(name)
-                        .map(file -> TestClassFactory.create(this.logger, this.annotationFilters, this.methodFilters, name, this.classPool, file, this.classDirectory))
-                        .orElse(null)
-                )
-                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
-    }
 
-    private Optional<File> getSourceFile(String className){
-        return findFileFromClassName(sourceDirectory, className, ".java");
-    }
+        logger.debug(String.format("%d out of %d class files may contain tests", candidates.size(), classFiles.size()));
+
+        final Map<String, File> sources = new LinkedHashMap<>();
+
+        for (String className : candidates) {
+            final Optional<File> sourceFile = getSourceFile(className);
 
-    private Optional<File> getClassFile(String className){
-        return findFileFromClassName(classDirectory, className, ".class");
+            if (!sourceFile.isPresent()) {
+                continue;
+            }
+
+            if (!classSelector.test(className, getClassFile(className))) {
+                logger.debug(String.format("Skip class %s", className));
+                continue;
+            }
+
+            sources.put(className, sourceFile.get());
+        }
+
+        return sources;
     }
 
-    private static Optional<File> findFileFromClassName(File baseDirectory, String className, String extension){
-        final String relativePath = className.replace(".", File.separator) + extension;
-        final File file = new File(baseDirectory, relativePath);
+    private Optional<File> getSourceFile(String className){
+        return sourceIndex.find(className);
+    }
 
-        return file.exists() ? Optional.of(file) : Optional.empty();
+    private File getClassFile(String className){
+        return new File(classDirectory, className.replace(".", File.separator) + ".class");
     }
 
     private String extractClassNameFromFile(final File parentDirectory, final File classFile) {
@@ -137,34 +284,37 @@ public class Project implements Iterable<TestClass> {
             return null;
         }
 
-        final String qualifiedFileName;
-
-        try {
-            qualifiedFileName = parentDirectory != null
-                    ? classFile.getCanonicalPath().substring(parentDirectory.getCanonicalPath().length() + 1)
-                    : classFile.getCanonicalPath();
-        } catch (IOException e) {
-            logger.warn(String.format("Failed to extract class name from file %s: %s",
-                    classFile.getAbsolutePath(),
-                    e.getMessage())
-            );
-
-            return null;
-        }
+        // The files are listed from the parent directory, their path can be relativized without resolving it
+        final String qualifiedFileName = parentDirectory != null
+                ? parentDirectory.toPath().relativize(classFile.toPath()).toString()
+                : classFile.getPath();
 
         return removeExtension(qualifiedFileName.replace(File.separator, "."));
     }
 
+    /**
+     * Load all the test classes of the project at once, from the class directory as {@link #stream()} does. Prefer
+     * {@link #stream()} for large projects.
+     *
+     * @return The test classes of the project
+     */
     public List<TestClass> getTestClasses() {
-        return testClasses;
+        return stream().collect(Collectors.toList());
     }
 
     public File getClassDirectory() {
         return classDirectory;
     }
 
+    /**
+     * @return The first test source directory
+     */
     public File getSourceDirectory() {
-        return sourceDirectory;
+        return sourceDirectories.isEmpty() ? null : sourceDirectories.get(0);
+    }
+
+    public List<File> getSourceDirectories() {
+        return sourceDirectories;
     }
 
     public ClassPool getClassPool() {
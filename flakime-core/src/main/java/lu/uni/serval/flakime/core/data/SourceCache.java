@@ -0,0 +1,183 @@
+package lu.uni.serval.flakime.core.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Cache of source files shared by a run, so that each file is read from disk once.
+ * <p>
+ * A cached file keeps its text and the offset at which each of its lines starts. Lines are delimited as by
+ * {@link java.io.BufferedReader#readLine()}. The files are evicted in least recently used order once the total number
+ * of cached characters exceeds the capacity; a file larger than the whole capacity is returned but not kept.
+ * <p>
+ * This class is thread safe.
+ */
+public class SourceCache {
+    /**
+     * Default capacity in characters, about 64MB of heap
+     */
+    public static final long DEFAULT_CAPACITY = 32L * 1024 * 1024;
+
+    private final long capacity;
+    private final Charset charset;
+    private final LinkedHashMap<File, SourceFile> files = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    public SourceCache() {
+        this(DEFAULT_CAPACITY, Charset.defaultCharset());
+    }
+
+    /**
+     * @param capacity The maximum number of characters kept in the cache
+     * @param charset The encoding of the source files
+     */
+    public SourceCache(long capacity, Charset charset) {
+        this.capacity = capacity;
+        this.charset = charset;
+    }
+
+    /**
+     * @param file The source file
+     * @return The content of the file
+     * @throws IOException if the file could not be read
+     */
+    public SourceFile get(File file) throws IOException {
+        synchronized (this) {
+            final SourceFile cached = files.get(file);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // Read outside of the lock, two threads may occasionally read the same file
+        final SourceFile sourceFile = new SourceFile(new String(Files.readAllBytes(file.toPath()), charset));
+
+        synchronized (this) {
+            final SourceFile cached = files.get(file);
+            if (cached != null) {
+                return cached;
+            }
+
+            if (sourceFile.length() <= capacity) {
+                files.put(file, sourceFile);
+                size += sourceFile.length();
+                evict();
+            }
+        }
+
+        return sourceFile;
+    }
+
+    private void evict() {
+        final Iterator<SourceFile> iterator = files.values().iterator();
+
+        while (size > capacity && iterator.hasNext()) {
+            size -= iterator.next().length();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return The number of characters currently cached
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        files.clear();
+        size = 0;
+    }
+
+    /**
+     * Text of a source file indexed by line.
+     */
+    public static class SourceFile {
+        private final String text;
+        private final int[] lineStarts;
+        private final int[] lineEnds;
+
+        SourceFile(String text) {
+            this.text = text;
+
+            int[] starts = new int[64];
+            int[] ends = new int[64];
+            int lines = 0;
+            int start = 0;
+            final int length = text.length();
+
+            for (int i = 0; i < length; ++i) {
+                final char c = text.charAt(i);
+
+                if (c == '\n' || c == '\r') {
+                    if (lines == starts.length) {
+                        starts = Arrays.copyOf(starts, lines * 2);
+                        ends = Arrays.copyOf(ends, lines * 2);
+                    }
+
+                    starts[lines] = start;
+                    ends[lines] = i;
+                    ++lines;
+
+                    if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+                        ++i;
+                    }
+
+                    start = i + 1;
+                }
+            }
+
+            if (start < length) {
+                starts = Arrays.copyOf(starts, lines + 1);
+                ends = Arrays.copyOf(ends, lines + 1);
+                starts[lines] = start;
+                ends[lines] = length;
+                ++lines;
+            }
+
+            this.lineStarts = Arrays.copyOf(starts, lines);
+            this.lineEnds = Arrays.copyOf(ends, lines);
+        }
+
+        /**
+         * @return The number of lines of the file
+         */
+        public int getNumberLines() {
+            return lineStarts.length;
+        }
+
+        /**
+         * @param lineNumber The line number, starting at 1
+         * @return The text of the line without its terminator
+         * @throws IndexOutOfBoundsException if the file does not have such a line
+         */
+        public String getLine(int lineNumber) {
+            return text.substring(lineStarts[lineNumber - 1], lineEnds[lineNumber - 1]);
+        }
+
+        /**
+         * @param firstLine The first line, starting at 1
+         * @param lastLine The last line, included
+         * @return The concatenation of the lines, without their terminators
+         * @throws IndexOutOfBoundsException if the file does not have such lines
+         */
+        public String getLines(int firstLine, int lastLine) {
+            final StringBuilder builder = new StringBuilder();
+
+            for (int line = firstLine; line <= lastLine; ++line) {
+                builder.append(text, lineStarts[line - 1], lineEnds[line - 1]);
+            }
+
+            return builder.toString();
+        }
+
+        int length() {
+            return text.length();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package lu.uni.serval.flakime.core.data;
+
+import lu.uni.serval.flakime.core.utils.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+
+import static org.apache.commons.io.FilenameUtils.removeExtension;
+
+/**
+ * Index of the java source files found under a set of source roots, built once by walking the roots in parallel.
+ * <p>
+ * Each root is walked as a fork/join task per directory, so that the packages of a single root, the common case, are
+ * listed in parallel as well.
+ * <p>
+ * Source files are indexed by the fully qualified name of the top-level type they are named after. Nested classes
+ * ({@code Outer$Inner}) are resolved to the file of their outermost class. When the same type is found under several
+ * roots, the first root wins.
+ */
+public class SourceIndex {
+    private static final String EXTENSION = ".java";
+
+    private final Map<String, File> sourceFiles;
+
+    /**
+     * @param logger Reference to logger
+     * @param sourceDirectories The source roots, by decreasing priority. Roots which do not exist are ignored.
+     */
+    public SourceIndex(Logger logger, List<File> sourceDirectories) {
+        // The roots are walked one after the other, the directories of each one in parallel
+        final List<Map<String, File>> roots = sourceDirectories.stream()
+                .map(SourceIndex::indexRoot)
+                .collect(Collectors.toList());
+
+        this.sourceFiles = new HashMap<>();
+
+        for (Map<String, File> root : roots) {
+            for (Map.Entry<String, File> entry : root.entrySet()) {
+                final File previous = this.sourceFiles.putIfAbsent(entry.getKey(), entry.getValue());
+
+                if (previous != null) {
+                    logger.debug(String.format("Ignore %s, %s is already defined in %s",
+                            entry.getValue().getAbsolutePath(),
+                            entry.getKey(),
+                            previous.getAbsolutePath()
+                    ));
+                }
+            }
+        }
+    }
+
+    private static Map<String, File> indexRoot(File sourceDirectory) {
+        if (sourceDirectory == null || !sourceDirectory.isDirectory()) {
+            return Collections.emptyMap();
+        }
+
+        final Collection<File> files = ForkJoinPool.commonPool().invoke(new DirectoryWalk(sourceDirectory));
+        final Map<String, File> index = new HashMap<>(files.size() * 2);
+
+        for (File file : files) {
+            final String relativePath = sourceDirectory.toPath().relativize(file.toPath()).toString();
+            index.put(removeExtension(relativePath).replace(File.separatorChar, '.'), file);
+        }
+
+        return index;
+    }
+
+    /**
+     * Lists the source files of a directory, forking a task for each of its subdirectories.
+     */
+    private static final class DirectoryWalk extends RecursiveTask<List<File>> {
+        private final File directory;
+
+        private DirectoryWalk(File directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<File> compute() {
+            final File[] children = directory.listFiles();
+            final List<File> files = new ArrayList<>();
+
+            if (children == null) {
+                return files;
+            }
+
+            final List<DirectoryWalk> subdirectories = new ArrayList<>();
+
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    final DirectoryWalk walk = new DirectoryWalk(child);
+                    walk.fork();
+                    subdirectories.add(walk);
+                } else if (child.getName().endsWith(EXTENSION)) {
+                    files.add(child);
+                }
+            }
+
+            for (DirectoryWalk walk : subdirectories) {
+                files.addAll(walk.join());
+            }
+
+            return files;
+        }
+    }
+
+    /**
+     * @param className The binary name of a class
+     * @return The source file declaring the class or its outermost class
+     */
+    public Optional<File> find(String className) {
+        final int nested = className.indexOf('$', className.lastIndexOf('.') + 1);
+        final String topLevelName = nested > 0 ? className.substring(0, nested) : className;
+
+        return Optional.ofNullable(this.sourceFiles.get(topLevelName));
+    }
+
+    /**
+     * @return The number of indexed source files
+     */
+    public int size() {
+        return this.sourceFiles.size();
+    }
+}
@@ -30,7 +30,7 @@ public class TestClass implements Iterable<TestMethod> {
                 .filter(ctMethod -> Utils.isTest(ctMethod,methodFilters,annotationFilters))
                 .map(m -> TestMethodFactory.create(logger, m, sourceFile, this.ctClass))
                 .filter(Objects::nonNull)
-                .filter(tm -> tm.getCtMethod().getMethodInfo().getCodeAttribute() != null)
+                .filter(tm -> tm.getCtMethod().getMethodInfo2().getCodeAttribute() != null)
                 .collect(Collectors.toList());
 
         nTestMethods = this.testMethods.size();
@@ -41,6 +41,13 @@ public class TestClass implements Iterable<TestMethod> {
         this.ctClass.writeFile(outputDirectory.getAbsolutePath());
     }
 
+    /**
+     * @return The class file written by {@link #write()}
+     */
+    public File getClassFile() {
+        return new File(outputDirectory, getName().replace('.', File.separatorChar) + ".class");
+    }
+
     @Override
     public Iterator<TestMethod> iterator() {
         return this.testMethods.iterator();
@@ -51,6 +58,18 @@ public class TestClass implements Iterable<TestMethod> {
         return this.ctClass.getName();
     }
 
+    public CtClass getCtClass() {
+        return ctClass;
+    }
+
+    /**
+     * Remove the class from its ClassPool once it has been processed. The instance must not be used afterwards, the
+     * next traversal of the {@link Project} loads the class again from its class file.
+     */
+    public void detach() {
+        this.ctClass.detach();
+    }
+
     public List<TestMethod> getTestMethods() {
         return testMethods;
     }
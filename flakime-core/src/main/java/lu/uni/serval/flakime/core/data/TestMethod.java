@@ -1,9 +1,13 @@
 package lu.uni.serval.flakime.core.data;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.TreeSet;
 import javassist.CannotCompileException;
 import javassist.CtClass;
 import javassist.CtMethod;
@@ -26,49 +30,151 @@ import lu.uni.serval.flakime.core.utils.Logger;
 public class TestMethod {
     private final Logger logger;
     private final CtMethod ctMethod;
-    private final ControlFlow controlFlow;
     private final File sourceCodeFile;
     private final CtClass declaringClass;
-    private final Set<Integer> statementLineNumbers;
-
-    public ControlFlow.Block[] getBlocks() {
-        return controlFlow.basicBlocks();
-    }
+    private volatile Blocks blocks;
 
     /**
      * TestMethod constructor
+     * <p>
+     * The control flow of the method is only analyzed the first time its blocks or statement lines are requested,
+     * or before the first payload is inserted, so that the line numbers always describe the original bytecode.
      *
      * @param logger     Reference to logger
      * @param ctMethod   Instance of javassist {@code CtMethod.class}
      * @param sourceCode Instance of {@code File.class} pointing the method source
      *                   files
      * @param declaringClass The declaringClass fo this test method
-     * @throws BadBytecode Thrown if the bytecode is malformed
      */
-    public TestMethod(Logger logger, CtMethod ctMethod, File sourceCode, CtClass declaringClass) throws BadBytecode {
+    public TestMethod(Logger logger, CtMethod ctMethod, File sourceCode, CtClass declaringClass) {
         this.logger = logger;
         this.ctMethod = ctMethod;
         this.sourceCodeFile = sourceCode;
         this.declaringClass = declaringClass;
-        this.controlFlow = new ControlFlow(this.ctMethod);
-        this.statementLineNumbers = Arrays.stream(this.controlFlow.basicBlocks())
-                .map(block -> this.ctMethod.getMethodInfo().getLineNumber(block.position()))
-                .collect(Collectors.toSet());
     }
 
     public CtMethod getCtMethod() {
         return ctMethod;
     }
 
+    /**
+     * Basic blocks of the method, as computed by javassist.
+     * <p>
+     * The blocks are not kept by the method: they are computed again on each call, from the current bytecode, so
+     * after a payload is inserted they describe the instrumented method.
+     *
+     * @return The basic blocks of the method, empty if its control flow cannot be analyzed
+     * @deprecated The line numbers of the blocks are computed once from the original bytecode and cached, use
+     *             {@link #getBlockStartLines()} and {@link #getBlockEndLines()}
+     */
+    @Deprecated
+    public ControlFlow.Block[] getBlocks() {
+        try {
+            return new ControlFlow(this.ctMethod).basicBlocks();
+        } catch (BadBytecode e) {
+            logger.error(String.format("Failed to analyze the control flow of '%s': %s",
+                    this.ctMethod.getLongName(),
+                    e.getMessage()
+            ));
+
+            return new ControlFlow.Block[0];
+        }
+    }
+
     /**
      *
      * Helper function to extract the line number following all {@code BasicBlocks}
      * representing an statement.
      *
-     * @return The set of line number that are right after a statement.
+     * @return The set of line number that are right after a statement, in a new set
+     * @deprecated Boxes every line number, use {@link #getStatementLines()}
      */
+    @Deprecated
     public Set<Integer> getStatementLineNumbers() {
-        return this.statementLineNumbers;
+        final Set<Integer> lineNumbers = new TreeSet<>();
+        for (int lineNumber : getLines().statementLines) {
+            lineNumbers.add(lineNumber);
+        }
+
+        return lineNumbers;
+    }
+
+    /**
+     * @return The sorted and distinct line numbers that are right after a statement, in a new array
+     */
+    public int[] getStatementLines() {
+        return getLines().statementLines.clone();
+    }
+
+    /**
+     * @return The line of the first instruction of each basic block, in block order, in a new array
+     */
+    public int[] getBlockStartLines() {
+        return getLines().startLines.clone();
+    }
+
+    /**
+     * @return The line of the first instruction following each basic block, in block order, in a new array
+     */
+    public int[] getBlockEndLines() {
+        return getLines().endLines.clone();
+    }
+
+    /**
+     * @return A snapshot of the names and line numbers of the method, which does not retain the method itself
+     */
+    public TestMethodMetadata getMetadata() {
+        return new TestMethodMetadata(this);
+    }
+
+    /**
+     * The basic blocks are computed from the original bytecode of the method, so the analysis has to happen before
+     * any payload is inserted: every method modifying the code calls this one first. Only the line numbers are kept,
+     * the {@code ControlFlow} itself is discarded as soon as they are extracted.
+     */
+    private Blocks getLines() {
+        Blocks current = this.blocks;
+
+        if (current == null) {
+            synchronized (this) {
+                current = this.blocks;
+
+                if (current == null) {
+                    current = analyze();
+                    this.blocks = current;
+                }
+            }
+        }
+
+        return current;
+    }
+
+    private Blocks analyze() {
+        final ControlFlow.Block[] basicBlocks;
+        try {
+            basicBlocks = new ControlFlow(this.ctMethod).basicBlocks();
+        } catch (BadBytecode e) {
+            logger.error(String.format("Failed to analyze the control flow of '%s': %s",
+                    this.ctMethod.getLongName(),
+                    e.getMessage()
+            ));
+
+            return new Blocks(new int[0], new int[0]);
+        }
+
+        final CodeAttribute ca = this.ctMethod.getMethodInfo2().getCodeAttribute();
+        final LineNumberAttribute ainfo = (LineNumberAttribute) ca.getAttribute(LineNumberAttribute.tag);
+
+        final int[] startLines = new int[basicBlocks.length];
+        final int[] endLines = new int[basicBlocks.length];
+
+        for (int i = 0; i < basicBlocks.length; ++i) {
+            final int position = basicBlocks[i].position();
+            startLines[i] = ainfo != null ? ainfo.toLineNumber(position) : -1;
+            endLines[i] = ainfo != null ? ainfo.toLineNumber(position + basicBlocks[i].length()) : -1;
+        }
+
+        return new Blocks(startLines, endLines);
     }
 
     /**
@@ -81,12 +187,15 @@ public class TestMethod {
      * @throws CannotCompileException If the variable does no follow java syntax
      */
     public void addLocalVariable(String variableName, CtClass type) throws CannotCompileException {
+        getLines();
         this.ctMethod.addLocalVariable(variableName, type);
         logger.debug(
                 String.format("Inserted local variable '%s' to method %s", variableName, this.ctMethod.getLongName()));
     }
 
     public void insertBefore(String payload) {
+        getLines();
+
         try {
             this.ctMethod.insertBefore(payload);
             logger.debug(
@@ -107,66 +216,122 @@ public class TestMethod {
      *
      */
     public void insertAt(int lineNumber, String payload) {
+        insertAt(Collections.singletonMap(lineNumber, payload));
+    }
 
-        try {
-            logger.debug(String.format("[%s][lineNumber: %d]", this.getName(), lineNumber));
-            insertAt(lineNumber, true, payload);
-            logger.debug(
-                    String.format("Inserted payload at line %s in method %s", lineNumber, this.ctMethod.getLongName()));
-
-        } catch (CannotCompileException e) {
+    /**
+     * Insert several source code payloads in the {@code CtMethod} instance in a single pass.
+     * <p>
+     * Every target position is resolved from the line number table before the code is modified. The payloads are
+     * then compiled and spliced from the highest bytecode offset to the lowest one, so that the offsets which remain
+     * to be processed are never shifted. The maximum stack size and the StackMapTable are recomputed once, after
+     * the last insertion. A payload which fails to compile is reported and skipped.
+     * <p>
+     * When the method grows past 32KB, javassist widens the jumps spanning an insertion point, which moves the code
+     * preceding it. The offsets resolved up front are then stale: the remaining payloads are located again from the
+     * updated line number table before their insertion, as successive single insertions would.
+     *
+     * @param payloads The source code to insert indexed by target line. Blank payloads are ignored.
+     * @return The number of payloads inserted in the method
+     */
+    public int insertAt(Map<Integer, String> payloads) {
+        getLines();
 
-            logger.error(String.format("Failed to insert payload at line %d in method '%s': %s", lineNumber,
-                    this.ctMethod.getLongName(), e.getMessage()));
+        final CodeAttribute ca = ctMethod.getMethodInfo().getCodeAttribute();
+        if (ca == null) {
+            logger.error(String.format("Failed to insert payloads in method '%s': no method body", this.ctMethod.getLongName()));
+            return 0;
+        }
 
+        final LineNumberAttribute ainfo = (LineNumberAttribute) ca.getAttribute(LineNumberAttribute.tag);
+        if (ainfo == null) {
+            logger.error(String.format("Failed to insert payloads in method '%s': no line number info", this.ctMethod.getLongName()));
+            return 0;
         }
-    }
 
-    private void insertAt(int lineNum, boolean modify, String src) throws CannotCompileException {
-        CodeAttribute ca = ctMethod.getMethodInfo().getCodeAttribute();
-        if (ca == null)
-            throw new CannotCompileException("no method body");
+        final List<int[]> positions = new ArrayList<>();
+        for (Map.Entry<Integer, String> payload : payloads.entrySet()) {
+            if (!payload.getValue().trim().isEmpty()) {
+                positions.add(new int[]{ainfo.toNearPc(payload.getKey()).index, payload.getKey()});
+            }
+        }
 
-        LineNumberAttribute ainfo = (LineNumberAttribute) ca.getAttribute(LineNumberAttribute.tag);
-        if (ainfo == null)
-            throw new CannotCompileException("no line number info");
+        if (positions.isEmpty()) {
+            return 0;
+        }
 
-        LineNumberAttribute.Pc pc = ainfo.toNearPc(lineNum);
-        int index = pc.index;
-        if (!modify)
-            return;
+        // Highest offset first. Payloads sharing an offset are stacked in front of each other, the last one
+        // processed ending up first in the code, as with successive single insertions.
+        positions.sort((a, b) -> a[0] != b[0] ? Integer.compare(b[0], a[0]) : Integer.compare(a[1], b[1]));
 
-        CtClass cc = declaringClass;
-        CodeIterator iterator = ca.iterator();
-        Javac jv = new Javac(cc);
+        final CtClass[] parameterTypes;
         try {
-            jv.recordLocalVariables(ca, index);
-            jv.recordParams(ctMethod.getParameterTypes(), Modifier.isStatic(ctMethod.getModifiers()));
-            jv.setMaxLocals(ca.getMaxLocals());
-            jv.compileStmnt(src);
-            Bytecode b = jv.getBytecode();
-            int locals = b.getMaxLocals();
-            int stack = b.getMaxStack();
-            ca.setMaxLocals(locals);
+            parameterTypes = ctMethod.getParameterTypes();
+        } catch (NotFoundException e) {
+            logger.error(String.format("Failed to insert payloads in method '%s': %s", this.ctMethod.getLongName(), e.getMessage()));
+            return 0;
+        }
 
-            /*
-             * We assume that there is no values in the operand stack at the position where
-             * the bytecode is inserted.
-             */
+        final CodeIterator iterator = ca.iterator();
+        final int initialMaxStack = ca.getMaxStack();
+        int payloadMaxStack = 0;
+        int inserted = 0;
+        boolean stale = false;
 
+        for (int[] position : positions) {
+            final int lineNumber = position[1];
+            logger.debug(String.format("[%s][lineNumber: %d]", this.getName(), lineNumber));
+
+            try {
+                final int target = stale ? ainfo.toNearPc(lineNumber).index : position[0];
+                final Bytecode b = compile(ca, target, parameterTypes, payloads.get(lineNumber));
+                ca.setMaxLocals(b.getMaxLocals());
+                payloadMaxStack = Math.max(payloadMaxStack, b.getMaxStack());
+
+                final int index = iterator.insertAt(target, b.get());
+                iterator.insert(b.getExceptionTable(), index);
+                ++inserted;
+
+                if (index != target && !stale) {
+                    logger.debug(String.format("Jumps of method %s were widened, locating the remaining payloads again", this.ctMethod.getLongName()));
+                    stale = true;
+                }
+
+                logger.debug(
+                        String.format("Inserted payload at line %s in method %s", lineNumber, this.ctMethod.getLongName()));
+            } catch (CompileError | BadBytecode e) {
+                logger.error(String.format("Failed to insert payload at line %d in method '%s': %s", lineNumber,
+                        this.ctMethod.getLongName(), e.getMessage()));
+            }
+        }
 
+        try {
+            ca.computeMaxStack();
+        } catch (BadBytecode e) {
             /*
-             * Added by us
+             * We assume that there is no values in the operand stack at the positions where
+             * the bytecode is inserted.
              */
-            int currentStackHeight = ca.getMaxStack();
-            ca.setMaxStack(stack + currentStackHeight);
-
-            index = iterator.insertAt(index, b.get());
-            iterator.insert(b.getExceptionTable(), index);
-            ctMethod.getMethodInfo().rebuildStackMapIf6(cc.getClassPool(), cc.getClassFile2());
-        } catch (NotFoundException | CompileError | BadBytecode e) {
-            throw new CannotCompileException(e);
+            ca.setMaxStack(initialMaxStack + payloadMaxStack);
+        }
+
+        try {
+            ctMethod.getMethodInfo().rebuildStackMapIf6(declaringClass.getClassPool(), declaringClass.getClassFile2());
+        } catch (BadBytecode e) {
+            logger.error(String.format("Failed to rebuild stack map of method '%s': %s", this.ctMethod.getLongName(), e.getMessage()));
         }
+
+        return inserted;
+    }
+
+    private Bytecode compile(CodeAttribute ca, int index, CtClass[] parameterTypes, String src) throws CompileError {
+        final Javac jv = new Javac(declaringClass);
+        jv.recordLocalVariables(ca, index);
+        jv.recordParams(parameterTypes, Modifier.isStatic(ctMethod.getModifiers()));
+        jv.setMaxLocals(ca.getMaxLocals());
+        jv.compileStmnt(src);
+
+        return jv.getBytecode();
     }
 
     /**
@@ -188,4 +353,19 @@ public class TestMethod {
     public File getSourceCodeFile() {
         return sourceCodeFile;
     }
+
+    /**
+     * Line numbers of the basic blocks of the method. The arrays are never handed out, the getters return copies.
+     */
+    private static final class Blocks {
+        private final int[] startLines;
+        private final int[] endLines;
+        private final int[] statementLines;
+
+        private Blocks(int[] startLines, int[] endLines) {
+            this.startLines = startLines;
+            this.endLines = endLines;
+            this.statementLines = Arrays.stream(startLines).sorted().distinct().toArray();
+        }
+    }
 }
@@ -0,0 +1,65 @@
+package lu.uni.serval.flakime.core.data;
+
+import java.io.File;
+
+/**
+ * Lightweight snapshot of a {@link TestMethod}, holding its names, source file and line numbers but no javassist
+ * object. Models which need a view of the whole project keep these instead of the test classes themselves, so that
+ * the classes can be released as soon as they are processed.
+ */
+public class TestMethodMetadata {
+    private final String name;
+    private final String longName;
+    private final File sourceCodeFile;
+    private final int[] statementLines;
+    private final int[] blockStartLines;
+    private final int[] blockEndLines;
+
+    TestMethodMetadata(TestMethod testMethod) {
+        this.name = testMethod.getName();
+        this.longName = testMethod.getLongName();
+        this.sourceCodeFile = testMethod.getSourceCodeFile();
+        this.statementLines = testMethod.getStatementLines();
+        this.blockStartLines = testMethod.getBlockStartLines();
+        this.blockEndLines = testMethod.getBlockEndLines();
+    }
+
+    /**
+     * @return The method simpleName
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return method fully qualified name
+     */
+    public String getLongName() {
+        return longName;
+    }
+
+    public File getSourceCodeFile() {
+        return sourceCodeFile;
+    }
+
+    /**
+     * @return See {@link TestMethod#getStatementLines()}
+     */
+    public int[] getStatementLines() {
+        return statementLines.clone();
+    }
+
+    /**
+     * @return See {@link TestMethod#getBlockStartLines()}
+     */
+    public int[] getBlockStartLines() {
+        return blockStartLines.clone();
+    }
+
+    /**
+     * @return See {@link TestMethod#getBlockEndLines()}
+     */
+    public int[] getBlockEndLines() {
+        return blockEndLines.clone();
+    }
+}
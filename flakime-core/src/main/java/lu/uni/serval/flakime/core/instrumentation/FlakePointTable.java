@@ -0,0 +1,61 @@
+package lu.uni.serval.flakime.core.instrumentation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lu.uni.serval.flakime.core.data.TestMethod;
+import lu.uni.serval.flakime.runtime.FlakePoints;
+
+/**
+ * Builder of the table of flake points of an instrumented class (see {@link FlakePoints}). Points are numbered in
+ * the order they are added.
+ */
+public class FlakePointTable {
+    private final List<String> methods = new ArrayList<>();
+    private final Map<String, Integer> methodIndexes = new HashMap<>();
+    private final List<Integer> pointMethods = new ArrayList<>();
+    private final List<Integer> lines = new ArrayList<>();
+    private final List<Double> probabilities = new ArrayList<>();
+
+    /**
+     * Register a new flake point.
+     *
+     * @param testMethod The method holding the point
+     * @param lineNumber The line of the statement followed by the point
+     * @param probability The probability of the point to flake
+     * @return The index of the point in the table
+     */
+    public int add(TestMethod testMethod, int lineNumber, double probability) {
+        final Integer methodIndex = methodIndexes.computeIfAbsent(testMethod.getLongName(), name -> {
+            methods.add(name);
+            return methods.size() - 1;
+        });
+
+        pointMethods.add(methodIndex);
+        lines.add(lineNumber);
+        probabilities.add(probability);
+
+        return lines.size() - 1;
+    }
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    public int size() {
+        return lines.size();
+    }
+
+    /**
+     * @return The table as loaded by the instrumented class
+     */
+    public FlakePoints toFlakePoints() {
+        return new FlakePoints(
+                methods.toArray(new String[0]),
+                pointMethods.stream().mapToInt(Integer::intValue).toArray(),
+                lines.stream().mapToInt(Integer::intValue).toArray(),
+                probabilities.stream().mapToDouble(Double::doubleValue).toArray()
+        );
+    }
+}
@@ -1,17 +1,28 @@
 package lu.uni.serval.flakime.core.instrumentation;
 
-import java.io.File;
-import java.time.Instant;
-import java.util.Set;
+import java.util.Map;
+import java.util.TreeMap;
 import javassist.CannotCompileException;
 import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.CtNewMethod;
+import javassist.NotFoundException;
+import javassist.bytecode.AccessFlag;
 import lu.uni.serval.flakime.core.instrumentation.models.Model;
 import lu.uni.serval.flakime.core.data.TestMethod;
 import lu.uni.serval.flakime.core.instrumentation.models.uniform.UniformDistrubtionModel;
 import lu.uni.serval.flakime.core.instrumentation.models.vocabulary.VocabularyModel;
+import lu.uni.serval.flakime.runtime.FlakePoints;
+import lu.uni.serval.flakime.runtime.FlakimeRuntime;
 
 /**
  * Executor to perform transformation.
+ * <p>
+ * The injected code delegates to the flakime runtime (see {@link FlakimeRuntime}): the instrumented method stores the
+ * value returned by {@link FlakimeRuntime#enter()} in a local variable, {@value #RANDOM_VARIABLE}, when it starts. Each
+ * flake point is a call to a synthetic static method of the class, {@value #CHECK_METHOD}, taking that value and the
+ * index of the point in the table of the class, {@value #POINTS_FIELD}.
  */
 public class FlakimeInstrumenter {
 
@@ -19,40 +30,102 @@ public class FlakimeInstrumenter {
         throw new IllegalAccessException("FlakimeInstrumenter should not be instantiated");
     }
 
-    private static final String FLAKIME_OUTPUT_DIR = "__FLAKIME_OUTPUTDIR_" + Instant.now().getEpochSecond();
-    private static final String RANDOM_VARIABLE_NAME = "__FLAKIME_RANDOM_VARIABLE__" + Instant.now().getEpochSecond();
-    private static final String FLAKIME_DISABLE_FLAG = "__FLAKIME_DISABLE_FLAG__";
+    public static final String POINTS_FIELD = "__FLAKIME_POINTS__";
+    public static final String CHECK_METHOD = "__FLAKIME_CHECK__";
+    public static final String RANDOM_VARIABLE = "__FLAKIME_RANDOM__";
 
+    public static final String RUNTIME_CLASS = FlakimeRuntime.class.getName();
+    public static final String POINTS_CLASS = FlakePoints.class.getName();
+
+    /**
+     * @param ctClass A test class
+     * @return True if the class already went through the instrumentation, for instance when the tests were not
+     *         compiled again since the last run
+     */
+    public static boolean isInstrumented(CtClass ctClass) {
+        for (CtField field : ctClass.getDeclaredFields()) {
+            if (field.getName().equals(POINTS_FIELD)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Add the table of flake points and the check method to a class, before instrumenting its methods.
+     *
+     * @param ctClass The class to instrument
+     * @throws CannotCompileException if the members cannot be added
+     */
+    public static void prepare(CtClass ctClass) throws CannotCompileException {
+        final CtField points = CtField.make(String.format("private static final %s %s;", POINTS_CLASS, POINTS_FIELD), ctClass);
+        points.setModifiers(points.getModifiers() | AccessFlag.SYNTHETIC);
+        ctClass.addField(points);
+
+        final CtMethod check = CtNewMethod.make(String.format("private static void %s(double random, int point) throws Exception { %s.check(%s, point, random); }",
+                CHECK_METHOD,
+                RUNTIME_CLASS,
+                POINTS_FIELD
+        ), ctClass);
+        check.setModifiers(check.getModifiers() | AccessFlag.SYNTHETIC);
+        ctClass.addMethod(check);
+    }
+
+    /**
+     * Initialize the table of flake points of a class once all its methods are instrumented. The members added by
+     * {@link #prepare(CtClass)} are removed if the class does not have any flake point.
+     *
+     * @param ctClass The instrumented class
+     * @param table The flake points injected in the class
+     * @throws CannotCompileException if the table cannot be initialized
+     * @throws NotFoundException if the members added by {@link #prepare(CtClass)} are missing
+     */
+    public static void complete(CtClass ctClass, FlakePointTable table) throws CannotCompileException, NotFoundException {
+        if (table.isEmpty()) {
+            ctClass.removeMethod(ctClass.getDeclaredMethod(CHECK_METHOD));
+            ctClass.removeField(ctClass.getDeclaredField(POINTS_FIELD));
+            return;
+        }
+
+        final StringBuilder chunks = new StringBuilder();
+        for (String chunk : table.toFlakePoints().encode()) {
+            chunks.append(chunks.length() == 0 ? "" : ",").append('"').append(escape(chunk)).append('"');
+        }
+
+        ctClass.makeClassInitializer().insertBefore(String.format("%s = %s.decode(new String[]{%s});",
+                POINTS_FIELD,
+                POINTS_CLASS,
+                chunks
+        ));
+    }
 
     /**
      * Method that triggers the computation of the payload and insert it at the given source code position
      *
      * @param testMethod The targeted test method
      * @param model The strategy to use (see {@link VocabularyModel}, {@link UniformDistrubtionModel}
-     * @param outputDir The directory where the flake position report file will be written
-     * @param disableFlag The environment variable name that control if the flake will occur
+     * @param table The table collecting the flake points of the class
      * @param flakeRate The flake rate
-     * @param disableReport flag to disable report or not.
+     * @return The number of flake points inserted in the method. The points added to the table whose payload could not
+     *         be inserted are never reached.
      * @throws CannotCompileException if the source code compilation Fails
      */
-    public static void instrument(TestMethod testMethod, Model model, File outputDir, String disableFlag, double flakeRate, boolean disableReport)
+    public static int instrument(TestMethod testMethod, Model model, FlakePointTable table, double flakeRate)
             throws CannotCompileException{
-        testMethod.addLocalVariable(RANDOM_VARIABLE_NAME, CtClass.doubleType);
-        testMethod.insertBefore(String.format("%s = Math.random();", RANDOM_VARIABLE_NAME));
+        // Resolved before the prologue is inserted, the statements are computed from the original bytecode
+        final int[] lineNumbers = testMethod.getStatementLines();
+        final double[] probabilities = model.getStatementFlakinessProbabilities(testMethod, flakeRate);
 
-        testMethod.addLocalVariable(FLAKIME_DISABLE_FLAG, CtClass.booleanType);
-        testMethod.insertBefore(String.format("%s = Boolean.parseBoolean(System.getenv(\"%s\"));", FLAKIME_DISABLE_FLAG,disableFlag));
-
-        Set<Integer> statementLineNumbers = testMethod.getStatementLineNumbers();
-            for (int lineNumber : statementLineNumbers) {
-                final String payload = computePayload(testMethod, model, lineNumber,outputDir,flakeRate,disableReport);
-                testMethod.insertAt(lineNumber+1,payload);
-            }
+        testMethod.addLocalVariable(RANDOM_VARIABLE, CtClass.doubleType);
+        testMethod.insertBefore(String.format("%s = %s.enter();", RANDOM_VARIABLE, RUNTIME_CLASS));
 
-    }
+        final Map<Integer, String> payloads = new TreeMap<>();
+        for (int i = 0; i < lineNumbers.length; ++i) {
+            payloads.put(lineNumbers[i] + 1, computePayload(testMethod, lineNumbers[i], probabilities[i], table));
+        }
 
-    private static String prettyName(String name){
-        return name.replace('.','_').replace("(","").replace(")","").replace("#","_");
+        return testMethod.insertAt(payloads);
     }
 
     /**
@@ -61,67 +134,32 @@ public class FlakimeInstrumenter {
      * @param testMethod The targeted test method
      * @param model   The flakiness probability calculation strategy
      * @param lineNumber The line number corresponding to the execution statement
+     * @param flakeRate The flake rate
+     * @param table The table collecting the flake points of the class
      * @return The effective source code string to be injected.
      */
-    public static String computePayload(TestMethod testMethod, Model model, int lineNumber, File outputDir, double flakeRate, boolean disableReport) {
-        final StringBuilder result = new StringBuilder();
-        double probability = model.getTestFlakinessProbability(testMethod, lineNumber,flakeRate);
-        String path = outputDir.getAbsolutePath().replace("\\","\\\\");
-
-        String fileWritterString = "";
-        if (!disableReport) fileWritterString = writeFileString(prettyName(testMethod.getLongName()),probability,path,lineNumber);
-
-        String flakeCondition = flakeConditionString(probability);
-
-        if (probability > 0) {
-            result.append("if(")
-                    .append(flakeCondition)
-                    .append(")")
-                    .append("{")
-                    .append(fileWritterString)
-                    .append("\n")
-                    .append("throw new Exception(\"Flakime Exception\");")
-                    .append("}")
-                    .append("\n");
-        }
-
-        return result.toString();
+    public static String computePayload(TestMethod testMethod, Model model, int lineNumber, double flakeRate, FlakePointTable table) {
+        return computePayload(testMethod, lineNumber, model.getTestFlakinessProbability(testMethod, lineNumber, flakeRate), table);
     }
 
-    private static String flakeConditionString(double probability){
-       return String.format("(!%s) && (%s < %f)", FLAKIME_DISABLE_FLAG, RANDOM_VARIABLE_NAME,probability);
+    /**
+     * Method to compute the effective payload of a statement whose probability is already known
+     *
+     * @param testMethod The targeted test method
+     * @param lineNumber The line number corresponding to the execution statement
+     * @param probability The flakiness probability of the statement
+     * @param table The table collecting the flake points of the class
+     * @return The effective source code string to be injected.
+     */
+    public static String computePayload(TestMethod testMethod, int lineNumber, double probability, FlakePointTable table) {
+        if (probability <= 0) {
+            return "";
+        }
+
+        return String.format("%s(%s, %d);", CHECK_METHOD, RANDOM_VARIABLE, table.add(testMethod, lineNumber, probability));
     }
 
-    private static String writeFileString(String methodName,double probability,String path,int lineNumber){
-        final String folderInitialization = String.format("java.io.File %s = new java.io.File(\"%s\");\n%s.mkdir();",
-                FLAKIME_OUTPUT_DIR,
-                path,
-                FLAKIME_OUTPUT_DIR
-        );
-
-        final String fileName = String.format("_output_%s.out",
-                methodName
-        );
-
-        final String declaration = String.format(
-                "java.io.FileWriter fw = new java.io.FileWriter(new java.io.File(%s,\"%s\"),true);",
-                FLAKIME_OUTPUT_DIR,
-                fileName
-        );
-
-        final String filePayload = String.format("String.valueOf(%s)+\",%d,%.2f\\n\"","System.currentTimeMillis()",
-                lineNumber,
-                probability
-        );
-
-        return folderInitialization +
-                "\n" +
-                declaration +
-                "\n" +
-                "fw.write(" +
-                filePayload +
-                ");" +
-                "\n" +
-                "fw.close();";
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\t", "\\t");
     }
 }
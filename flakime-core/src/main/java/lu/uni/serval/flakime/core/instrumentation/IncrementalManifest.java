@@ -0,0 +1,241 @@
+package lu.uni.serval.flakime.core.instrumentation;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import lu.uni.serval.flakime.core.utils.Fingerprint;
+import lu.uni.serval.flakime.core.utils.Logger;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Book-keeping of an incremental instrumentation.
+ * <p>
+ * The manifest remembers, for each test class, the fingerprint of the class file produced by the compiler and the
+ * fingerprint of the class file written by flakime, together with the probabilities computed for its tests. A copy of
+ * both versions is kept in the cache directory. On the next run, a class file matching either fingerprint is not
+ * loaded at all: its instrumented version is reused as is. The whole manifest is discarded as soon as the
+ * configuration fingerprint changes.
+ */
+public class IncrementalManifest {
+    private static final String VERSION = "2";
+    private static final String SEPARATOR = ";";
+    private static final String MANIFEST_FILE = "manifest.csv";
+    private static final String ORIGINAL_DIRECTORY = "original";
+    private static final String INSTRUMENTED_DIRECTORY = "instrumented";
+
+    private final Logger logger;
+    private final File cacheDirectory;
+    private final String configuration;
+    private final boolean sameConfiguration;
+    private final Map<String, Entry> previousEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, String> pendingOriginals = new ConcurrentHashMap<>();
+    private final Set<String> reusedClasses = ConcurrentHashMap.newKeySet();
+
+    private IncrementalManifest(Logger logger, File cacheDirectory, String configuration, String previousConfiguration, Map<String, Entry> previousEntries) {
+        this.logger = logger;
+        this.cacheDirectory = cacheDirectory;
+        this.configuration = configuration;
+        this.sameConfiguration = configuration.equals(previousConfiguration);
+        this.previousEntries = previousEntries;
+    }
+
+    /**
+     * Load the manifest of the previous run.
+     *
+     * @param logger Reference to logger
+     * @param cacheDirectory The directory holding the manifest and the cached class files
+     * @param configuration The fingerprint of the current configuration
+     * @return The manifest, empty if no previous run could be found
+     */
+    public static IncrementalManifest load(Logger logger, File cacheDirectory, String configuration) {
+        final File manifestFile = new File(cacheDirectory, MANIFEST_FILE);
+        final Map<String, Entry> previousEntries = new HashMap<>();
+        String previousConfiguration = null;
+
+        if (manifestFile.exists()) {
+            try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String[] fields = line.split(SEPARATOR, -1);
+
+                    if (fields[0].equals("version") && !fields[1].equals(VERSION)) {
+                        logger.info("Incremental manifest has an unsupported version, ignoring it");
+                        return new IncrementalManifest(logger, cacheDirectory, configuration, null, new HashMap<>());
+                    } else if (fields[0].equals("configuration")) {
+                        previousConfiguration = fields[1];
+                    } else if (fields[0].equals("class")) {
+                        previousEntries.put(fields[1], new Entry(fields[2], fields[3]));
+                    } else if (fields[0].equals("test") && previousEntries.containsKey(fields[1])) {
+                        previousEntries.get(fields[1]).testProbabilities.put(fields[2], Double.parseDouble(fields[3]));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn(String.format("Failed to read incremental manifest %s, instrumenting all classes: %s",
+                        manifestFile.getAbsolutePath(),
+                        e.getMessage()
+                ));
+                previousEntries.clear();
+                previousConfiguration = null;
+            }
+        }
+
+        return new IncrementalManifest(logger, cacheDirectory, configuration, previousConfiguration, previousEntries);
+    }
+
+    /**
+     * Decide whether a class file has to go through the instrumentation.
+     * <p>
+     * If the class is up to date, its instrumented version is restored in place when needed and the class is
+     * reported as not requiring instrumentation. Otherwise, the class file is brought back to its original version
+     * (in case it still holds the output of a previous run) and a copy of it is kept for later runs.
+     *
+     * @param className The fully qualified name of the class
+     * @param classFile The class file in the test class directory
+     * @return True if the class must be loaded and instrumented
+     */
+    public boolean requiresInstrumentation(String className, File classFile) {
+        try {
+            final String current = Fingerprint.of(FileUtils.readFileToByteArray(classFile));
+            final Entry previous = previousEntries.get(className);
+
+            if (previous != null && sameConfiguration) {
+                if (current.equals(previous.instrumented)) {
+                    reuse(className, previous);
+                    return false;
+                }
+
+                final File instrumentedCopy = getCachedFile(INSTRUMENTED_DIRECTORY, className);
+                if (current.equals(previous.original) && instrumentedCopy.exists()) {
+                    FileUtils.copyFile(instrumentedCopy, classFile, false);
+                    reuse(className, previous);
+                    return false;
+                }
+            }
+
+            final File originalCopy = getCachedFile(ORIGINAL_DIRECTORY, className);
+            if (previous != null && current.equals(previous.instrumented) && originalCopy.exists()) {
+                logger.debug(String.format("Restore original bytecode of %s", className));
+                FileUtils.copyFile(originalCopy, classFile, false);
+                pendingOriginals.put(className, previous.original);
+            } else {
+                FileUtils.copyFile(classFile, originalCopy);
+                pendingOriginals.put(className, current);
+            }
+        } catch (IOException e) {
+            logger.warn(String.format("Failed to check incremental state of %s: %s", className, e.getMessage()));
+        }
+
+        return true;
+    }
+
+    private void reuse(String className, Entry previous) {
+        entries.put(className, previous);
+        reusedClasses.add(className);
+    }
+
+    /**
+     * Record the instrumented version of a class written during this run.
+     *
+     * @param className The fully qualified name of the class
+     * @param classFile The class file written by the instrumentation
+     * @param testProbabilities The probabilities of the tests of the class
+     */
+    public void record(String className, File classFile, Map<String, Double> testProbabilities) {
+        final String original = pendingOriginals.remove(className);
+
+        if (original == null) {
+            return;
+        }
+
+        try {
+            final byte[] instrumented = FileUtils.readFileToByteArray(classFile);
+            FileUtils.writeByteArrayToFile(getCachedFile(INSTRUMENTED_DIRECTORY, className), instrumented);
+
+            final Entry entry = new Entry(original, Fingerprint.of(instrumented));
+            entry.testProbabilities.putAll(testProbabilities);
+            entries.put(className, entry);
+        } catch (IOException e) {
+            logger.warn(String.format("Failed to cache instrumented version of %s: %s", className, e.getMessage()));
+        }
+    }
+
+    /**
+     * @return The number of classes reused from the previous run
+     */
+    public int getNumberReusedClasses() {
+        return reusedClasses.size();
+    }
+
+    /**
+     * @return The probabilities of the tests of the classes reused from the previous run
+     */
+    public Map<String, Double> getReusedTestProbabilities() {
+        final Map<String, Double> testProbabilities = new HashMap<>();
+
+        for (String className : reusedClasses) {
+            testProbabilities.putAll(entries.get(className).testProbabilities);
+        }
+
+        return testProbabilities;
+    }
+
+    /**
+     * Write the manifest of the current run and remove the cached files of the classes that disappeared.
+     *
+     * @throws IOException Thrown if the manifest could not be written
+     */
+    public void save() throws IOException {
+        for (String className : previousEntries.keySet()) {
+            if (!entries.containsKey(className) && !pendingOriginals.containsKey(className)) {
+                FileUtils.deleteQuietly(getCachedFile(ORIGINAL_DIRECTORY, className));
+                FileUtils.deleteQuietly(getCachedFile(INSTRUMENTED_DIRECTORY, className));
+            }
+        }
+
+        final File manifestFile = new File(cacheDirectory, MANIFEST_FILE);
+        FileUtils.forceMkdirParent(manifestFile);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+            writeLine(writer, "version", VERSION);
+            writeLine(writer, "configuration", configuration);
+
+            for (Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+                writeLine(writer, "class", entry.getKey(), entry.getValue().original, entry.getValue().instrumented);
+
+                for (Map.Entry<String, Double> test : new TreeMap<>(entry.getValue().testProbabilities).entrySet()) {
+                    writeLine(writer, "test", entry.getKey(), test.getKey(), String.valueOf(test.getValue()));
+                }
+            }
+        }
+    }
+
+    private static void writeLine(BufferedWriter writer, String... fields) throws IOException {
+        writer.write(String.join(SEPARATOR, Arrays.asList(fields)));
+        writer.newLine();
+    }
+
+    private File getCachedFile(String directory, String className) {
+        return new File(new File(cacheDirectory, directory), className.replace('.', File.separatorChar) + ".class");
+    }
+
+    private static class Entry {
+        private final String original;
+        private final String instrumented;
+        private final Map<String, Double> testProbabilities = new HashMap<>();
+
+        private Entry(String original, String instrumented) {
+            this.original = original;
+            this.instrumented = instrumented;
+        }
+    }
+}
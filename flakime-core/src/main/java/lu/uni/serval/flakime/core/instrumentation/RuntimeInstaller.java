@@ -0,0 +1,99 @@
+package lu.uni.serval.flakime.core.instrumentation;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import lu.uni.serval.flakime.core.utils.Logger;
+import lu.uni.serval.flakime.runtime.FlakimeRuntime;
+import lu.uni.serval.flakime.runtime.RuntimeConfiguration;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Copy the flakime runtime next to the instrumented test classes, so that it is on the class path of the tests
+ * without any change to the build of the project, together with its configuration.
+ */
+public class RuntimeInstaller {
+    private static final String RUNTIME_PACKAGE = FlakimeRuntime.class.getPackage().getName().replace('.', '/') + "/";
+
+    private RuntimeInstaller() throws IllegalAccessException {
+        throw new IllegalAccessException("RuntimeInstaller should not be instantiated");
+    }
+
+    /**
+     * @param logger Reference to logger
+     * @param classDirectory The directory holding the instrumented test classes
+     * @param outputDir The directory where the flake position report files will be written
+     * @param disableFlag The environment variable name that control if the flake will occur
+     * @param disableReport flag to disable report or not.
+     * @param reportFormat The format of the report, {@value RuntimeConfiguration#TEXT_FORMAT} or
+     *                     {@value RuntimeConfiguration#BINARY_FORMAT}
+     * @throws IOException Thrown if the runtime classes or the configuration could not be written
+     */
+    public static void install(Logger logger, File classDirectory, File outputDir, String disableFlag, boolean disableReport, String reportFormat) throws IOException {
+        final File location;
+        try {
+            location = new File(FlakimeRuntime.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException | RuntimeException e) {
+            throw new IOException(String.format("Cannot locate flakime runtime: %s", e.getMessage()), e);
+        }
+
+        logger.debug(String.format("Install flakime runtime from %s to %s", location.getAbsolutePath(), classDirectory.getAbsolutePath()));
+
+        if (location.isDirectory()) {
+            FileUtils.copyDirectory(new File(location, RUNTIME_PACKAGE), new File(classDirectory, RUNTIME_PACKAGE));
+        } else {
+            copyFromJar(location, classDirectory);
+        }
+
+        final File configuration = new File(classDirectory, RuntimeConfiguration.RESOURCE);
+        try (BufferedWriter writer = Files.newBufferedWriter(configuration.toPath(), StandardCharsets.US_ASCII)) {
+            writeProperty(writer, RuntimeConfiguration.DISABLE_FLAG, disableFlag);
+            writeProperty(writer, RuntimeConfiguration.OUTPUT_DIRECTORY, outputDir.getAbsolutePath());
+            writeProperty(writer, RuntimeConfiguration.DISABLE_REPORT, String.valueOf(disableReport));
+            writeProperty(writer, RuntimeConfiguration.REPORT_FORMAT, reportFormat);
+        }
+    }
+
+    private static void copyFromJar(File jar, File classDirectory) throws IOException {
+        try (JarFile jarFile = new JarFile(jar)) {
+            final Enumeration<JarEntry> entries = jarFile.entries();
+
+            while (entries.hasMoreElements()) {
+                final JarEntry entry = entries.nextElement();
+
+                if (!entry.isDirectory() && entry.getName().startsWith(RUNTIME_PACKAGE) && entry.getName().endsWith(".class")) {
+                    try (InputStream in = jarFile.getInputStream(entry)) {
+                        FileUtils.copyInputStreamToFile(in, new File(classDirectory, entry.getName()));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Properties are written by hand rather than through {@link java.util.Properties#store} to keep the file free of
+     * a timestamp, and therefore identical between two runs with the same configuration. Values are escaped as
+     * expected by {@link java.util.Properties#load(InputStream)}.
+     */
+    private static void writeProperty(BufferedWriter writer, String key, String value) throws IOException {
+        writer.write(key);
+        writer.write('=');
+        for (char c : value.toCharArray()) {
+            if (c == '\\') {
+                writer.write("\\\\");
+            } else if (c < 0x20 || c > 0x7e) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.newLine();
+    }
+}
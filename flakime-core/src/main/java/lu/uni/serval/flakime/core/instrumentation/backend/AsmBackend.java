@@ -0,0 +1,393 @@
+package lu.uni.serval.flakime.core.instrumentation.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.NotFoundException;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.LineNumberAttribute;
+import javassist.bytecode.MethodInfo;
+import lu.uni.serval.flakime.core.data.TestClass;
+import lu.uni.serval.flakime.core.data.TestMethod;
+import lu.uni.serval.flakime.core.instrumentation.FlakePointTable;
+import lu.uni.serval.flakime.core.instrumentation.FlakimeInstrumenter;
+import lu.uni.serval.flakime.core.instrumentation.models.Model;
+import lu.uni.serval.flakime.core.utils.BuildMetrics;
+import lu.uni.serval.flakime.core.utils.Logger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Backend emitting the flake points directly as bytecode with ASM.
+ * <p>
+ * The flake points are planned from the statement lines of the {@link TestMethod test methods}, which the models need
+ * anyway, and from the line number tables read through the javassist view of the class. That view is never modified
+ * or serialized: nothing is compiled from source, and the class file is streamed from the bytes it was loaded from
+ * through a {@link ClassWriter}, which computes the frames and maximum stack sizes, to the output file. The emitted
+ * code and members are the same as the ones produced by {@link FlakimeInstrumenter}.
+ */
+public class AsmBackend implements InstrumentationBackend {
+    private static final String RUNTIME_CLASS = FlakimeInstrumenter.RUNTIME_CLASS.replace('.', '/');
+    private static final String POINTS_CLASS = FlakimeInstrumenter.POINTS_CLASS.replace('.', '/');
+    private static final String POINTS_DESCRIPTOR = "L" + POINTS_CLASS + ";";
+    private static final String CHECK_DESCRIPTOR = "(DI)V";
+
+    private final Logger logger;
+    private final double flakeRate;
+    private final BuildMetrics metrics;
+
+    public AsmBackend(Logger logger, double flakeRate) {
+        this(logger, flakeRate, new BuildMetrics());
+    }
+
+    public AsmBackend(Logger logger, double flakeRate, BuildMetrics metrics) {
+        this.logger = logger;
+        this.flakeRate = flakeRate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void instrument(TestClass testClass, Model model) throws IOException, CannotCompileException {
+        final FlakePointTable table = new FlakePointTable();
+        final Map<String, MethodPlan> plans = new HashMap<>();
+        int failed = 0;
+        final byte[] original;
+        final byte[] instrumented;
+
+        try (BuildMetrics.Phase ignored = metrics.start(BuildMetrics.COMPILE_PAYLOADS)) {
+            for (TestMethod testMethod : testClass) {
+                logger.debug(String.format("\tProcess method %s", testMethod.getName()));
+
+                final int planned = table.size();
+                try {
+                    final MethodInfo methodInfo = testMethod.getCtMethod().getMethodInfo2();
+                    plans.put(methodInfo.getName() + methodInfo.getDescriptor(), plan(testMethod, model, table));
+                } catch (Exception e) {
+                    logger.warn(String.format("Failed to instrument method %s: %s", testMethod.getName(), e.getMessage()));
+                    // The points added to the table before the failure are never inserted
+                    failed += table.size() - planned;
+                    metrics.add(BuildMetrics.FAILED_INSERTIONS, Math.max(1, table.size() - planned));
+                }
+            }
+
+            original = readClassFile(testClass.getCtClass());
+
+            try {
+                final OffsetClassReader reader = new OffsetClassReader(original);
+                final ClassWriter writer = new PoolClassWriter(testClass.getCtClass().getClassPool());
+                reader.accept(new FlakeClassVisitor(writer, reader, plans, table), ClassReader.SKIP_FRAMES);
+                instrumented = writer.toByteArray();
+            } catch (RuntimeException e) {
+                throw new CannotCompileException(e);
+            }
+        }
+
+        metrics.add(BuildMetrics.POINTS, table.size() - failed);
+        metrics.add(BuildMetrics.BYTES_ADDED, instrumented.length - original.length);
+
+        try (BuildMetrics.Phase ignored = metrics.start(BuildMetrics.WRITE_CLASSES)) {
+            final File classFile = testClass.getClassFile();
+            logger.debug(String.format("Write class to %s", classFile.getParentFile().getAbsolutePath()));
+            FileUtils.writeByteArrayToFile(classFile, instrumented);
+        }
+    }
+
+    /**
+     * Register the flake points of a method in the table of the class, in the same order as
+     * {@link FlakimeInstrumenter#instrument}.
+     *
+     * @return The flake points of the method
+     */
+    private MethodPlan plan(TestMethod testMethod, Model model, FlakePointTable table) {
+        final CodeAttribute ca = testMethod.getCtMethod().getMethodInfo2().getCodeAttribute();
+        final LineNumberAttribute ainfo = (LineNumberAttribute) ca.getAttribute(LineNumberAttribute.tag);
+        if (ainfo == null) {
+            throw new IllegalStateException("no line number info");
+        }
+
+        final Map<Integer, List<Integer>> points = new HashMap<>();
+
+        final int[] lineNumbers = testMethod.getStatementLines();
+        final double[] probabilities = model.getStatementFlakinessProbabilities(testMethod, flakeRate);
+
+        for (int i = 0; i < lineNumbers.length; ++i) {
+            if (probabilities[i] > 0) {
+                final int pc = ainfo.toNearPc(lineNumbers[i] + 1).index;
+                points.computeIfAbsent(pc, k -> new ArrayList<>()).add(table.add(testMethod, lineNumbers[i], probabilities[i]));
+            }
+        }
+
+        for (List<Integer> ids : points.values()) {
+            ids.sort(Collections.reverseOrder());
+        }
+
+        return new MethodPlan(ca.getMaxLocals(), points);
+    }
+
+    /**
+     * @return The bytes the class was loaded from, or the serialized javassist view of the class if it was modified
+     *         since or its class file cannot be opened again
+     */
+    private static byte[] readClassFile(CtClass ctClass) throws IOException {
+        if (!ctClass.isModified()) {
+            try (InputStream in = ctClass.getURL().openStream()) {
+                return IOUtils.toByteArray(in);
+            } catch (NotFoundException e) {
+                // Serialize the loaded class instead
+            }
+        }
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            ctClass.getClassFile2().write(out);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    private static void pushInt(MethodVisitor methodVisitor, int value) {
+        if (value <= 5) {
+            methodVisitor.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            methodVisitor.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value <= Short.MAX_VALUE) {
+            methodVisitor.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            methodVisitor.visitLdcInsn(value);
+        }
+    }
+
+    private static class FlakeClassVisitor extends ClassVisitor {
+        private final OffsetClassReader reader;
+        private final Map<String, MethodPlan> plans;
+        private final FlakePointTable table;
+        private String className;
+        private boolean hasClassInitializer = false;
+
+        private FlakeClassVisitor(ClassVisitor classVisitor, OffsetClassReader reader, Map<String, MethodPlan> plans, FlakePointTable table) {
+            super(Opcodes.ASM9, classVisitor);
+            this.reader = reader;
+            this.plans = plans;
+            this.table = table;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            super.visit(version, access, name, signature, superName, interfaces);
+            this.className = name;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            final MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+
+            if (name.equals("<clinit>") && !table.isEmpty()) {
+                hasClassInitializer = true;
+                return new MethodVisitor(Opcodes.ASM9, methodVisitor) {
+                    @Override
+                    public void visitCode() {
+                        super.visitCode();
+                        initializeTable(this.mv);
+                    }
+                };
+            }
+
+            final MethodPlan plan = plans.get(name + descriptor);
+            return plan == null ? methodVisitor : new FlakeMethodVisitor(methodVisitor, reader, className, plan);
+        }
+
+        @Override
+        public void visitEnd() {
+            if (!table.isEmpty()) {
+                super.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC,
+                        FlakimeInstrumenter.POINTS_FIELD, POINTS_DESCRIPTOR, null, null).visitEnd();
+
+                final MethodVisitor check = super.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                        FlakimeInstrumenter.CHECK_METHOD, CHECK_DESCRIPTOR, null, new String[]{"java/lang/Exception"});
+                check.visitCode();
+                check.visitFieldInsn(Opcodes.GETSTATIC, className, FlakimeInstrumenter.POINTS_FIELD, POINTS_DESCRIPTOR);
+                check.visitVarInsn(Opcodes.ILOAD, 2);
+                check.visitVarInsn(Opcodes.DLOAD, 0);
+                check.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME_CLASS, "check", "(" + POINTS_DESCRIPTOR + "ID)V", false);
+                check.visitInsn(Opcodes.RETURN);
+                check.visitMaxs(0, 0);
+                check.visitEnd();
+
+                if (!hasClassInitializer) {
+                    final MethodVisitor initializer = super.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+                    initializer.visitCode();
+                    initializeTable(initializer);
+                    initializer.visitInsn(Opcodes.RETURN);
+                    initializer.visitMaxs(0, 0);
+                    initializer.visitEnd();
+                }
+            }
+
+            super.visitEnd();
+        }
+
+        private void initializeTable(MethodVisitor methodVisitor) {
+            final String[] chunks = table.toFlakePoints().encode();
+
+            pushInt(methodVisitor, chunks.length);
+            methodVisitor.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/String");
+            for (int i = 0; i < chunks.length; ++i) {
+                methodVisitor.visitInsn(Opcodes.DUP);
+                pushInt(methodVisitor, i);
+                methodVisitor.visitLdcInsn(chunks[i]);
+                methodVisitor.visitInsn(Opcodes.AASTORE);
+            }
+            methodVisitor.visitMethodInsn(Opcodes.INVOKESTATIC, POINTS_CLASS, "decode", "([Ljava/lang/String;)" + POINTS_DESCRIPTOR, false);
+            methodVisitor.visitFieldInsn(Opcodes.PUTSTATIC, className, FlakimeInstrumenter.POINTS_FIELD, POINTS_DESCRIPTOR);
+        }
+    }
+
+    /**
+     * Flake points of a method, planned on its original bytecode.
+     */
+    private static final class MethodPlan {
+        // The random value of the invocation is stored after the original local variables
+        private final int randomVariable;
+        // The indexes of the points by original bytecode offset. Points sharing an offset are sorted from the highest
+        // line to the lowest one, which is the order produced by the javassist backend.
+        private final Map<Integer, List<Integer>> points;
+
+        private MethodPlan(int randomVariable, Map<Integer, List<Integer>> points) {
+            this.randomVariable = randomVariable;
+            this.points = points;
+        }
+    }
+
+    private static class FlakeMethodVisitor extends MethodVisitor {
+        private final OffsetClassReader reader;
+        private final String className;
+        private final MethodPlan plan;
+        private final Label codeStart = new Label();
+
+        private FlakeMethodVisitor(MethodVisitor methodVisitor, OffsetClassReader reader, String className, MethodPlan plan) {
+            super(Opcodes.ASM9, methodVisitor);
+            this.reader = reader;
+            this.className = className;
+            this.plan = plan;
+        }
+
+        @Override
+        public void visitCode() {
+            super.visitCode();
+            super.visitLabel(codeStart);
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME_CLASS, "enter", "()D", false);
+            super.visitVarInsn(Opcodes.DSTORE, plan.randomVariable);
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            super.visitLabel(label);
+
+            final List<Integer> points = plan.points.get(reader.getOriginalOffset(label));
+            if (points != null) {
+                for (int point : points) {
+                    super.visitVarInsn(Opcodes.DLOAD, plan.randomVariable);
+                    pushInt(this.mv, point);
+                    super.visitMethodInsn(Opcodes.INVOKESTATIC, className, FlakimeInstrumenter.CHECK_METHOD, CHECK_DESCRIPTOR, false);
+                }
+            }
+        }
+
+        @Override
+        public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) {
+            // Variables starting with the method, such as the parameters, also cover the call to the runtime
+            final Integer offset = reader.getOriginalOffset(start);
+            super.visitLocalVariable(name, descriptor, signature, offset != null && offset == 0 ? codeStart : start, end, index);
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            final Label codeEnd = new Label();
+            super.visitLabel(codeEnd);
+            super.visitLocalVariable(FlakimeInstrumenter.RANDOM_VARIABLE, "D", null, codeStart, codeEnd, plan.randomVariable);
+            super.visitMaxs(maxStack, maxLocals);
+        }
+    }
+
+    /**
+     * Class reader remembering the offset in the original code of every label it creates. The labels handed to the
+     * visitors only get an offset once written, which is the offset in the instrumented code.
+     */
+    private static class OffsetClassReader extends ClassReader {
+        private final Map<Label, Integer> offsets = new IdentityHashMap<>();
+
+        private OffsetClassReader(byte[] classFile) {
+            super(classFile);
+        }
+
+        @Override
+        protected Label readLabel(int bytecodeOffset, Label[] labels) {
+            final Label label = super.readLabel(bytecodeOffset, labels);
+            offsets.put(label, bytecodeOffset);
+
+            return label;
+        }
+
+        private Integer getOriginalOffset(Label label) {
+            return offsets.get(label);
+        }
+    }
+
+    /**
+     * Class writer resolving the class hierarchy with the class pool of the test class instead of loading the
+     * classes of the tested project in the current class loader.
+     */
+    private static class PoolClassWriter extends ClassWriter {
+        private final ClassPool classPool;
+
+        private PoolClassWriter(ClassPool classPool) {
+            super(ClassWriter.COMPUTE_FRAMES);
+            this.classPool = classPool;
+        }
+
+        @Override
+        protected String getCommonSuperClass(String type1, String type2) {
+            try {
+                CtClass class1 = classPool.get(type1.replace('/', '.'));
+                final CtClass class2 = classPool.get(type2.replace('/', '.'));
+
+                if (class2.subtypeOf(class1)) {
+                    return type1;
+                }
+
+                if (class1.subtypeOf(class2)) {
+                    return type2;
+                }
+
+                if (class1.isInterface() || class2.isInterface()) {
+                    return "java/lang/Object";
+                }
+
+                do {
+                    class1 = class1.getSuperclass();
+                } while (!class2.subtypeOf(class1));
+
+                return class1.getName().replace('.', '/');
+            } catch (NotFoundException e) {
+                throw new TypeNotPresentException(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package lu.uni.serval.flakime.core.instrumentation.backend;
+
+import lu.uni.serval.flakime.core.utils.BuildMetrics;
+import lu.uni.serval.flakime.core.utils.Logger;
+
+/**
+ * Creates the instrumentation backends from their names, as given to the {@code backend} parameter of the plugin.
+ */
+public class BackendFactory {
+    /**
+     * Name of the {@link JavassistBackend}, the default backend.
+     */
+    public static final String JAVASSIST = "javassist";
+
+    /**
+     * Name of the {@link AsmBackend}.
+     */
+    public static final String ASM = "asm";
+
+    private BackendFactory() throws IllegalAccessException {
+        throw new IllegalAccessException("Backend Factory should not be instantiated");
+    }
+
+    /**
+     * Factory pattern implementation. Returns the instrumentation backend from the corresponding name.
+     *
+     * @param name The backend name
+     * @param logger The logger instance
+     * @param flakeRate The flake rate
+     * @return The backend instance
+     * @throws ClassNotFoundException Thrown if the requested backend does not exists
+     */
+    public static InstrumentationBackend fromName(String name, Logger logger, double flakeRate) throws ClassNotFoundException {
+        return fromName(name, logger, flakeRate, new BuildMetrics());
+    }
+
+    /**
+     * Returns the instrumentation backend from the corresponding name, reporting the payload compilation, the class
+     * writing and the injected flake points to the given metrics.
+     *
+     * @param name The backend name
+     * @param logger The logger instance
+     * @param flakeRate The flake rate
+     * @param metrics The metrics of the run
+     * @return The backend instance
+     * @throws ClassNotFoundException Thrown if the requested backend does not exists
+     */
+    public static InstrumentationBackend fromName(String name, Logger logger, double flakeRate, BuildMetrics metrics) throws ClassNotFoundException {
+        if (name.trim().equalsIgnoreCase(JAVASSIST)) {
+            return new JavassistBackend(logger, flakeRate, metrics);
+        }
+
+        if (name.trim().equalsIgnoreCase(ASM)) {
+            return new AsmBackend(logger, flakeRate, metrics);
+        }
+
+        throw new ClassNotFoundException(String.format("Cannot find instrumentation backend with name: %s", name));
+    }
+}
@@ -0,0 +1,23 @@
+package lu.uni.serval.flakime.core.instrumentation.backend;
+
+import java.io.IOException;
+import javassist.CannotCompileException;
+import lu.uni.serval.flakime.core.data.TestClass;
+import lu.uni.serval.flakime.core.instrumentation.models.Model;
+
+/**
+ * The backend interface abstracts the bytecode engineering library used to inject the flake points.
+ * A backend receives a test class analysed by the {@link lu.uni.serval.flakime.core.data.Project}, injects a flake
+ * point after each statement of its test methods and writes the resulting class file.
+ */
+public interface InstrumentationBackend {
+    /**
+     * Instrument every test method of the class and write the class file.
+     *
+     * @param testClass The test class to instrument
+     * @param model The model computing the flakiness probability of each flake point
+     * @throws IOException Thrown if the class file could not be read or written
+     * @throws CannotCompileException Thrown if the class could not be assembled
+     */
+    void instrument(TestClass testClass, Model model) throws IOException, CannotCompileException;
+}
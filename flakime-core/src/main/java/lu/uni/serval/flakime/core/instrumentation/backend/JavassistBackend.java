@@ -0,0 +1,69 @@
+package lu.uni.serval.flakime.core.instrumentation.backend;
+
+import java.io.IOException;
+import javassist.CannotCompileException;
+import javassist.NotFoundException;
+import lu.uni.serval.flakime.core.data.TestClass;
+import lu.uni.serval.flakime.core.data.TestMethod;
+import lu.uni.serval.flakime.core.instrumentation.FlakePointTable;
+import lu.uni.serval.flakime.core.instrumentation.FlakimeInstrumenter;
+import lu.uni.serval.flakime.core.instrumentation.models.Model;
+import lu.uni.serval.flakime.core.utils.BuildMetrics;
+import lu.uni.serval.flakime.core.utils.Logger;
+
+/**
+ * Backend compiling the source code payloads of {@link FlakimeInstrumenter} with the javassist compiler and
+ * splicing them in the {@code CtClass} of the test class.
+ */
+public class JavassistBackend implements InstrumentationBackend {
+    private final Logger logger;
+    private final double flakeRate;
+    private final BuildMetrics metrics;
+
+    public JavassistBackend(Logger logger, double flakeRate) {
+        this(logger, flakeRate, new BuildMetrics());
+    }
+
+    public JavassistBackend(Logger logger, double flakeRate, BuildMetrics metrics) {
+        this.logger = logger;
+        this.flakeRate = flakeRate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void instrument(TestClass testClass, Model model) throws IOException, CannotCompileException {
+        final FlakePointTable table = new FlakePointTable();
+        int inserted = 0;
+
+        try (BuildMetrics.Phase ignored = metrics.start(BuildMetrics.COMPILE_PAYLOADS)) {
+            FlakimeInstrumenter.prepare(testClass.getCtClass());
+
+            for (TestMethod testMethod : testClass) {
+                logger.debug(String.format("\tProcess method %s", testMethod.getName()));
+
+                final int planned = table.size();
+                try {
+                    final int methodInserted = FlakimeInstrumenter.instrument(testMethod, model, table, flakeRate);
+                    inserted += methodInserted;
+                    // Payloads which failed to compile are skipped by the method, their points stay in the table
+                    metrics.add(BuildMetrics.FAILED_INSERTIONS, table.size() - planned - methodInserted);
+                } catch (Exception e) {
+                    logger.warn(String.format("Failed to instrument method %s: %s", testMethod.getName(), e.getMessage()));
+                    metrics.add(BuildMetrics.FAILED_INSERTIONS, Math.max(1, table.size() - planned));
+                }
+            }
+
+            FlakimeInstrumenter.complete(testClass.getCtClass(), table);
+        } catch (NotFoundException e) {
+            throw new CannotCompileException(e);
+        }
+
+        metrics.add(BuildMetrics.POINTS, inserted);
+
+        try (BuildMetrics.Phase ignored = metrics.start(BuildMetrics.WRITE_CLASSES)) {
+            final long originalSize = testClass.getClassFile().length();
+            testClass.write();
+            metrics.add(BuildMetrics.BYTES_ADDED, testClass.getClassFile().length() - originalSize);
+        }
+    }
+}
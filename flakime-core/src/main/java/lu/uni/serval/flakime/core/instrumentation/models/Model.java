@@ -29,6 +29,27 @@ public interface Model {
      */
     double getTestFlakinessProbability(TestMethod test, int lineNumber,double flakeRate);
 
+    /**
+     * Method that computes the flakiness probability of every statement of a test method at once.
+     * <p>
+     * The default implementation calls {@link #getTestFlakinessProbability(TestMethod, int, double)} for each
+     * statement. Models able to compute the probabilities of a method in a single pass should override it.
+     *
+     * @param test The enclosing test method
+     * @param flakeRate the flakeRate Value influencing the probability of test to actually flake.
+     * @return The probability of each statement, in the order of {@link TestMethod#getStatementLines()}
+     */
+    default double[] getStatementFlakinessProbabilities(TestMethod test, double flakeRate) {
+        final int[] lineNumbers = test.getStatementLines();
+        final double[] probabilities = new double[lineNumbers.length];
+
+        for (int i = 0; i < lineNumbers.length; ++i) {
+            probabilities[i] = getTestFlakinessProbability(test, lineNumbers[i], flakeRate);
+        }
+
+        return probabilities;
+    }
+
     /**
      * Method that computes the overall test flakiness probability.
      * @param flakeRate the flakeRate Value influencing the probability of test to actually flake.
@@ -37,5 +58,15 @@ public interface Model {
      */
     double getTestFlakinessProbability(TestMethod test,double flakeRate);
 
+    /**
+     * Method indicating whether the probabilities computed for the tests of a class only depend on that class.
+     * Only such models allow unchanged classes to be skipped by the incremental instrumentation.
+     *
+     * @return True if the probabilities of a class do not depend on the other classes of the project
+     */
+    default boolean isClassLocal() {
+        return false;
+    }
+
     void postProcess();
 }
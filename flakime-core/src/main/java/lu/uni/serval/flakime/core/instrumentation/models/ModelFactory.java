@@ -4,6 +4,7 @@ import lu.uni.serval.flakime.core.instrumentation.models.uniform.UniformDistrubt
 import lu.uni.serval.flakime.core.instrumentation.models.vocabulary.VocabularyModel;
 import lu.uni.serval.flakime.core.utils.Logger;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.Properties;
 
@@ -32,6 +33,7 @@ public class ModelFactory {
         if (name.trim().equalsIgnoreCase("vocabulary")){
             final String nTrees = properties.getProperty("randomForestTrees", String.valueOf(100));
             final String nCores = properties.getProperty("randomForestThreads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+            final String nScoringThreads = properties.getProperty("scoringThreads", String.valueOf(Runtime.getRuntime().availableProcessors()));
             boolean trainModel = Boolean.parseBoolean(properties.getProperty("forceTraining", "false"));
 
             String pathModel = "";
@@ -42,8 +44,24 @@ public class ModelFactory {
             strategy.setnThreads(Integer.parseInt(nCores));
             strategy.setnTrees(Integer.parseInt(nTrees));
             strategy.setTrainModel(trainModel);
+            strategy.setScoringThreads(Integer.parseInt(nScoringThreads));
             strategy.setPathToModel(pathModel);
 
+            final String scoreCache = properties.getProperty("scoreCachePath");
+            if (scoreCache != null && !scoreCache.trim().isEmpty()) {
+                strategy.setScoreCache(new File(scoreCache.trim()));
+            }
+
+            final String daemonPort = properties.getProperty("daemonPort");
+            if (daemonPort != null && !daemonPort.trim().isEmpty()) {
+                strategy.setDaemonPort(Integer.parseInt(daemonPort.trim()));
+            }
+
+            final String corpusCache = properties.getProperty("corpusCachePath");
+            if (corpusCache != null && !corpusCache.trim().isEmpty()) {
+                strategy.setCorpusCache(new File(corpusCache.trim()));
+            }
+
             return strategy;
         }
 
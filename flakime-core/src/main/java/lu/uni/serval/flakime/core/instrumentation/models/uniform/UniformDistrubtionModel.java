@@ -1,6 +1,5 @@
 package lu.uni.serval.flakime.core.instrumentation.models.uniform;
 
-import java.util.Collections;
 import lu.uni.serval.flakime.core.data.Project;
 import lu.uni.serval.flakime.core.data.TestMethod;
 import lu.uni.serval.flakime.core.instrumentation.models.Model;
@@ -30,9 +29,11 @@ public class UniformDistrubtionModel implements Model {
     @Override
     public double getTestFlakinessProbability(TestMethod test, int lineNumber,double flakeRate) {
 
-        int numberOfLines = Collections.max(test.getStatementLineNumbers()) - Collections.min(test.getStatementLineNumbers())+1;
+        final int[] lineNumbers = test.getStatementLines();
 
-        int executedLine = 1 + lineNumber - Collections.min(test.getStatementLineNumbers());
+        int numberOfLines = lineNumbers[lineNumbers.length - 1] - lineNumbers[0] + 1;
+
+        int executedLine = 1 + lineNumber - lineNumbers[0];
 
         double proportion = (double)executedLine/numberOfLines;
         logger.debug(String.format("[%s][total: %d][executed: %d]",test.getName(),numberOfLines,executedLine));
@@ -40,11 +41,36 @@ public class UniformDistrubtionModel implements Model {
         return proportion * flakeRate;
     }
 
+    @Override
+    public double[] getStatementFlakinessProbabilities(TestMethod test, double flakeRate) {
+        final int[] lineNumbers = test.getStatementLines();
+        final double[] probabilities = new double[lineNumbers.length];
+
+        if (lineNumbers.length == 0) {
+            return probabilities;
+        }
+
+        final int numberOfLines = lineNumbers[lineNumbers.length - 1] - lineNumbers[0] + 1;
+        logger.debug(String.format("[%s][total: %d][statements: %d]", test.getName(), numberOfLines, lineNumbers.length));
+
+        for (int i = 0; i < lineNumbers.length; ++i) {
+            final int executedLine = 1 + lineNumbers[i] - lineNumbers[0];
+            probabilities[i] = (double) executedLine / numberOfLines * flakeRate;
+        }
+
+        return probabilities;
+    }
+
     @Override
     public double getTestFlakinessProbability(TestMethod test,double flakeRate) {
         return flakeRate;
     }
 
+    @Override
+    public boolean isClassLocal() {
+        return true;
+    }
+
 
     @Override
     public void postProcess() {
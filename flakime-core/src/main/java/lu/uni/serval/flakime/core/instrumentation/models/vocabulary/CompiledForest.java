@@ -0,0 +1,462 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.IteratedSingleClassifierEnhancer;
+import weka.classifiers.trees.RandomForest;
+import weka.classifiers.trees.RandomTree;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Random forest flattened into arrays, evaluating token counts without going through the {@code Instance} API of
+ * Weka.
+ * <p>
+ * The nodes of all the trees are stored in parallel arrays. An internal node has the index of the token it splits
+ * on, its threshold and the index of its left child, the right child being stored right after the left one. A leaf
+ * has a feature of -1 and the offset of its normalized class distribution. A tree is evaluated as
+ * {@code RandomTree} does for instances without missing values: the left child is taken when the count is lower than
+ * the threshold, and a leaf without distribution falls back to the distribution of its closest ancestor which has one.
+ * The distributions of the trees are then summed and normalized as {@code Bagging} does, so that the probabilities
+ * are the same as those of the forest.
+ * <p>
+ * The forest can only be compiled if all its trees split on numeric attributes with two branches, which is always
+ * the case for the count vectors of the vocabulary model.
+ * <p>
+ * The arrays can be written to a stream and read back with bulk copies, which is how {@link WekaModel} saves its
+ * forest.
+ * <p>
+ * This class is immutable and thread safe. Each thread reuses its own buffers, so that evaluating counts does not
+ * allocate.
+ */
+public class CompiledForest {
+    private static final int UNCLASSIFIED = -1;
+    private static final int INVALID = -2;
+
+    private final int numClasses;
+    private final int vocabularySize;
+    private final int[] roots;
+    private final int[] features;
+    private final double[] thresholds;
+    private final int[] children;
+    private final double[] distributions;
+    private final ThreadLocal<Buffers> buffers;
+
+    CompiledForest(int numClasses, int vocabularySize, int[] roots, int[] features, double[] thresholds, int[] children, double[] distributions) {
+        this.numClasses = numClasses;
+        this.vocabularySize = vocabularySize;
+        this.roots = roots;
+        this.features = features;
+        this.thresholds = thresholds;
+        this.children = children;
+        this.distributions = distributions;
+        this.buffers = ThreadLocal.withInitial(() -> new Buffers(vocabularySize, numClasses));
+    }
+
+    /**
+     * Flatten a trained forest. The trees are walked iteratively, so that deep trees do not need a large stack.
+     *
+     * @param forest The trained forest
+     * @param header The header of the training instances: the class first, then one numeric attribute per token
+     * @return The compiled forest
+     * @throws IllegalArgumentException if the forest cannot be compiled
+     */
+    public static CompiledForest compile(RandomForest forest, Instances header) {
+        final int numClasses = header.numClasses();
+        final Builder builder = new Builder(numClasses);
+
+        try {
+            final Classifier[] trees = (Classifier[]) field(IteratedSingleClassifierEnhancer.class, "m_Classifiers").get(forest);
+
+            if (trees == null || trees.length != forest.getNumIterations()) {
+                throw new IllegalArgumentException("The forest is not trained");
+            }
+
+            final int[] roots = new int[trees.length];
+
+            for (int t = 0; t < trees.length; ++t) {
+                if (!(trees[t] instanceof RandomTree)) {
+                    throw new IllegalArgumentException("Unsupported classifier " + trees[t].getClass().getName());
+                }
+
+                roots[t] = builder.add((RandomTree) trees[t], header);
+            }
+
+            return builder.build(header.numAttributes() - 1, roots);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            if (e instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) e;
+            }
+
+            throw new IllegalArgumentException("Failed to read the trees of the forest: " + e, e);
+        }
+    }
+
+    /**
+     * @param counts     The counts of the tokens of a body
+     * @param classIndex The index of the class
+     * @return The probability of the class, as computed by {@code RandomForest.distributionForInstance}
+     * @throws IllegalStateException if a tree cannot classify the counts
+     */
+    public double probability(TokenCounts counts, int classIndex) {
+        final double[] sums = sum(counts);
+        final double sum = Utils.sum(sums);
+
+        if (Utils.eq(sum, 0)) {
+            return sums[classIndex];
+        }
+
+        return sums[classIndex] / sum;
+    }
+
+    /**
+     * @param counts The counts of the tokens of a body
+     * @return The index of the most probable class, or a missing value if no tree votes, as computed by
+     * {@code RandomForest.classifyInstance}
+     * @throws IllegalStateException if a tree cannot classify the counts
+     */
+    public double classify(TokenCounts counts) {
+        final double[] sums = sum(counts);
+        double max = 0;
+        int maxIndex = 0;
+
+        for (int c = 0; c < sums.length; ++c) {
+            if (sums[c] > max) {
+                maxIndex = c;
+                max = sums[c];
+            }
+        }
+
+        return max > 0 ? maxIndex : Utils.missingValue();
+    }
+
+    /**
+     * @return The sum of the distributions of the trees, in a buffer of the calling thread
+     */
+    private double[] sum(TokenCounts counts) {
+        final Buffers buffer = buffers.get();
+        final int[] values = buffer.values;
+        final double[] sums = buffer.sums;
+
+        Arrays.fill(sums, 0.0);
+
+        for (int i = 0; i < counts.size(); ++i) {
+            if (counts.getIndex(i) < vocabularySize) {
+                values[counts.getIndex(i)] = counts.getCount(i);
+            }
+        }
+
+        try {
+            for (int root : roots) {
+                int node = root;
+
+                while (features[node] >= 0) {
+                    node = values[features[node]] < thresholds[node] ? children[node] : children[node] + 1;
+                }
+
+                final int leaf = children[node];
+
+                if (leaf == UNCLASSIFIED) {
+                    throw new IllegalStateException("A tree of the forest cannot classify the instance");
+                } else if (leaf == INVALID) {
+                    throw new IllegalStateException("A tree of the forest has an empty class distribution");
+                }
+
+                for (int c = 0; c < numClasses; ++c) {
+                    sums[c] += distributions[leaf + c];
+                }
+            }
+        } finally {
+            for (int i = 0; i < counts.size(); ++i) {
+                if (counts.getIndex(i) < vocabularySize) {
+                    values[counts.getIndex(i)] = 0;
+                }
+            }
+        }
+
+        return sums;
+    }
+
+    /**
+     * Write the arrays of the forest, the nodes being written in index order.
+     *
+     * @param out The destination stream
+     * @throws IOException if the stream could not be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(numClasses);
+        out.writeInt(vocabularySize);
+
+        out.writeInt(roots.length);
+        for (int root : roots) {
+            out.writeInt(root);
+        }
+
+        out.writeInt(features.length);
+        for (int feature : features) {
+            out.writeInt(feature);
+        }
+        for (double threshold : thresholds) {
+            out.writeDouble(threshold);
+        }
+        for (int child : children) {
+            out.writeInt(child);
+        }
+
+        out.writeInt(distributions.length);
+        for (double value : distributions) {
+            out.writeDouble(value);
+        }
+    }
+
+    /**
+     * Read the arrays written by {@link #write(DataOutputStream)} with bulk copies. As the children of a node are
+     * always stored after it, checking the indexes is enough to guarantee that evaluating the forest terminates.
+     *
+     * @param buffer The buffer, positioned at the start of the forest
+     * @return The forest
+     * @throws IllegalArgumentException if the arrays are not consistent
+     * @throws java.nio.BufferUnderflowException if the buffer is truncated
+     */
+    static CompiledForest read(ByteBuffer buffer) {
+        final int numClasses = buffer.getInt();
+        final int vocabularySize = buffer.getInt();
+        final int[] roots = readInts(buffer, buffer.getInt());
+
+        final int numberNodes = buffer.getInt();
+        final int[] features = readInts(buffer, numberNodes);
+        final double[] thresholds = readDoubles(buffer, numberNodes);
+        final int[] children = readInts(buffer, numberNodes);
+        final double[] distributions = readDoubles(buffer, buffer.getInt());
+
+        if (numClasses <= 0 || vocabularySize < 0) {
+            throw new IllegalArgumentException("Invalid forest dimensions");
+        }
+
+        for (int root : roots) {
+            if (root < 0 || root >= numberNodes) {
+                throw new IllegalArgumentException("Invalid root " + root);
+            }
+        }
+
+        for (int node = 0; node < numberNodes; ++node) {
+            final boolean valid = features[node] >= 0
+                    ? features[node] < vocabularySize && children[node] > node && children[node] + 1 < numberNodes
+                    : children[node] == UNCLASSIFIED || children[node] == INVALID || (children[node] >= 0 && children[node] + numClasses <= distributions.length);
+
+            if (!valid) {
+                throw new IllegalArgumentException("Invalid node " + node);
+            }
+        }
+
+        return new CompiledForest(numClasses, vocabularySize, roots, features, thresholds, children, distributions);
+    }
+
+    /**
+     * @return The number of trees
+     */
+    public int getNumberTrees() {
+        return roots.length;
+    }
+
+    /**
+     * @return The number of nodes of all the trees
+     */
+    public int getNumberNodes() {
+        return features.length;
+    }
+
+    /**
+     * @return The number of classes
+     */
+    public int getNumberClasses() {
+        return numClasses;
+    }
+
+    /**
+     * @return The number of tokens the trees can split on
+     */
+    public int getVocabularySize() {
+        return vocabularySize;
+    }
+
+    private static Field field(Class<?> owner, String name) throws NoSuchFieldException {
+        final Field field = owner.getDeclaredField(name);
+        field.setAccessible(true);
+
+        return field;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int length) {
+        final int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        ((Buffer) buffer).position(buffer.position() + length * Integer.BYTES);
+
+        return values;
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int length) {
+        final double[] values = new double[length];
+        buffer.asDoubleBuffer().get(values);
+        ((Buffer) buffer).position(buffer.position() + length * Double.BYTES);
+
+        return values;
+    }
+
+    private static class Buffers {
+        private final int[] values;
+        private final double[] sums;
+
+        private Buffers(int vocabularySize, int numClasses) {
+            this.values = new int[vocabularySize];
+            this.sums = new double[numClasses];
+        }
+    }
+
+    private static class Builder {
+        private final int numClasses;
+        private int[] features = new int[1024];
+        private double[] thresholds = new double[1024];
+        private int[] children = new int[1024];
+        private double[] distributions = new double[1024];
+        private int numberNodes = 0;
+        private int distributionsSize = 0;
+
+        private Builder(int numClasses) {
+            this.numClasses = numClasses;
+        }
+
+        /**
+         * @return The index of the root of the tree
+         */
+        private int add(RandomTree tree, Instances header) throws ReflectiveOperationException {
+            if (field(RandomTree.class, "m_zeroR").get(tree) != null) {
+                throw new IllegalArgumentException("The forest contains trees built without attributes");
+            }
+
+            final Class<?> nodeClass = Class.forName(RandomTree.class.getName() + "$Tree");
+            final Field attribute = field(nodeClass, "m_Attribute");
+            final Field splitPoint = field(nodeClass, "m_SplitPoint");
+            final Field successors = field(nodeClass, "m_Successors");
+            final Field classDistribution = field(nodeClass, "m_ClassDistribution");
+            final boolean allowUnclassified = tree.getAllowUnclassifiedInstances();
+
+            final int root = allocate(1);
+            final Deque<Pending> pending = new ArrayDeque<>();
+            pending.push(new Pending(field(RandomTree.class, "m_Tree").get(tree), root, null));
+
+            while (!pending.isEmpty()) {
+                final Pending current = pending.pop();
+                final int splitAttribute = attribute.getInt(current.node);
+                final double[] distribution = (double[]) classDistribution.get(current.node);
+
+                if (splitAttribute == -1) {
+                    features[current.index] = -1;
+
+                    if (distribution != null) {
+                        children[current.index] = addDistribution(distribution);
+                    } else if (allowUnclassified) {
+                        children[current.index] = addDistribution(null);
+                    } else if (current.fallback != null) {
+                        children[current.index] = addDistribution(current.fallback);
+                    } else {
+                        children[current.index] = UNCLASSIFIED;
+                    }
+
+                    continue;
+                }
+
+                final Object[] next = (Object[]) successors.get(current.node);
+
+                if (next == null || next.length != 2 || splitAttribute == header.classIndex() || !header.attribute(splitAttribute).isNumeric()) {
+                    throw new IllegalArgumentException("The forest contains splits which are not binary splits on token counts");
+                }
+
+                // Attribute i + 1 holds the count of the token of index i
+                features[current.index] = splitAttribute - 1;
+                thresholds[current.index] = splitPoint.getDouble(current.node);
+
+                final int left = allocate(2);
+                children[current.index] = left;
+
+                // With allowUnclassified, a leaf without distribution returns zeros instead of falling back
+                final double[] fallback = distribution != null && !allowUnclassified ? distribution : current.fallback;
+                pending.push(new Pending(next[1], left + 1, fallback));
+                pending.push(new Pending(next[0], left, fallback));
+            }
+
+            return root;
+        }
+
+        private int allocate(int count) {
+            if (numberNodes + count > features.length) {
+                final int capacity = Math.max(features.length * 2, numberNodes + count);
+                features = Arrays.copyOf(features, capacity);
+                thresholds = Arrays.copyOf(thresholds, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+
+            final int index = numberNodes;
+            numberNodes += count;
+
+            return index;
+        }
+
+        /**
+         * @param distribution The class distribution of the node, null for zeros
+         * @return The offset of the normalized distribution, or {@link #INVALID} if it cannot be normalized
+         */
+        private int addDistribution(double[] distribution) {
+            final double[] normalized = distribution != null ? distribution.clone() : new double[numClasses];
+
+            if (distribution != null) {
+                try {
+                    Utils.normalize(normalized);
+                } catch (IllegalArgumentException e) {
+                    return INVALID;
+                }
+            }
+
+            if (distributionsSize + numClasses > distributions.length) {
+                distributions = Arrays.copyOf(distributions, Math.max(distributions.length * 2, distributionsSize + numClasses));
+            }
+
+            System.arraycopy(normalized, 0, distributions, distributionsSize, numClasses);
+            distributionsSize += numClasses;
+
+            return distributionsSize - numClasses;
+        }
+
+        private CompiledForest build(int vocabularySize, int[] roots) {
+            return new CompiledForest(
+                    numClasses,
+                    vocabularySize,
+                    roots,
+                    Arrays.copyOf(features, numberNodes),
+                    Arrays.copyOf(thresholds, numberNodes),
+                    Arrays.copyOf(children, numberNodes),
+                    Arrays.copyOf(distributions, distributionsSize)
+            );
+        }
+    }
+
+    private static class Pending {
+        private final Object node;
+        private final int index;
+        private final double[] fallback;
+
+        private Pending(Object node, int index, double[] fallback) {
+            this.node = node;
+            this.index = index;
+            this.fallback = fallback;
+        }
+    }
+}
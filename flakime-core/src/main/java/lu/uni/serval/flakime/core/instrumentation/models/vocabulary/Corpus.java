@@ -0,0 +1,338 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import lu.uni.serval.flakime.core.utils.Fingerprint;
+import lu.uni.serval.flakime.core.utils.Logger;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Training corpus in tokenized form.
+ * <p>
+ * The bodies are stored as sequences of word identifiers into a dictionary of the words of the corpus, kept in order
+ * of first occurrence along with their number of occurrences, which is all the {@link Tokenizer} needs to be fitted.
+ * Project names are dictionary encoded as well and labels are stored in a primitive array.
+ * <p>
+ * A corpus can be written to a binary file and memory-mapped back, in which case the identifiers and labels are read
+ * from the mapped file instead of the heap. Only the dictionaries are decoded when the file is opened.
+ * <p>
+ * This class is immutable and thread safe.
+ */
+public class Corpus {
+    private static final int MAGIC = 0x464b4331;
+    private static final int VERSION = 1;
+
+    private final String[] words;
+    private final int[] occurrences;
+    private final String[] projects;
+    private final IntBuffer labels;
+    private final IntBuffer projectIds;
+    private final IntBuffer offsets;
+    private final IntBuffer tokens;
+
+    private Corpus(String[] words, int[] occurrences, String[] projects, IntBuffer labels, IntBuffer projectIds, IntBuffer offsets, IntBuffer tokens) {
+        this.words = words;
+        this.occurrences = occurrences;
+        this.projects = projects;
+        this.labels = labels;
+        this.projectIds = projectIds;
+        this.offsets = offsets;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Tokenize the entries of a data set in a single pass.
+     *
+     * @param data The entries of the corpus
+     * @return The tokenized corpus
+     */
+    public static Corpus of(Data data) {
+        final Map<String, Integer> wordIds = new HashMap<>();
+        final List<String> wordList = new ArrayList<>();
+        int[] wordOccurrences = new int[1024];
+        final Map<String, Integer> projectIdsByName = new LinkedHashMap<>();
+
+        final int size = data.size();
+        final int[] entryLabels = new int[size];
+        final int[] entryProjects = new int[size];
+        final int[] entryOffsets = new int[size + 1];
+        int[] entryTokens = new int[1024];
+        int numberTokens = 0;
+        int entry = 0;
+
+        for (Data.Entry e : data) {
+            entryLabels[entry] = e.getLabel();
+            entryProjects[entry] = projectIdsByName.computeIfAbsent(String.valueOf(e.getProjectName()), p -> projectIdsByName.size());
+
+            for (String word : Tokenizer.split(e.getBody())) {
+                Integer id = wordIds.get(word);
+
+                if (id == null) {
+                    id = wordList.size();
+                    wordIds.put(word, id);
+                    wordList.add(word);
+
+                    if (id == wordOccurrences.length) {
+                        wordOccurrences = Arrays.copyOf(wordOccurrences, id * 2);
+                    }
+                }
+
+                ++wordOccurrences[id];
+
+                if (numberTokens == entryTokens.length) {
+                    entryTokens = Arrays.copyOf(entryTokens, numberTokens * 2);
+                }
+
+                entryTokens[numberTokens++] = id;
+            }
+
+            entryOffsets[++entry] = numberTokens;
+        }
+
+        return new Corpus(
+                wordList.toArray(new String[0]),
+                Arrays.copyOf(wordOccurrences, wordList.size()),
+                projectIdsByName.keySet().toArray(new String[0]),
+                IntBuffer.wrap(entryLabels),
+                IntBuffer.wrap(entryProjects),
+                IntBuffer.wrap(entryOffsets),
+                IntBuffer.wrap(entryTokens, 0, numberTokens).slice()
+        );
+    }
+
+    /**
+     * Load a corpus from its JSON source, going through a binary cache if one is given. The cache is keyed by the
+     * fingerprint of the source and of the tokenizer rules: it is memory-mapped if it matches, and rebuilt otherwise.
+     * Failing to write the cache is not an error.
+     *
+     * @param logger The logger attached to the running instance
+     * @param source The JSON array of entries, as read by {@link Data#Data(InputStream)}
+     * @param cache  The binary cache file, or null to always parse the source
+     * @return The tokenized corpus
+     * @throws IOException if the source could not be read
+     */
+    public static Corpus load(Logger logger, URL source, File cache) throws IOException {
+        if (source == null) {
+            throw new FileNotFoundException("Training corpus not found");
+        }
+
+        if (cache == null) {
+            try (InputStream in = source.openStream()) {
+                return Corpus.of(new Data(in));
+            }
+        }
+
+        final String fingerprint;
+        try (InputStream in = source.openStream()) {
+            fingerprint = Fingerprint.of(Arrays.asList(Tokenizer.FILTERS, Fingerprint.of(in)));
+        }
+
+        if (cache.exists()) {
+            try {
+                final Corpus corpus = map(cache, fingerprint);
+
+                if (corpus != null) {
+                    logger.debug(String.format("Mapped training corpus from '%s'", cache.getAbsolutePath()));
+                    return corpus;
+                }
+
+                logger.info(String.format("Training corpus cache '%s' is out of date, rebuilding it", cache.getAbsolutePath()));
+            } catch (IOException | RuntimeException e) {
+                logger.warn(String.format("Failed to read training corpus cache '%s', rebuilding it: %s", cache.getAbsolutePath(), e.getMessage()));
+            }
+        }
+
+        final Corpus corpus;
+        try (InputStream in = source.openStream()) {
+            corpus = Corpus.of(new Data(in));
+        }
+
+        try {
+            corpus.write(cache, fingerprint);
+        } catch (IOException e) {
+            logger.warn(String.format("Failed to write training corpus cache '%s': %s", cache.getAbsolutePath(), e.getMessage()));
+        }
+
+        return corpus;
+    }
+
+    /**
+     * Write the corpus to a binary file. The file is written next to its destination and moved in place once
+     * complete, so that a concurrent reader never maps a partial file.
+     *
+     * @param file        The destination file
+     * @param fingerprint The fingerprint of the source of the corpus
+     * @throws IOException if the file could not be written
+     */
+    void write(File file, String fingerprint) throws IOException {
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory " + parent);
+        }
+
+        final File temporary = File.createTempFile(file.getName(), ".tmp", parent);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, fingerprint);
+
+            out.writeInt(words.length);
+            for (String word : words) {
+                writeString(out, word);
+            }
+            writeInts(out, IntBuffer.wrap(occurrences));
+
+            out.writeInt(projects.length);
+            for (String project : projects) {
+                writeString(out, project);
+            }
+
+            out.writeInt(size());
+            writeInts(out, labels);
+            writeInts(out, projectIds);
+            writeInts(out, offsets);
+
+            out.writeInt(tokens.limit());
+            writeInts(out, tokens);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary.toPath());
+            throw e;
+        }
+
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * Map a binary file written by {@link #write(File, String)}.
+     *
+     * @param file        The binary file
+     * @param fingerprint The expected fingerprint of the source of the corpus
+     * @return The corpus, or null if the file was written by another version or from another source
+     * @throws IOException if the file could not be read
+     */
+    static Corpus map(File file, String fingerprint) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !fingerprint.equals(readString(buffer))) {
+            return null;
+        }
+
+        final String[] words = new String[buffer.getInt()];
+        for (int i = 0; i < words.length; ++i) {
+            words[i] = readString(buffer);
+        }
+        final int[] occurrences = new int[words.length];
+        readInts(buffer, words.length).get(occurrences);
+
+        final String[] projects = new String[buffer.getInt()];
+        for (int i = 0; i < projects.length; ++i) {
+            projects[i] = readString(buffer);
+        }
+
+        final int size = buffer.getInt();
+        final IntBuffer labels = readInts(buffer, size);
+        final IntBuffer projectIds = readInts(buffer, size);
+        final IntBuffer offsets = readInts(buffer, size + 1);
+        final IntBuffer tokens = readInts(buffer, buffer.getInt());
+
+        return new Corpus(words, occurrences, projects, labels, projectIds, offsets, tokens);
+    }
+
+    /**
+     * @return The number of entries
+     */
+    public int size() {
+        return labels.limit();
+    }
+
+    /**
+     * @param entry The position of the entry
+     * @return The label of the entry
+     */
+    public int getLabel(int entry) {
+        return labels.get(entry);
+    }
+
+    /**
+     * @param entry The position of the entry
+     * @return The name of the project the entry comes from
+     */
+    public String getProject(int entry) {
+        return projects[projectIds.get(entry)];
+    }
+
+    /**
+     * @param entry The position of the entry
+     * @return The identifiers of the words of the body of the entry, in order
+     */
+    public int[] getTokens(int entry) {
+        final int start = offsets.get(entry);
+        final int[] sequence = new int[offsets.get(entry + 1) - start];
+
+        for (int i = 0; i < sequence.length; ++i) {
+            sequence[i] = tokens.get(start + i);
+        }
+
+        return sequence;
+    }
+
+    /**
+     * @return The words of the corpus, indexed by identifier, in order of first occurrence
+     */
+    String[] getWords() {
+        return words;
+    }
+
+    /**
+     * @return The number of occurrences of each word, indexed by identifier
+     */
+    int[] getOccurrences() {
+        return occurrences;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(DataOutputStream out, IntBuffer values) throws IOException {
+        for (int i = 0; i < values.limit(); ++i) {
+            out.writeInt(values.get(i));
+        }
+    }
+
+    private static IntBuffer readInts(ByteBuffer buffer, int length) {
+        final ByteBuffer slice = buffer.slice();
+        // Through Buffer, as ByteBuffer only overrides these methods from Java 9
+        ((Buffer) slice).limit(length * Integer.BYTES);
+        ((Buffer) buffer).position(buffer.position() + length * Integer.BYTES);
+
+        return slice.asIntBuffer();
+    }
+}
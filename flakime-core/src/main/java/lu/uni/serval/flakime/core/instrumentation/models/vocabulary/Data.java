@@ -1,8 +1,9 @@
 package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.IOException;
@@ -30,8 +31,53 @@ public class Data implements Iterable<Data.Entry> {
         this.entries.addAll(data.entries);
     }
 
+    /**
+     * Parse the entries one at a time from the token stream, without building the intermediate tree of the whole
+     * document. Unknown fields are ignored.
+     *
+     * @param in The JSON array of entries
+     * @return The entries in document order
+     * @throws IOException if the stream could not be read or is not an array of entries
+     */
     private List<Entry> load(InputStream in) throws IOException {
-        return new ObjectMapper().readValue(in, new TypeReference<List<Entry>>(){});
+        final List<Entry> loaded = new ArrayList<>();
+
+        try (JsonParser parser = new JsonFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected an array of entries at " + parser.getCurrentLocation());
+            }
+
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                loaded.add(readEntry(parser));
+            }
+
+            if (token != JsonToken.END_ARRAY) {
+                throw new IOException("Expected an entry at " + parser.getCurrentLocation());
+            }
+        }
+
+        return loaded;
+    }
+
+    private static Entry readEntry(JsonParser parser) throws IOException {
+        final Entry entry = new Entry();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            parser.nextToken();
+
+            switch (field) {
+                case "Body": entry.setBody(parser.getValueAsString()); break;
+                case "ClassName": entry.setClassName(parser.getValueAsString()); break;
+                case "MethodName": entry.setMethodName(parser.getValueAsString()); break;
+                case "ProjectName": entry.setProjectName(parser.getValueAsString()); break;
+                case "Label": entry.setLabel(parser.getValueAsInt()); break;
+                default: parser.skipChildren();
+            }
+        }
+
+        return entry;
     }
 
     public Pair<Data, Data> split(float trainRatio){
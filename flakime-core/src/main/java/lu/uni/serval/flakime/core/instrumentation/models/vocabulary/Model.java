@@ -8,9 +8,65 @@ public interface Model {
         WEKA
     }
 
-    void setData(Data data, Set<String> additionalTrainingText);
+    /**
+     * Fit the vocabulary of the model and build its training set.
+     *
+     * @param corpus The labelled training corpus
+     * @param additionalTrainingText Unlabelled texts only used to fit the vocabulary
+     */
+    void setData(Corpus corpus, Set<String> additionalTrainingText);
+
+    default void setData(Data data, Set<String> additionalTrainingText) {
+        setData(Corpus.of(data), additionalTrainingText);
+    }
+
     void train() throws Exception;
     double computeProbability(String body) throws Exception;
+
+    /**
+     * @param text A piece of source code
+     * @return The counts of the tokens of the text which belong to the vocabulary of the model
+     */
+    TokenCounts countTokens(String text);
+
+    /**
+     * Same as {@link #computeProbability(String)} for a body which was already tokenized.
+     *
+     * @param counts The counts of the tokens of the body
+     * @return A probability between 0.0 and 1.0
+     * @throws Exception Thrown if the model needs to be trained
+     */
+    double computeProbability(TokenCounts counts) throws Exception;
+
+    /**
+     * Score a batch of bodies which were already tokenized. Implementations must allow concurrent calls once the
+     * model is trained.
+     *
+     * @param batch The counts of the tokens of each body
+     * @return The probability of each body, in the same order
+     * @throws Exception Thrown if the model needs to be trained
+     */
+    default double[] computeProbabilities(TokenCounts[] batch) throws Exception {
+        final double[] probabilities = new double[batch.length];
+
+        for (int i = 0; i < batch.length; ++i) {
+            probabilities[i] = computeProbability(batch[i]);
+        }
+
+        return probabilities;
+    }
     double computeClass(String body) throws Exception;
+
+    /**
+     * @return True if the model holds the vocabulary it was trained with, and therefore can compute probabilities
+     * without {@link #setData(Data, Set)} being called
+     */
+    boolean hasVocabulary();
+
+    /**
+     * @return A fingerprint such that two models with the same fingerprint compute the same probabilities, or null if
+     * the model was not saved
+     */
+    String getFingerprint();
     void save(String path) throws Exception;
 }
\ No newline at end of file
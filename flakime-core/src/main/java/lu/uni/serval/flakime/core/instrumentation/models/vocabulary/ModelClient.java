@@ -0,0 +1,222 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import lu.uni.serval.flakime.core.utils.Logger;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Connection to a {@link ModelServer} running on the same machine.
+ * <p>
+ * The client reads the token of the server from its token file, which other users must not be able to read, and only
+ * talks to a server proving that it knows the token: any other process answering on the port is ignored and the
+ * build scores its tests itself.
+ * <p>
+ * This class is not thread safe: requests are sent one after the other on a single connection.
+ */
+public class ModelClient implements Closeable {
+    private static final int CONNECT_TIMEOUT = 500;
+    private static final int READ_TIMEOUT = 600000;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private ModelClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * Connect to a server with the default token file of the port, {@code ~/.flakime/daemon-<port>.token}.
+     *
+     * @param logger Reference to logger
+     * @param port   The port the server listens on
+     * @return The connection, or null if no server of the current user answers on the port
+     */
+    public static ModelClient connect(Logger logger, int port) {
+        return connect(logger, port, null);
+    }
+
+    /**
+     * @param logger    Reference to logger
+     * @param port      The port the server listens on
+     * @param tokenFile The token file written by the server, null for the default one of the port
+     * @return The connection, or null if no server knowing the token answers on the port
+     */
+    public static ModelClient connect(Logger logger, int port, File tokenFile) {
+        final byte[] token;
+        try {
+            token = ModelProtocol.readToken(tokenFile != null ? tokenFile : ModelProtocol.getTokenFile(port));
+        } catch (IOException e) {
+            logger.debug(String.format("No model daemon token for port %d: %s", port, e.getMessage()));
+            return null;
+        }
+
+        final Socket socket = new Socket();
+
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+            // Something else listening on the port should not hold the build for long
+            socket.setSoTimeout(CONNECT_TIMEOUT);
+
+            final ModelClient client = new ModelClient(socket);
+            client.authenticate(token);
+
+            socket.setSoTimeout(READ_TIMEOUT);
+
+            return client;
+        } catch (IOException e) {
+            logger.debug(String.format("No model daemon on port %d: %s", port, e.getMessage()));
+
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Nothing to release
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Run the client side of the handshake of the {@link ModelProtocol}.
+     *
+     * @param token The token of the server
+     * @throws IOException if the server does not know the token, rejected the client or the connection was lost
+     */
+    private void authenticate(byte[] token) throws IOException {
+        final byte[] clientNonce = ModelProtocol.nonce();
+
+        out.writeInt(ModelProtocol.MAGIC);
+        out.writeInt(ModelProtocol.VERSION);
+        out.write(clientNonce);
+        out.flush();
+        checkStatus();
+
+        final byte[] serverNonce = ModelProtocol.readBytes(in, ModelProtocol.NONCE_LENGTH);
+        final byte[] expected = ModelProtocol.proof(token, ModelProtocol.SERVER, clientNonce, serverNonce);
+        if (!MessageDigest.isEqual(expected, ModelProtocol.readBytes(in, expected.length))) {
+            throw new IOException("the server does not know the token");
+        }
+
+        out.write(ModelProtocol.proof(token, ModelProtocol.CLIENT, clientNonce, serverNonce));
+        out.flush();
+        checkStatus();
+    }
+
+    /**
+     * @param path The absolute path to the model
+     * @return The fingerprint of the model, as returned by {@link Model#getFingerprint()} in the server
+     * @throws IOException if the server failed to load the model or the connection was lost
+     */
+    public String fingerprint(String path) throws IOException {
+        out.writeInt(ModelProtocol.FINGERPRINT);
+        ModelProtocol.writeString(out, path);
+        out.flush();
+
+        checkStatus();
+        final String fingerprint = ModelProtocol.readString(in);
+
+        return fingerprint.isEmpty() ? null : fingerprint;
+    }
+
+    /**
+     * Score test methods. The methods are sent in as many requests as needed to keep each one under half of
+     * {@link ModelProtocol#MAX_REQUEST_LENGTH}.
+     *
+     * @param path       The absolute path to the model
+     * @param blocks     The text of the blocks of each method, indexed by starting line number
+     * @param statements The line numbers of the statements of each method
+     * @return The probabilities of each method, null for the methods the server failed to score
+     * @throws IOException if the server failed to load the model, rejected a method or the connection was lost
+     */
+    VocabularyModel.Score[] score(String path, List<Map<Integer, String>> blocks, List<int[]> statements) throws IOException {
+        final VocabularyModel.Score[] scores = new VocabularyModel.Score[blocks.size()];
+        int start = 0;
+
+        while (start < scores.length) {
+            long length = requestLength(blocks.get(start), statements.get(start));
+            int end = start + 1;
+
+            // A method larger than the limit on its own is sent alone, for the server to reject it
+            while (end < scores.length && length + requestLength(blocks.get(end), statements.get(end)) <= ModelProtocol.MAX_REQUEST_LENGTH / 2) {
+                length += requestLength(blocks.get(end), statements.get(end));
+                ++end;
+            }
+
+            final VocabularyModel.Score[] batch = scoreBatch(path, blocks.subList(start, end), statements.subList(start, end));
+            System.arraycopy(batch, 0, scores, start, batch.length);
+            start = end;
+        }
+
+        return scores;
+    }
+
+    /**
+     * @return An upper bound of the bytes the server charges for a method, counting three bytes per character
+     */
+    private static long requestLength(Map<Integer, String> blocks, int[] statements) {
+        long length = 2L * Integer.BYTES + (long) statements.length * Integer.BYTES;
+
+        for (String block : blocks.values()) {
+            length += 2L * Integer.BYTES + 3L * block.length();
+        }
+
+        return length;
+    }
+
+    private VocabularyModel.Score[] scoreBatch(String path, List<Map<Integer, String>> blocks, List<int[]> statements) throws IOException {
+        out.writeInt(ModelProtocol.SCORE);
+        ModelProtocol.writeString(out, path);
+        out.writeInt(blocks.size());
+
+        for (int i = 0; i < blocks.size(); ++i) {
+            out.writeInt(blocks.get(i).size());
+            for (Map.Entry<Integer, String> block : blocks.get(i).entrySet()) {
+                out.writeInt(block.getKey());
+                ModelProtocol.writeString(out, block.getValue());
+            }
+
+            out.writeInt(statements.get(i).length);
+            for (int line : statements.get(i)) {
+                out.writeInt(line);
+            }
+        }
+
+        out.flush();
+        checkStatus();
+
+        final VocabularyModel.Score[] scores = new VocabularyModel.Score[blocks.size()];
+
+        for (int i = 0; i < scores.length; ++i) {
+            final double probability = in.readDouble();
+            final double[] probabilities = new double[statements.get(i).length];
+
+            for (int j = 0; j < probabilities.length; ++j) {
+                probabilities[j] = in.readDouble();
+            }
+
+            scores[i] = Double.isNaN(probability) ? null : VocabularyModel.Score.of(probability, statements.get(i), probabilities);
+        }
+
+        return scores;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private void checkStatus() throws IOException {
+        if (in.readInt() != ModelProtocol.OK) {
+            throw new IOException(ModelProtocol.readString(in));
+        }
+    }
+}
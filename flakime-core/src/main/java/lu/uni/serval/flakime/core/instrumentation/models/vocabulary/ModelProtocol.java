@@ -0,0 +1,249 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.Set;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Messages exchanged between a {@link ModelClient} and a {@link ModelServer}.
+ * <p>
+ * A connection starts with a handshake authenticating both ends with a secret token, which the server writes to a
+ * file only readable by its owner, {@link #getTokenFile(int)}. The token itself is never sent:
+ * <ol>
+ *     <li>the client sends {@link #MAGIC}, {@link #VERSION} and a random nonce;</li>
+ *     <li>the server answers with a status, a random nonce of its own and the {@link #proof} of the token for both
+ *     nonces, which the client checks before sending anything else;</li>
+ *     <li>the client sends its own proof, to which the server answers with a status.</li>
+ * </ol>
+ * The client then sends any number of requests, each one starting with its type and answered by a status followed by
+ * the result, or by an error message:
+ * <ul>
+ *     <li>{@link #FINGERPRINT}: the path of a model, answered by the fingerprint of the model;</li>
+ *     <li>{@link #SCORE}: the path of a model and a batch of methods, each one given by the text of its blocks and the
+ *     line numbers of its statements, answered by the probability of each method followed by the probability of each
+ *     of its statements.</li>
+ * </ul>
+ * Strings are written as their length in bytes followed by their UTF-8 encoding, so that the size of a body is not
+ * limited as with {@link DataOutputStream#writeUTF(String)}. Every length and count read from the other end is
+ * checked against {@link #MAX_STRING_LENGTH} or {@link #MAX_COUNT} before anything is allocated. The server also
+ * charges what each length and count announces to a {@link Budget} of {@link #MAX_REQUEST_LENGTH} bytes per request,
+ * so that nested counts cannot add up to more; the client splits its batches to stay well below it.
+ */
+class ModelProtocol {
+    static final int MAGIC = 0x464b4431;
+    static final int VERSION = 2;
+
+    static final int FINGERPRINT = 1;
+    static final int SCORE = 2;
+
+    static final int OK = 0;
+    static final int ERROR = 1;
+
+    static final int MAX_STRING_LENGTH = 16 << 20;
+    static final int MAX_COUNT = 1 << 20;
+    static final long MAX_REQUEST_LENGTH = 32 << 20;
+
+    static final int TOKEN_LENGTH = 32;
+    static final int NONCE_LENGTH = 16;
+    static final int SERVER = 1;
+    static final int CLIENT = 2;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private ModelProtocol() throws IllegalAccessException {
+        throw new IllegalAccessException("Model protocol should not be instantiated");
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[readCount(in, MAX_STRING_LENGTH)];
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a string whose length is charged to the budget of the request.
+     *
+     * @param in     The stream to read from
+     * @param budget The budget of the request
+     * @return The string read
+     * @throws IOException if the length is invalid or exceeds the budget
+     */
+    static String readString(DataInputStream in, Budget budget) throws IOException {
+        final byte[] bytes = new byte[readCount(in, MAX_STRING_LENGTH, budget, 1)];
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param in  The stream to read from
+     * @param max The largest count accepted
+     * @return The count read
+     * @throws IOException if the count is negative or larger than {@code max}
+     */
+    static int readCount(DataInputStream in, int max) throws IOException {
+        final int count = in.readInt();
+
+        if (count < 0 || count > max) {
+            throw new IOException(String.format("Invalid length %d, the limit is %d", count, max));
+        }
+
+        return count;
+    }
+
+    /**
+     * Read a count and charge the elements it announces to the budget of the request, before they are allocated.
+     *
+     * @param in          The stream to read from
+     * @param max         The largest count accepted
+     * @param budget      The budget of the request
+     * @param elementSize The number of bytes charged for each element
+     * @return The count read
+     * @throws IOException if the count is negative, larger than {@code max} or exceeds the budget
+     */
+    static int readCount(DataInputStream in, int max, Budget budget, int elementSize) throws IOException {
+        final int count = readCount(in, max);
+        budget.charge((long) count * elementSize);
+
+        return count;
+    }
+
+    static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return bytes;
+    }
+
+    static byte[] nonce() {
+        final byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+
+        return nonce;
+    }
+
+    /**
+     * @param token       The secret token of the server
+     * @param role        {@link #SERVER} or {@link #CLIENT}, so that a proof cannot be sent back to its author
+     * @param clientNonce The nonce of the client
+     * @param serverNonce The nonce of the server
+     * @return The HMAC of the role and the nonces keyed by the token
+     */
+    static byte[] proof(byte[] token, int role, byte[] clientNonce, byte[] serverNonce) {
+        try {
+            final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(token, MAC_ALGORITHM));
+            mac.update((byte) role);
+            mac.update(clientNonce);
+            mac.update(serverNonce);
+
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(String.format("%s is not available", MAC_ALGORITHM), e);
+        }
+    }
+
+    /**
+     * @param port The port of the server
+     * @return The default token file of a server, in the {@code .flakime} directory of the user
+     */
+    static File getTokenFile(int port) {
+        return new File(new File(System.getProperty("user.home"), ".flakime"), String.format("daemon-%d.token", port));
+    }
+
+    /**
+     * Write a new random token to a file only its owner can read, replacing any previous one.
+     *
+     * @param tokenFile The token file
+     * @return The token
+     * @throws IOException if the file could not be written
+     */
+    static byte[] createToken(File tokenFile) throws IOException {
+        final byte[] token = new byte[TOKEN_LENGTH];
+        RANDOM.nextBytes(token);
+
+        final Path path = tokenFile.toPath();
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Files.deleteIfExists(path);
+
+        if (isPosix()) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        } else {
+            Files.createFile(path);
+            final File file = path.toFile();
+            if (!file.setReadable(false, false) || !file.setReadable(true, true) || !file.setWritable(false, false) || !file.setWritable(true, true)) {
+                Files.delete(path);
+                throw new IOException(String.format("Failed to restrict the access to %s", tokenFile));
+            }
+        }
+
+        Files.write(path, token);
+
+        return token;
+    }
+
+    /**
+     * @param tokenFile The token file written by the server
+     * @return The token
+     * @throws IOException if the file cannot be read, does not hold a token, or other users can access it
+     */
+    static byte[] readToken(File tokenFile) throws IOException {
+        final Path path = tokenFile.toPath();
+
+        if (isPosix()) {
+            final Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+            permissions.removeAll(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE));
+
+            if (!permissions.isEmpty()) {
+                throw new IOException(String.format("%s can be accessed by other users", tokenFile));
+            }
+        }
+
+        final byte[] token = Files.readAllBytes(path);
+        if (token.length != TOKEN_LENGTH) {
+            throw new IOException(String.format("%s does not hold a token", tokenFile));
+        }
+
+        return token;
+    }
+
+    private static boolean isPosix() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+
+    /**
+     * Bytes a request may still announce before it is rejected.
+     */
+    static final class Budget {
+        private long remaining = MAX_REQUEST_LENGTH;
+
+        void charge(long bytes) throws IOException {
+            if (bytes > remaining) {
+                throw new IOException(String.format("Request larger than %d bytes", MAX_REQUEST_LENGTH));
+            }
+
+            remaining -= bytes;
+        }
+    }
+}
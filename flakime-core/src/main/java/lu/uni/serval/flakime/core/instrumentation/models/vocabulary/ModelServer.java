@@ -0,0 +1,360 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import lu.uni.serval.flakime.core.utils.Logger;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Long-lived process keeping vocabulary models loaded, so that builds running one after the other on the same machine
+ * do not each load the forest and its vocabulary before scoring their tests.
+ * <p>
+ * The server only listens on the loopback interface and speaks the {@link ModelProtocol}. Each connection is served
+ * by its own thread, and at most {@value #MAX_CONNECTIONS} connections are served at once: the ones above are closed
+ * as soon as they are accepted. A client has {@value #HANDSHAKE_TIMEOUT} ms to complete the handshake and may then
+ * stay idle for {@value #IDLE_TIMEOUT} ms, so that connections which send nothing do not hold a thread. When it starts, the server writes a random token to a file only its owner can read, and only
+ * serves the clients proving that they know it, that is the processes of the same user. The file is deleted when the
+ * server is closed. A model is loaded on its first request and kept until its file changes, in which case it is
+ * loaded again.
+ * <p>
+ * Only models saved in the binary format with their vocabulary can be served. Serialized models are rejected, as
+ * deserializing them could run code chosen by whoever wrote the file, and so are models which need the training data
+ * to be tokenized: the client then falls back to scoring in its own process.
+ */
+public class ModelServer implements Closeable {
+    static final int MAX_CONNECTIONS = 16;
+    static final int HANDSHAKE_TIMEOUT = 2000;
+    static final int IDLE_TIMEOUT = 300000;
+
+    private final Logger logger;
+    private final ServerSocket serverSocket;
+    private final File tokenFile;
+    private final byte[] token;
+    private final ExecutorService connections;
+    private final Semaphore slots = new Semaphore(MAX_CONNECTIONS);
+    private final Thread acceptor;
+    private final Map<String, LoadedModel> models = new HashMap<>();
+
+    private ModelServer(Logger logger, ServerSocket serverSocket, File tokenFile, byte[] token) {
+        this.logger = logger;
+        this.serverSocket = serverSocket;
+        this.tokenFile = tokenFile;
+        this.token = token;
+        this.connections = Executors.newFixedThreadPool(MAX_CONNECTIONS, runnable -> {
+            final Thread thread = new Thread(runnable, "flakime-daemon-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.acceptor = new Thread(this::accept, "flakime-daemon");
+    }
+
+    /**
+     * Start listening for clients, with the token file the clients look for by default,
+     * {@code ~/.flakime/daemon-<port>.token}.
+     *
+     * @param logger Reference to logger
+     * @param port   The port to listen on, 0 to pick any free port
+     * @return The running server
+     * @throws IOException if the port could not be bound or the token file could not be written
+     */
+    public static ModelServer start(Logger logger, int port) throws IOException {
+        return start(logger, port, null);
+    }
+
+    /**
+     * Start listening for clients.
+     *
+     * @param logger    Reference to logger
+     * @param port      The port to listen on, 0 to pick any free port
+     * @param tokenFile The file to write the token of the server to, null for the default one of the port
+     * @return The running server
+     * @throws IOException if the port could not be bound or the token file could not be written
+     */
+    public static ModelServer start(Logger logger, int port, File tokenFile) throws IOException {
+        final ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        final File file = tokenFile != null ? tokenFile : ModelProtocol.getTokenFile(serverSocket.getLocalPort());
+        final byte[] token;
+
+        try {
+            token = ModelProtocol.createToken(file);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+
+        final ModelServer server = new ModelServer(logger, serverSocket, file, token);
+        server.acceptor.start();
+
+        return server;
+    }
+
+    /**
+     * @return The port the server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return The file holding the token of the server
+     */
+    public File getTokenFile() {
+        return tokenFile;
+    }
+
+    /**
+     * Wait until the server is closed.
+     *
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public void awaitTermination() throws InterruptedException {
+        acceptor.join();
+    }
+
+    /**
+     * Stop accepting clients, close the open connections and delete the token file.
+     *
+     * @throws IOException if the server socket could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            serverSocket.close();
+        } finally {
+            connections.shutdownNow();
+
+            if (tokenFile.exists() && !tokenFile.delete()) {
+                logger.warn(String.format("Failed to delete model daemon token file %s", tokenFile));
+            }
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+
+                if (!slots.tryAcquire()) {
+                    logger.warn(String.format("Refused a model daemon client, %d connections are already open", MAX_CONNECTIONS));
+                    socket.close();
+                    continue;
+                }
+
+                connections.submit(() -> {
+                    try {
+                        serve(socket);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (SocketException e) {
+                // The server socket was closed
+            } catch (IOException e) {
+                logger.warn(String.format("Failed to accept model daemon client: %s", e.getMessage()));
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (
+                Socket s = socket;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))
+        ) {
+            s.setSoTimeout(HANDSHAKE_TIMEOUT);
+            if (!authenticate(in, out)) {
+                return;
+            }
+
+            s.setSoTimeout(IDLE_TIMEOUT);
+
+            while (true) {
+                final int type;
+                try {
+                    type = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+
+                switch (type) {
+                    case ModelProtocol.FINGERPRINT:
+                        fingerprint(in, out);
+                        break;
+                    case ModelProtocol.SCORE:
+                        score(in, out);
+                        break;
+                    default:
+                        error(out, String.format("Unknown request %d", type));
+                        return;
+                }
+
+                out.flush();
+            }
+        } catch (IOException e) {
+            logger.debug(String.format("Model daemon connection closed: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * Run the server side of the handshake of the {@link ModelProtocol}.
+     *
+     * @return True if the client knows the token
+     */
+    private boolean authenticate(DataInputStream in, DataOutputStream out) throws IOException {
+        if (in.readInt() != ModelProtocol.MAGIC || in.readInt() != ModelProtocol.VERSION) {
+            error(out, "Unsupported protocol version");
+            return false;
+        }
+
+        final byte[] clientNonce = ModelProtocol.readBytes(in, ModelProtocol.NONCE_LENGTH);
+        final byte[] serverNonce = ModelProtocol.nonce();
+
+        out.writeInt(ModelProtocol.OK);
+        out.write(serverNonce);
+        out.write(ModelProtocol.proof(token, ModelProtocol.SERVER, clientNonce, serverNonce));
+        out.flush();
+
+        final byte[] expected = ModelProtocol.proof(token, ModelProtocol.CLIENT, clientNonce, serverNonce);
+        if (!MessageDigest.isEqual(expected, ModelProtocol.readBytes(in, expected.length))) {
+            logger.warn("Rejected a model daemon client which does not know the token");
+            error(out, "Authentication failed");
+            return false;
+        }
+
+        out.writeInt(ModelProtocol.OK);
+        out.flush();
+
+        return true;
+    }
+
+    private void fingerprint(DataInputStream in, DataOutputStream out) throws IOException {
+        final String path = ModelProtocol.readString(in);
+        final Model model;
+
+        try {
+            model = model(path);
+        } catch (Exception e) {
+            error(out, String.format("Failed to load model '%s': %s", path, e.getMessage()));
+            return;
+        }
+
+        final String fingerprint = model.getFingerprint();
+
+        out.writeInt(ModelProtocol.OK);
+        ModelProtocol.writeString(out, fingerprint != null ? fingerprint : "");
+    }
+
+    private void score(DataInputStream in, DataOutputStream out) throws IOException {
+        final ModelProtocol.Budget budget = new ModelProtocol.Budget();
+        final String path = ModelProtocol.readString(in, budget);
+        // Each method holds at least the count of its blocks and the count of its statements
+        final int size = ModelProtocol.readCount(in, ModelProtocol.MAX_COUNT, budget, 2 * Integer.BYTES);
+        final List<Map<Integer, String>> blocks = new ArrayList<>(size);
+        final int[][] statements = new int[size][];
+
+        // The whole batch is read before answering, so that the connection can be used again after an error
+        for (int i = 0; i < size; ++i) {
+            final Map<Integer, String> methodBlocks = new HashMap<>();
+            for (int b = ModelProtocol.readCount(in, ModelProtocol.MAX_COUNT, budget, 2 * Integer.BYTES); b > 0; --b) {
+                final int line = in.readInt();
+                methodBlocks.put(line, ModelProtocol.readString(in, budget));
+            }
+            blocks.add(methodBlocks);
+
+            statements[i] = new int[ModelProtocol.readCount(in, ModelProtocol.MAX_COUNT, budget, Integer.BYTES)];
+            for (int j = 0; j < statements[i].length; ++j) {
+                statements[i][j] = in.readInt();
+            }
+        }
+
+        final Model model;
+        try {
+            model = model(path);
+        } catch (Exception e) {
+            error(out, String.format("Failed to load model '%s': %s", path, e.getMessage()));
+            return;
+        }
+
+        out.writeInt(ModelProtocol.OK);
+
+        for (int i = 0; i < size; ++i) {
+            VocabularyModel.Score score;
+            try {
+                score = VocabularyModel.computeScore(model, blocks.get(i), statements[i]);
+            } catch (Exception e) {
+                logger.error(String.format("Failed to compute test probability: %s", e.getMessage()));
+                score = null;
+            }
+
+            // NaN tells the client that this method could not be scored
+            out.writeDouble(score != null ? score.getProbability() : Double.NaN);
+            final double[] probabilities = score != null ? score.getProbabilities(statements[i]) : new double[statements[i].length];
+
+            for (double probability : probabilities) {
+                out.writeDouble(probability);
+            }
+        }
+
+        logger.debug(String.format("Scored %d tests with model '%s'", size, path));
+    }
+
+    private static void error(DataOutputStream out, String message) throws IOException {
+        out.writeInt(ModelProtocol.ERROR);
+        ModelProtocol.writeString(out, message);
+        out.flush();
+    }
+
+    /**
+     * @param path The path to the model
+     * @return The model, loaded again if its file changed since it was last loaded
+     * @throws Exception if the model could not be loaded, is not in the binary format or does not hold its vocabulary
+     */
+    private synchronized Model model(String path) throws Exception {
+        final File file = new File(path);
+        final LoadedModel loaded = models.get(path);
+
+        if (loaded != null && loaded.lastModified == file.lastModified() && loaded.length == file.length()) {
+            return loaded.model;
+        }
+
+        if (!file.isFile()) {
+            throw new FileNotFoundException(path);
+        }
+
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+        final Model model = WekaModel.loadBinary(logger, path);
+
+        if (!model.hasVocabulary()) {
+            throw new IOException("the model does not contain its vocabulary");
+        }
+
+        models.put(path, new LoadedModel(model, lastModified, length));
+        logger.info(String.format("Loaded model '%s'", path));
+
+        return model;
+    }
+
+    private static class LoadedModel {
+        private final Model model;
+        private final long lastModified;
+        private final long length;
+
+        private LoadedModel(Model model, long lastModified, long length) {
+            this.model = model;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
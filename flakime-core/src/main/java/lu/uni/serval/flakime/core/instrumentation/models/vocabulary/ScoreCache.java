@@ -0,0 +1,266 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import lu.uni.serval.flakime.core.utils.Fingerprint;
+import lu.uni.serval.flakime.core.utils.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Probabilities computed by previous builds, so that only the tests whose body changed are sent to the classifier.
+ * <p>
+ * An entry is keyed by the fingerprint of the model and of the text and line numbers of the blocks and statements of
+ * a test method, and holds the probability of the test along with the probability of each of its statements. Each
+ * save is a new generation: an entry remembers the last generation it was used in, and the least recently used
+ * entries are pruned once the cache holds more than its capacity.
+ * <p>
+ * This class is thread safe.
+ */
+public class ScoreCache {
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    private static final int MAGIC = 0x464b5331;
+    private static final int VERSION = 1;
+    // Smallest size of a saved entry: an empty key, the last generation, the probability and the number of statements
+    private static final int MIN_ENTRY_SIZE = 2 + Integer.BYTES + Double.BYTES + Integer.BYTES;
+    private static final int STATEMENT_SIZE = Integer.BYTES + Double.BYTES;
+
+    private final Logger logger;
+    private final File file;
+    private final int capacity;
+    private final int generation;
+    private final Map<String, Entry> entries;
+
+    private ScoreCache(Logger logger, File file, int capacity, int generation, Map<String, Entry> entries) {
+        this.logger = logger;
+        this.file = file;
+        this.capacity = capacity;
+        this.generation = generation;
+        this.entries = entries;
+    }
+
+    /**
+     * Load the entries saved by the previous builds. A missing, unreadable, corrupted or outdated file gives an empty
+     * cache. Every count read from the file is checked against the size of the file before anything is allocated.
+     *
+     * @param logger   Reference to logger
+     * @param file     The file holding the cache
+     * @param capacity The maximum number of entries kept when saving
+     * @return The cache
+     */
+    public static ScoreCache load(Logger logger, File file, int capacity) {
+        final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        int generation = 0;
+
+        if (file.exists()) {
+            final long length = file.length();
+
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                    generation = in.readInt();
+                    final int size = checkCount(in.readInt(), MIN_ENTRY_SIZE, length);
+
+                    for (int i = 0; i < size; ++i) {
+                        final String key = in.readUTF();
+                        entries.put(key, Entry.read(in, length));
+                    }
+                } else {
+                    logger.info(String.format("Score cache '%s' has an unsupported version, ignoring it", file.getAbsolutePath()));
+                }
+            } catch (IOException e) {
+                logger.warn(String.format("Failed to read score cache '%s', ignoring it: %s", file.getAbsolutePath(), e.getMessage()));
+                entries.clear();
+                generation = 0;
+            }
+        }
+
+        return new ScoreCache(logger, file, capacity, generation + 1, entries);
+    }
+
+    /**
+     * @param count       A count read from the file
+     * @param elementSize The smallest size of each counted element in the file
+     * @param length      The size of the file
+     * @return The count
+     * @throws IOException if the count is negative or the file is too small to hold that many elements
+     */
+    private static int checkCount(int count, int elementSize, long length) throws IOException {
+        if (count < 0 || (long) count * elementSize > length) {
+            throw new IOException(String.format("corrupted count %d for a file of %d bytes", count, length));
+        }
+
+        return count;
+    }
+
+    /**
+     * @param modelFingerprint The fingerprint of the model computing the probabilities
+     * @param blocks           The text of each block of the method, indexed by starting line number
+     * @param statements       The line numbers of the statements of the method
+     * @return The key of the probabilities of the method
+     */
+    public static String key(String modelFingerprint, Map<Integer, String> blocks, int[] statements) {
+        final List<String> parts = new ArrayList<>(2 * blocks.size() + 2);
+        parts.add(modelFingerprint);
+
+        for (Map.Entry<Integer, String> block : new TreeMap<>(blocks).entrySet()) {
+            parts.add(String.valueOf(block.getKey()));
+            parts.add(block.getValue());
+        }
+
+        parts.add(Arrays.toString(statements));
+
+        return Fingerprint.of(parts);
+    }
+
+    /**
+     * @param key The key of the method
+     * @return The probabilities of the method, if they were computed by a previous build or earlier in this one
+     */
+    public Optional<Entry> get(String key) {
+        final Entry entry = entries.get(key);
+
+        if (entry == null) {
+            return Optional.empty();
+        }
+
+        entry.lastUsed = generation;
+        return Optional.of(entry);
+    }
+
+    /**
+     * @param key         The key of the method
+     * @param probability The probability of the test
+     * @param lines       The line numbers of the statements
+     * @param probabilities The probability of each statement, in the same order
+     */
+    public void put(String key, double probability, int[] lines, double[] probabilities) {
+        final Entry entry = new Entry(probability, lines, probabilities);
+        entry.lastUsed = generation;
+        entries.put(key, entry);
+    }
+
+    /**
+     * @return The number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Write the most recently used entries, up to the capacity of the cache. The file is written next to its
+     * destination and moved in place once complete.
+     *
+     * @throws IOException if the file could not be written
+     */
+    public void save() throws IOException {
+        final List<Map.Entry<String, Entry>> kept = new ArrayList<>(entries.entrySet());
+
+        if (kept.size() > capacity) {
+            kept.sort((a, b) -> Integer.compare(b.getValue().lastUsed, a.getValue().lastUsed));
+            logger.debug(String.format("Pruning %d entries from score cache", kept.size() - capacity));
+            kept.subList(capacity, kept.size()).clear();
+        }
+
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory " + parent);
+        }
+
+        final File temporary = File.createTempFile(file.getName(), ".tmp", parent);
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(generation);
+                out.writeInt(kept.size());
+
+                for (Map.Entry<String, Entry> entry : kept) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+                }
+            }
+
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    /**
+     * Probabilities of a test method.
+     */
+    public static class Entry {
+        private final double probability;
+        private final int[] lines;
+        private final double[] probabilities;
+        private volatile int lastUsed;
+
+        private Entry(double probability, int[] lines, double[] probabilities) {
+            this.probability = probability;
+            this.lines = lines;
+            this.probabilities = probabilities;
+        }
+
+        /**
+         * @return The probability of the test
+         */
+        public double getProbability() {
+            return probability;
+        }
+
+        /**
+         * @return The number of statements
+         */
+        public int size() {
+            return lines.length;
+        }
+
+        /**
+         * @param i The position of the statement
+         * @return The line number of the statement
+         */
+        public int getLine(int i) {
+            return lines[i];
+        }
+
+        /**
+         * @param i The position of the statement
+         * @return The probability of the statement
+         */
+        public double getProbability(int i) {
+            return probabilities[i];
+        }
+
+        private static Entry read(DataInputStream in, long length) throws IOException {
+            final int lastUsed = in.readInt();
+            final double probability = in.readDouble();
+            final int[] lines = new int[checkCount(in.readInt(), STATEMENT_SIZE, length)];
+            final double[] probabilities = new double[lines.length];
+
+            for (int i = 0; i < lines.length; ++i) {
+                lines[i] = in.readInt();
+                probabilities[i] = in.readDouble();
+            }
+
+            final Entry entry = new Entry(probability, lines, probabilities);
+            entry.lastUsed = lastUsed;
+
+            return entry;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeInt(lastUsed);
+            out.writeDouble(probability);
+            out.writeInt(lines.length);
+
+            for (int i = 0; i < lines.length; ++i) {
+                out.writeInt(lines[i]);
+                out.writeDouble(probabilities[i]);
+            }
+        }
+    }
+}
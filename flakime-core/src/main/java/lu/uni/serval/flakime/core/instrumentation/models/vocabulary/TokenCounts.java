@@ -0,0 +1,117 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import java.util.Arrays;
+
+/**
+ * Immutable sparse vector holding the number of occurrences of each token of a text, indexed by the index of the
+ * token in the vocabulary of the model.
+ * <p>
+ * The counts of a concatenation of texts separated by spaces is the sum of the counts of the texts, which allows
+ * feature vectors of growing prefixes of a method to be built by adding the counts of one block at a time.
+ */
+public class TokenCounts {
+    public static final TokenCounts EMPTY = new TokenCounts(new int[0], new int[0]);
+
+    private final int[] indexes;
+    private final int[] counts;
+
+    /**
+     * @param indexes The strictly increasing token indexes
+     * @param counts The number of occurrences of each token
+     */
+    TokenCounts(int[] indexes, int[] counts) {
+        this.indexes = indexes;
+        this.counts = counts;
+    }
+
+    /**
+     * @param sequence The index of each token of a text
+     * @return The counts of the tokens of the sequence
+     */
+    public static TokenCounts of(int[] sequence) {
+        if (sequence.length == 0) {
+            return EMPTY;
+        }
+
+        final int[] sorted = sequence.clone();
+        Arrays.sort(sorted);
+
+        final int[] indexes = new int[sorted.length];
+        final int[] counts = new int[sorted.length];
+        int size = 0;
+
+        for (int index : sorted) {
+            if (size > 0 && indexes[size - 1] == index) {
+                ++counts[size - 1];
+            } else {
+                indexes[size] = index;
+                counts[size] = 1;
+                ++size;
+            }
+        }
+
+        return new TokenCounts(Arrays.copyOf(indexes, size), Arrays.copyOf(counts, size));
+    }
+
+    /**
+     * Merge two vectors in time linear in their number of non-zero entries.
+     *
+     * @param other The counts to add
+     * @return The sum of both vectors
+     */
+    public TokenCounts plus(TokenCounts other) {
+        if (other.size() == 0) {
+            return this;
+        }
+
+        if (this.size() == 0) {
+            return other;
+        }
+
+        final int[] mergedIndexes = new int[this.size() + other.size()];
+        final int[] mergedCounts = new int[mergedIndexes.length];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+
+        while (i < this.size() || j < other.size()) {
+            if (j == other.size() || (i < this.size() && this.indexes[i] < other.indexes[j])) {
+                mergedIndexes[size] = this.indexes[i];
+                mergedCounts[size] = this.counts[i++];
+            } else if (i == this.size() || other.indexes[j] < this.indexes[i]) {
+                mergedIndexes[size] = other.indexes[j];
+                mergedCounts[size] = other.counts[j++];
+            } else {
+                mergedIndexes[size] = this.indexes[i];
+                mergedCounts[size] = this.counts[i++] + other.counts[j++];
+            }
+
+            ++size;
+        }
+
+        return new TokenCounts(Arrays.copyOf(mergedIndexes, size), Arrays.copyOf(mergedCounts, size));
+    }
+
+    /**
+     * @return The number of distinct tokens
+     */
+    public int size() {
+        return indexes.length;
+    }
+
+    /**
+     * @param position The position of the entry, between 0 and {@link #size()}
+     * @return The index of the token in the vocabulary
+     */
+    public int getIndex(int position) {
+        return indexes[position];
+    }
+
+    /**
+     * @param position The position of the entry, between 0 and {@link #size()}
+     * @return The number of occurrences of the token
+     */
+    public int getCount(int position) {
+        return counts[position];
+    }
+}
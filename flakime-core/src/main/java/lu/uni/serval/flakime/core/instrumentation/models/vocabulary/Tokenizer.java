@@ -0,0 +1,192 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import lu.uni.serval.flakime.core.utils.Fingerprint;
+
+import java.util.*;
+
+/**
+ * Word tokenizer following the rules of the Keras text tokenizer with its default configuration, so that the
+ * vocabulary, and therefore the attributes of the forests trained on it, are the same as with the Keras implementation.
+ * <p>
+ * A text is lower-cased, then split into words on spaces and on the characters of {@link #FILTERS}. The words of the
+ * vocabulary are indexed from 1, by increasing number of occurrences in the fitted texts, ties being broken by order
+ * of first occurrence. As in the count matrix of Keras, which is as wide as the vocabulary, the word of the last index
+ * is never counted.
+ * <p>
+ * Once fitted, this class is immutable and thread safe.
+ */
+public class Tokenizer {
+    public static final String FILTERS = "!\"#$%&()*+,-./:;<=>?@[\\]^_`{|}~\t\n";
+
+    private static final boolean[] DELIMITERS = new boolean[128];
+
+    static {
+        DELIMITERS[' '] = true;
+
+        for (char c : FILTERS.toCharArray()) {
+            DELIMITERS[c] = true;
+        }
+    }
+
+    private final List<String> words;
+    private final Map<String, Integer> wordIndex;
+
+    private Tokenizer(List<String> words) {
+        this.words = Collections.unmodifiableList(words);
+        this.wordIndex = new HashMap<>(words.size() * 2);
+
+        for (int i = 0; i < words.size(); ++i) {
+            this.wordIndex.put(words.get(i), i + 1);
+        }
+    }
+
+    /**
+     * Build the vocabulary of a corpus.
+     *
+     * @param texts The texts of the corpus
+     * @return A tokenizer fitted on the texts
+     */
+    public static Tokenizer fit(String[] texts) {
+        return fit(new String[0], new int[0], texts);
+    }
+
+    /**
+     * Build the vocabulary of a corpus of which a first part was already split into words. The result is the same as
+     * fitting the texts of that first part followed by the other texts.
+     *
+     * @param words       The distinct words of the first part, in order of first occurrence
+     * @param occurrences The number of occurrences of each word in the first part
+     * @param texts       The other texts of the corpus
+     * @return A tokenizer fitted on the corpus
+     */
+    public static Tokenizer fit(String[] words, int[] occurrences, String[] texts) {
+        final Map<String, int[]> counts = new LinkedHashMap<>(words.length * 2);
+
+        for (int i = 0; i < words.length; ++i) {
+            counts.put(words[i], new int[]{occurrences[i]});
+        }
+
+        return fit(counts, texts);
+    }
+
+    private static Tokenizer fit(Map<String, int[]> occurrences, String[] texts) {
+        for (String text : texts) {
+            for (String word : split(text)) {
+                occurrences.computeIfAbsent(word, w -> new int[1])[0]++;
+            }
+        }
+
+        final List<Map.Entry<String, int[]>> entries = new ArrayList<>(occurrences.entrySet());
+        // List.sort is stable, which keeps the order of first occurrence between words with as many occurrences
+        entries.sort(Comparator.comparingInt(entry -> entry.getValue()[0]));
+
+        final List<String> words = new ArrayList<>(entries.size());
+        for (Map.Entry<String, int[]> entry : entries) {
+            words.add(entry.getKey());
+        }
+
+        return new Tokenizer(words);
+    }
+
+    /**
+     * Restore a tokenizer from the vocabulary of a previously fitted one.
+     *
+     * @param words The words of the vocabulary, as returned by {@link #getWords()}
+     * @return A tokenizer with the given vocabulary
+     */
+    static Tokenizer of(List<String> words) {
+        return new Tokenizer(new ArrayList<>(words));
+    }
+
+    /**
+     * @param text A text
+     * @return The words of the text, in order
+     */
+    public static List<String> split(String text) {
+        final String lower = text.toLowerCase();
+        final List<String> words = new ArrayList<>();
+        final int length = lower.length();
+        int start = -1;
+
+        for (int i = 0; i < length; ++i) {
+            if (isDelimiter(lower.charAt(i))) {
+                if (start != -1) {
+                    words.add(lower.substring(start, i));
+                    start = -1;
+                }
+            } else if (start == -1) {
+                start = i;
+            }
+        }
+
+        if (start != -1) {
+            words.add(lower.substring(start));
+        }
+
+        return words;
+    }
+
+    /**
+     * Count the words of a text found in the vocabulary without building a vector as wide as the vocabulary.
+     *
+     * @param text A text
+     * @return The counts of the words of the text, indexed by their index in the vocabulary
+     */
+    public TokenCounts countTokens(String text) {
+        final List<String> sequence = split(text);
+        final int[] indexes = new int[sequence.size()];
+        int size = 0;
+
+        for (String word : sequence) {
+            final int index = indexOf(word);
+
+            if (index != 0) {
+                indexes[size++] = index;
+            }
+        }
+
+        return TokenCounts.of(Arrays.copyOf(indexes, size));
+    }
+
+    /**
+     * @param word A word, as returned by {@link #split(String)}
+     * @return The index of the word if it is counted, 0 otherwise
+     */
+    public int indexOf(String word) {
+        final Integer index = wordIndex.get(word);
+
+        return index != null && index < words.size() ? index : 0;
+    }
+
+    /**
+     * @return The number of words of the vocabulary
+     */
+    public int getVocabularySize() {
+        return words.size();
+    }
+
+    /**
+     * @return The words of the vocabulary, the word of index {@code i} being at position {@code i - 1}
+     */
+    public List<String> getWords() {
+        return words;
+    }
+
+    /**
+     * Digest of the splitting rules and of the vocabulary, two tokenizers with the same fingerprint produce the same
+     * counts for any text.
+     *
+     * @return The fingerprint of the filters followed by the words in index order
+     */
+    public String getFingerprint() {
+        final List<String> parts = new ArrayList<>(words.size() + 1);
+        parts.add(FILTERS);
+        parts.addAll(words);
+
+        return Fingerprint.of(parts);
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c < DELIMITERS.length && DELIMITERS[c];
+    }
+}
@@ -1,23 +1,31 @@
 package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
-import javassist.bytecode.CodeAttribute;
-import javassist.bytecode.LineNumberAttribute;
-import javassist.bytecode.analysis.ControlFlow;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import lu.uni.serval.flakime.core.data.Project;
-import lu.uni.serval.flakime.core.data.TestClass;
+import lu.uni.serval.flakime.core.data.SourceCache;
 import lu.uni.serval.flakime.core.data.TestMethod;
+import lu.uni.serval.flakime.core.data.TestMethodMetadata;
 import lu.uni.serval.flakime.core.utils.Logger;
 
 public class VocabularyModel
@@ -28,11 +36,20 @@ public class VocabularyModel
     private lu.uni.serval.flakime.core.instrumentation.models.vocabulary.Model model;
     private String pathToModel;
     private boolean trainModel;
-    private Map<Integer, Double> probabilitiesPerStatement;
+    private File corpusCache;
+    private int scoringThreads = 1;
+    private int daemonPort;
+    private File scoreCacheFile;
+    private ScoreCache scoreCache;
+    private String modelFingerprint;
+    private final AtomicInteger cachedScores = new AtomicInteger();
     private Map<String,Double> probabilityPerTestMethod;
-    private Map<String,Map<Integer,Double>> probabilitiesPerTestMethod;
+    private Map<String,Score> scorePerTestMethod;
     private static final lu.uni.serval.flakime.core.instrumentation.models.vocabulary.Model.Implementation MODEL_IMPLEMENTATION = lu.uni.serval.flakime.core.instrumentation.models.vocabulary.Model.Implementation.WEKA;
     private double maxProba = 0;
+    private final SourceCache sourceCache = new SourceCache();
+    private final Map<String, Map<Integer, String>> methodBodyTexts = new ConcurrentHashMap<>();
+
     public VocabularyModel(Logger logger) {
         this.logger = logger;
     }
@@ -46,42 +63,231 @@ public class VocabularyModel
      */
     @Override
     public void preProcess(final Project project,double flakeRate) throws Exception {
-        probabilitiesPerTestMethod = new HashMap<>();
-        probabilityPerTestMethod = new HashMap<>();
-        final InputStream dataSource = VocabularyModel.class.getClassLoader()
-                .getResourceAsStream("data/vocabulary.json");
-        final Data data = new Data(dataSource);
-        final Set<String> additionalTrainingText = new HashSet<>();
+        scorePerTestMethod = new ConcurrentHashMap<>();
+        probabilityPerTestMethod = new ConcurrentHashMap<>();
+        final List<TestMethodMetadata> testMethods = project.getTestMethodMetadata();
 
-        for (TestClass testClass : project) {
-            for (TestMethod testMethod : testClass) {
-                final File f = testMethod.getSourceCodeFile();
-                additionalTrainingText.addAll(this.getTestMethodBodyText(f, testMethod).values());
-            }
+        Score[] scores = null;
+
+        if (this.daemonPort > 0 && !trainModel && new File(pathToModel).exists()) {
+            scores = this.scoreWithDaemon(testMethods);
+        }
+
+        if (scores == null) {
+            this.loadModel(testMethods);
+            scores = this.score(testMethods);
+        }
+
+        if (this.scoreCache != null) {
+            this.logger.info(String.format("Reused the probabilities of %d out of %d tests", this.cachedScores.get(), scores.length));
+            this.saveScoreCache();
+        }
+
+        // Merged in project order, so that the last of two tests with the same name wins as when scoring sequentially
+        for (int i = 0; i < scores.length; ++i) {
+            final String name = testMethods.get(i).getName();
+            scorePerTestMethod.put(name, scores[i]);
+            probabilityPerTestMethod.put(name, scores[i].probability);
+            if(scores[i].probability > this.maxProba)
+                this.maxProba = scores[i].probability;
         }
 
+        probabilityPerTestMethod.replaceAll((k,v) -> v/this.maxProba);
+
+        // The source text is only needed to compute the probabilities
+        methodBodyTexts.clear();
+        sourceCache.clear();
+    }
+
+    /**
+     * Train or load the model, then open the score cache of the model.
+     *
+     * @param testMethods The tests of the project
+     * @throws Exception Thrown if the model could not be trained or loaded
+     */
+    private void loadModel(List<TestMethodMetadata> testMethods) throws Exception {
         if (trainModel || !new File(pathToModel).exists()) {
             this.model = ModelFactory.create(MODEL_IMPLEMENTATION, this.logger, this.nTrees, this.nThreads);
-            this.model.setData(data, additionalTrainingText);
+            this.setData(testMethods);
             this.model.train();
             this.model.save(this.pathToModel);
         } else {
             this.model = ModelFactory.load(MODEL_IMPLEMENTATION, this.logger, this.pathToModel);
-            this.model.setData(data, additionalTrainingText);
+
+            // Models saved with their vocabulary do not need the training data to compute probabilities
+            if (!this.model.hasVocabulary()) {
+                this.setData(testMethods);
+            }
         }
 
-        for (TestClass tc: project){
-            for(TestMethod tm: tc){
-                double temp = computeTestFlakinessProbability(tm);
-                probabilitiesPerTestMethod.put(tm.getName(),this.probabilitiesPerStatement);
-                probabilityPerTestMethod.put(tm.getName(),temp);
-                if(temp > this.maxProba)
-                    this.maxProba = temp;
+        this.openScoreCache(this.model.getFingerprint());
+    }
+
+    private void openScoreCache(String fingerprint) {
+        this.scoreCache = this.scoreCacheFile != null && fingerprint != null
+                ? ScoreCache.load(this.logger, this.scoreCacheFile, ScoreCache.DEFAULT_CAPACITY)
+                : null;
+        this.modelFingerprint = fingerprint;
+        this.cachedScores.set(0);
+    }
+
+    /**
+     * Score the test methods with a model daemon listening on {@code daemonPort}, which already holds the model. Only
+     * the tests missing from the score cache are sent, in a single batch.
+     *
+     * @param testMethods The tests of the project
+     * @return The score of each test, in the same order, or null if no daemon answered or it failed, in which case
+     * the tests are to be scored in this process
+     */
+    private Score[] scoreWithDaemon(List<TestMethodMetadata> testMethods) {
+        try (ModelClient client = ModelClient.connect(this.logger, this.daemonPort)) {
+            if (client == null) {
+                this.logger.info(String.format("No model daemon on port %d, scoring tests in process", this.daemonPort));
+                return null;
+            }
+
+            final String path = new File(this.pathToModel).getAbsolutePath();
+            this.openScoreCache(client.fingerprint(path));
+
+            final Score[] scores = new Score[testMethods.size()];
+            final List<Integer> pending = new ArrayList<>();
+            final List<Map<Integer, String>> blocks = new ArrayList<>();
+            final List<int[]> statements = new ArrayList<>();
+            final List<String> keys = new ArrayList<>();
+
+            for (int i = 0; i < scores.length; ++i) {
+                final TestMethodMetadata test = testMethods.get(i);
+                final Map<Integer, String> methodBodyText;
+
+                try {
+                    methodBodyText = this.getTestMethodBodyText(test.getSourceCodeFile(), test);
+                } catch (IOException e) {
+                    this.logger.error(String.format("Failed to compute test probability, default to 0.0 for test '%s': %s",
+                            test.getName(), e.getMessage()));
+                    scores[i] = Score.ZERO;
+                    continue;
+                }
+
+                if (methodBodyText.isEmpty()) {
+                    scores[i] = Score.ZERO;
+                    continue;
+                }
+
+                final String key = this.scoreCache != null
+                        ? ScoreCache.key(this.modelFingerprint, methodBodyText, test.getStatementLines())
+                        : null;
+                final Optional<ScoreCache.Entry> cached = key != null ? this.scoreCache.get(key) : Optional.empty();
+
+                if (cached.isPresent()) {
+                    this.cachedScores.incrementAndGet();
+                    scores[i] = Score.of(cached.get());
+                } else {
+                    pending.add(i);
+                    blocks.add(methodBodyText);
+                    statements.add(test.getStatementLines());
+                    keys.add(key);
+                }
+            }
+
+            final Score[] computed = pending.isEmpty() ? new Score[0] : client.score(path, blocks, statements);
+
+            for (int j = 0; j < computed.length; ++j) {
+                scores[pending.get(j)] = computed[j] != null ? computed[j] : Score.ZERO;
+
+                if (computed[j] != null && keys.get(j) != null) {
+                    computed[j].store(this.scoreCache, keys.get(j), statements.get(j));
+                }
             }
+
+            this.logger.info(String.format("Scored %d tests with the model daemon on port %d", computed.length, this.daemonPort));
+
+            return scores;
+        } catch (IOException e) {
+            this.logger.warn(String.format("Model daemon on port %d failed, scoring tests in process: %s", this.daemonPort, e.getMessage()));
+            this.scoreCache = null;
+
+            return null;
         }
+    }
 
-        probabilityPerTestMethod.replaceAll((k,v) -> v/this.maxProba);
+    private void saveScoreCache() {
+        try {
+            this.scoreCache.save();
+        } catch (IOException e) {
+            this.logger.warn(String.format("Failed to save score cache '%s': %s", this.scoreCacheFile.getAbsolutePath(), e.getMessage()));
+        } finally {
+            this.scoreCache = null;
+        }
+    }
 
+    /**
+     * Fit the vocabulary of the model on the training corpus and on the body of the tests of the project.
+     *
+     * @param testMethods The tests of the project
+     * @throws IOException thrown if the corpus or a test file could not be read
+     */
+    private void setData(List<TestMethodMetadata> testMethods) throws IOException {
+        final URL dataSource = VocabularyModel.class.getClassLoader()
+                .getResource("data/vocabulary.json");
+        final Corpus corpus = Corpus.load(this.logger, dataSource, this.corpusCache);
+        final Set<String> additionalTrainingText = new HashSet<>();
+
+        for (TestMethodMetadata testMethod : testMethods) {
+            final File f = testMethod.getSourceCodeFile();
+            additionalTrainingText.addAll(this.getTestMethodBodyText(f, testMethod).values());
+        }
+
+        this.model.setData(corpus, additionalTrainingText);
+    }
+
+    /**
+     * Score the test methods on {@code scoringThreads} threads. The methods are striped across the threads so that
+     * each thread gets tests from every part of the project.
+     *
+     * @param testMethods The tests of the project
+     * @return The score of each test, in the same order
+     * @throws InterruptedException if the thread was interrupted while waiting for the scores
+     */
+    private Score[] score(List<TestMethodMetadata> testMethods) throws InterruptedException {
+        final Score[] scores = new Score[testMethods.size()];
+        final int threads = Math.max(1, Math.min(this.scoringThreads, scores.length));
+
+        if (threads == 1) {
+            for (int i = 0; i < scores.length; ++i) {
+                scores[i] = this.score(testMethods.get(i));
+            }
+
+            return scores;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            final List<Callable<Void>> partitions = new ArrayList<>(threads);
+
+            for (int t = 0; t < threads; ++t) {
+                final int first = t;
+                partitions.add(() -> {
+                    for (int i = first; i < scores.length; i += threads) {
+                        scores[i] = this.score(testMethods.get(i));
+                    }
+
+                    return null;
+                });
+            }
+
+            for (Future<Void> partition : executor.invokeAll(partitions)) {
+                try {
+                    partition.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Failed to score test methods", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return scores;
     }
 
     /**
@@ -94,39 +300,103 @@ public class VocabularyModel
      */
     @Override
     public double getTestFlakinessProbability(TestMethod test, int lineNumber, double flakeRate) {
-        Map<Integer,Double> probabilityPerStatement = this.probabilitiesPerTestMethod.get(test.getName());
-        if (Optional.ofNullable(probabilityPerStatement).isPresent())
-            return Optional.ofNullable(probabilityPerStatement.get(lineNumber)).orElse(0.0) * flakeRate / this.maxProba;
+        final Score score = this.scorePerTestMethod.get(test.getName());
+        if (score != null)
+            return score.getProbability(lineNumber) * flakeRate / this.maxProba;
         return 0.0;
     }
 
-    public double computeTestFlakinessProbability(TestMethod test){
-        double testFlakinessProbability;
+    /**
+     * Probabilities of all the statements of a test method, read from its score in a single lookup.
+     *
+     * @param test      The test method
+     * @param flakeRate The flake rate
+     * @return The probability of each statement, in the order of {@link TestMethod#getStatementLines()}
+     */
+    @Override
+    public double[] getStatementFlakinessProbabilities(TestMethod test, double flakeRate) {
+        final int[] lineNumbers = test.getStatementLines();
+        final Score score = this.scorePerTestMethod.get(test.getName());
+
+        if (score == null) {
+            return new double[lineNumbers.length];
+        }
+
+        final double[] probabilities = score.getProbabilities(lineNumbers);
+        for (int i = 0; i < probabilities.length; ++i) {
+            probabilities[i] = probabilities[i] * flakeRate / this.maxProba;
+        }
+
+        return probabilities;
+    }
+
+    public double computeTestFlakinessProbability(TestMethodMetadata test){
+        return score(test).probability;
+    }
 
+    /**
+     * Compute the probability of a test and of each of its statements. This method only reads shared state and can
+     * be called concurrently.
+     *
+     * @param test The test method to score
+     * @return The probabilities of the test
+     */
+    private Score score(TestMethodMetadata test){
         try {
             final Map<Integer, String> methodBodyText = this.getTestMethodBodyText(test.getSourceCodeFile(), test);
 
             if (methodBodyText.isEmpty()) {
-                return 0.0;
+                return Score.ZERO;
+            }
+
+            final String key = this.scoreCache != null
+                    ? ScoreCache.key(this.modelFingerprint, methodBodyText, test.getStatementLines())
+                    : null;
+
+            if (key != null) {
+                final Optional<ScoreCache.Entry> cached = this.scoreCache.get(key);
+
+                if (cached.isPresent()) {
+                    this.cachedScores.incrementAndGet();
+                    return Score.of(cached.get());
+                }
             }
 
-            final String completeBody;
-            Optional<String> completeBodyOptional = methodBodyText.values().stream().reduce((a, b) -> a + " " + b);
-            completeBody = completeBodyOptional.orElse("");
+            final Score score = computeScore(this.model, methodBodyText, test.getStatementLines());
 
-            testFlakinessProbability = this.model.computeProbability(completeBody); // 0.15
-            computeStatementProbability(test, testFlakinessProbability);
+            if (key != null) {
+                score.store(this.scoreCache, key, test.getStatementLines());
+            }
+
+            return score;
         } catch (NullPointerException npe) {
             logger.error("Null pointer exception, setting test flakiness probability to 0");
-            testFlakinessProbability = 0.0;
         } catch (Exception e) {
             this.logger.error(String.format("Failed to compute test probability, default to 0.0 for test '%s': %s",
                     test.getName(), e.getMessage()));
+        }
+
+        return Score.ZERO;
+    }
 
-            testFlakinessProbability = 0.0;
+    /**
+     * Compute the probability of a test method and of each of its statements from the text of its blocks.
+     *
+     * @param model      The model computing the probabilities
+     * @param blocks     The text of each block of the method, indexed by starting line number
+     * @param statements The line numbers of the statements of the method
+     * @return The probabilities of the test
+     * @throws Exception if an error occurs during prediction
+     */
+    static Score computeScore(lu.uni.serval.flakime.core.instrumentation.models.vocabulary.Model model, Map<Integer, String> blocks, int[] statements) throws Exception {
+        // Each block is tokenized once, the body and its prefixes are sums of block counts
+        final NavigableMap<Integer, TokenCounts> blockCounts = new TreeMap<>();
+
+        for (Map.Entry<Integer, String> block : blocks.entrySet()) {
+            blockCounts.put(block.getKey(), model.countTokens(block.getValue()));
         }
 
-        return testFlakinessProbability ;
+        return computeStatementProbability(model, statements, blockCounts);
     }
 
     /**
@@ -142,33 +412,55 @@ public class VocabularyModel
 
     /**
      * Method that compute the probability of each code blocks of the test method
+     * <p>
+     * The body of the method up to a statement is made of the blocks starting at or
+     * before the statement line. Its feature vector is obtained by adding the counts
+     * of the blocks reached since the previous statement to the previous vector. The
+     * complete body and all the prefixes are then scored as a single batch.
      *
-     * @param test The test method to extract the code blocks and compute flakiness
-     *             probability
-     * @throws IOException,Exception if the TestMethod source file could not be read
-     *                               or if an error occurs during prediction
+     * @param model The model computing the probabilities
+     * @param statements The line numbers of the statements of the test method
+     * @param blockCounts The counts of the tokens of each block indexed by starting line number
+     * @return The probability of the test and of each of its statements
+     * @throws Exception if an error occurs during prediction
      */
-    private void computeStatementProbability(TestMethod test, double testProbability) throws Exception {
-        double totalProbabilities = 0.0;
+    private static Score computeStatementProbability(lu.uni.serval.flakime.core.instrumentation.models.vocabulary.Model model, int[] statements, NavigableMap<Integer, TokenCounts> blockCounts) throws Exception {
+        final TokenCounts[] batch = new TokenCounts[statements.length + 1];
 
-        this.probabilitiesPerStatement = new HashMap<>();
-        double statementProbability;
+        final Iterator<Map.Entry<Integer, TokenCounts>> blocks = blockCounts.entrySet().iterator();
+        Map.Entry<Integer, TokenCounts> nextBlock = blocks.hasNext() ? blocks.next() : null;
+        TokenCounts bodyToLine = TokenCounts.EMPTY;
 
-        final Map<Integer, String> methodBodyText = this.getTestMethodBodyText(test.getSourceCodeFile(), test);
+        for (int i = 0; i < statements.length; ++i) {
+            while (nextBlock != null && nextBlock.getKey() <= statements[i]) {
+                bodyToLine = bodyToLine.plus(nextBlock.getValue());
+                nextBlock = blocks.hasNext() ? blocks.next() : null;
+            }
+
+            batch[i + 1] = bodyToLine; // proba de flakiness until linenumber
+        }
+
+        // The complete body also holds the blocks starting after the last statement
+        while (nextBlock != null) {
+            bodyToLine = bodyToLine.plus(nextBlock.getValue());
+            nextBlock = blocks.hasNext() ? blocks.next() : null;
+        }
 
-        for (Integer statementNum : test.getStatementLineNumbers()) {
-            final String bodyToLine = getTextBodyToLine(methodBodyText, statementNum);
-            statementProbability = this.model.computeProbability(bodyToLine); // proba de flakiness until linenumber
+        batch[0] = bodyToLine;
 
-            this.probabilitiesPerStatement.put(statementNum, statementProbability);
+        final double[] probabilities = model.computeProbabilities(batch);
+        final double testProbability = probabilities[0];
 
-            totalProbabilities += statementProbability;
+        double totalProbabilities = 0.0;
+        for (int i = 1; i < probabilities.length; ++i) {
+            totalProbabilities += probabilities[i];
         }
 
+        final double[] probabilitiesPerStatement = new double[statements.length];
         double aggregateProbability = 0.0;
 
-        for (Integer statementNum : test.getStatementLineNumbers()) {
-            double unNormalizedP = this.probabilitiesPerStatement.get(statementNum); // proba de flakiness until
+        for (int i = 0; i < statements.length; ++i) {
+            double unNormalizedP = probabilities[i + 1]; // proba de flakiness until
             // linenumber
 
             double statementProbabilityNormalized = 0.0; // Proportion of the block proba wrt
@@ -176,8 +468,10 @@ public class VocabularyModel
                 statementProbabilityNormalized = unNormalizedP / totalProbabilities;
             // overall sum of proba
             aggregateProbability += statementProbabilityNormalized;
-            this.probabilitiesPerStatement.put(statementNum, aggregateProbability * testProbability);
+            probabilitiesPerStatement[i] = aggregateProbability * testProbability;
         }
+
+        return new Score(testProbability, statements, probabilitiesPerStatement);
     }
 
     @Override
@@ -185,67 +479,42 @@ public class VocabularyModel
         //Nothing to be done
     }
 
-    /**
-     * Method to get the string corresponding to the codeblock from the beginning of
-     * the method until a specific line number.
-     *
-     * @param methodBodyText The whole method body with the corresponding line
-     *                       number. Each entry corresponds to a a line number and
-     *                       its corresponding text.
-     * @param lineNumber     The lineNumber until which the string should be
-     *                       recorded.
-     * @return The resulting codeblock
-     */
-    public String getTextBodyToLine(Map<Integer, String> methodBodyText, int lineNumber) {
-        final StringBuilder sb = new StringBuilder();
-
-        for (Map.Entry<Integer,String> entry : methodBodyText.entrySet()) {
-            if (entry.getKey() > lineNumber) {
-                break;
-            }
-            sb.append(entry.getValue()).append(" ");
-        }
-
-        return sb.toString();
-    }
-
     /**
      * Retrieve the text set corresponding to a method in the source file. The
      * granularity is a {@code ControlFlow.Block} uniquely identified by its
      * starting line number in the source code.
+     * <p>
+     * The source files are read through a cache shared by the whole run and the
+     * result is memoized per method until the end of {@link #preProcess}.
      *
      * @param f      the source file
-     * @param method the corresponding {@code TestMethod} instance
-     * @return The mapping between the lineNumber and the corresponding sourceText
+     * @param method the metadata of the corresponding {@code TestMethod}
+     * @return The unmodifiable mapping between the lineNumber and the corresponding sourceText
      * @throws IOException thrown if the test file could not be read
      */
-    public Map<Integer, String> getTestMethodBodyText(File f, TestMethod method) throws IOException {
-        final Map<Integer, String> resultBody = new HashMap<>();
-        final List<String> sb;
-
-        try(BufferedReader br = new BufferedReader(new FileReader(f))){
-            sb = br.lines().collect(Collectors.toList());
+    public Map<Integer, String> getTestMethodBodyText(File f, TestMethodMetadata method) throws IOException {
+        final Map<Integer, String> cached = methodBodyTexts.get(method.getLongName());
+        if (cached != null) {
+            return cached;
         }
 
-        // Use of optional because code attribute can be null, but checks is done at the
-        // TestMethod initialization so need more needs to check presence here
-        final CodeAttribute codeAttribute = method.getCtMethod().getMethodInfo().getCodeAttribute();
-        final LineNumberAttribute ainfo = (LineNumberAttribute) codeAttribute.getAttribute(LineNumberAttribute.tag);
+        final Map<Integer, String> resultBody = new HashMap<>();
+        final SourceCache.SourceFile sourceFile = sourceCache.get(f);
 
-        for (ControlFlow.Block b : method.getBlocks()) {
-            int length = b.length();// The ByteCode size of the Basic block
-            int pos = b.position(); // The position of the first byteCode instruction of the basic block
-            int startLineNumber = ainfo.toLineNumber(pos); // The corresponding line number in the source code
-            int endLineNumber = ainfo.toLineNumber(pos + length); // The First line of the next BasicBlock
+        final int[] startLineNumbers = method.getBlockStartLines();
+        final int[] endLineNumbers = method.getBlockEndLines();
 
-            final StringBuilder stringBuilder = new StringBuilder();
-            for (int ln = startLineNumber; ln <= endLineNumber; ln++) {
-                stringBuilder.append(sb.get(ln - 1));
-            }
-            resultBody.put(startLineNumber, stringBuilder.toString());
+        for (int i = 0; i < startLineNumbers.length; i++) {
+            int startLineNumber = startLineNumbers[i]; // The corresponding line number in the source code
+            int endLineNumber = endLineNumbers[i]; // The First line of the next BasicBlock
+
+            resultBody.put(startLineNumber, sourceFile.getLines(startLineNumber, endLineNumber));
         }
 
-        return resultBody;
+        final Map<Integer, String> body = Collections.unmodifiableMap(resultBody);
+        methodBodyTexts.put(method.getLongName(), body);
+
+        return body;
     }
 
     public void setnTrees(int nTrees) {
@@ -263,4 +532,109 @@ public class VocabularyModel
     public void setTrainModel(boolean trainModel) {
         this.trainModel = trainModel;
     }
+
+    /**
+     * @param scoringThreads The number of threads computing the probabilities of the test methods
+     */
+    public void setScoringThreads(int scoringThreads) {
+        this.scoringThreads = scoringThreads;
+    }
+
+    /**
+     * @param daemonPort The port of the model daemon scoring the tests, 0 to always score them in process
+     */
+    public void setDaemonPort(int daemonPort) {
+        this.daemonPort = daemonPort;
+    }
+
+    /**
+     * @param scoreCacheFile The file keeping the probabilities across builds, or null to compute them on every build
+     */
+    public void setScoreCache(File scoreCacheFile) {
+        this.scoreCacheFile = scoreCacheFile;
+    }
+
+    /**
+     * @param corpusCache The binary cache of the training corpus, or null to parse the corpus on every run
+     */
+    public void setCorpusCache(File corpusCache) {
+        this.corpusCache = corpusCache;
+    }
+
+    /**
+     * Probability of a test method and of each of its statements.
+     */
+    static class Score {
+        private static final Score ZERO = new Score(0.0, new int[0], new double[0]);
+
+        private final double probability;
+        private final int[] statements;
+        private final double[] statementProbabilities;
+
+        private Score(double probability, int[] statements, double[] statementProbabilities) {
+            this.probability = probability;
+            this.statements = statements;
+            this.statementProbabilities = statementProbabilities;
+        }
+
+        private static Score of(ScoreCache.Entry entry) {
+            final int[] statements = new int[entry.size()];
+            final double[] statementProbabilities = new double[entry.size()];
+
+            for (int i = 0; i < entry.size(); ++i) {
+                statements[i] = entry.getLine(i);
+                statementProbabilities[i] = entry.getProbability(i);
+            }
+
+            return new Score(entry.getProbability(), statements, statementProbabilities);
+        }
+
+        /**
+         * @param probability   The probability of the test
+         * @param statements    The sorted line numbers of the statements
+         * @param probabilities The probability of each statement, in the same order
+         * @return The score
+         */
+        static Score of(double probability, int[] statements, double[] probabilities) {
+            return new Score(probability, statements, probabilities);
+        }
+
+        /**
+         * @return The probability of the test
+         */
+        double getProbability() {
+            return probability;
+        }
+
+        /**
+         * @param lineNumber The line number of a statement
+         * @return The probability of the statement, 0 if the statement was not scored
+         */
+        double getProbability(int lineNumber) {
+            final int index = Arrays.binarySearch(statements, lineNumber);
+            return index >= 0 ? statementProbabilities[index] : 0.0;
+        }
+
+        /**
+         * @param statements The sorted line numbers of the statements
+         * @return A new array holding the probability of each statement, in the same order
+         */
+        double[] getProbabilities(int[] statements) {
+            if (Arrays.equals(statements, this.statements)) {
+                return statementProbabilities.clone();
+            }
+
+            final double[] probabilities = new double[statements.length];
+
+            for (int i = 0; i < statements.length; ++i) {
+                probabilities[i] = getProbability(statements[i]);
+            }
+
+            return probabilities;
+        }
+
+        private void store(ScoreCache cache, String key, int[] statements) {
+            cache.put(key, probability, statements, getProbabilities(statements));
+        }
+    }
 }
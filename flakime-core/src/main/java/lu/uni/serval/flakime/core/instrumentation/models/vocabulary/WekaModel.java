@@ -1,13 +1,18 @@
 package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
 
+import lu.uni.serval.flakime.core.utils.Fingerprint;
 import lu.uni.serval.flakime.core.utils.Logger;
-import org.apache.commons.lang3.ArrayUtils;
-import org.deeplearning4j.nn.modelimport.keras.preprocessing.text.KerasTokenizer;
-import org.deeplearning4j.nn.modelimport.keras.preprocessing.text.TokenizerMode;
 import weka.classifiers.trees.RandomForest;
 import weka.core.*;
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -16,12 +21,17 @@ import java.util.stream.Collectors;
  * the classifier as well as training.
  */
 public class WekaModel implements Model{
+    private static final int MAGIC = 0x464b4d31;
+    private static final int VERSION = 1;
+
     private final RandomForest randomForest;
     private final Logger logger;
     private boolean trainNeededFlag = true;
 
-    private KerasTokenizer tokenizer;
+    private Tokenizer tokenizer;
     private Instances trainingInstances;
+    private String forestFingerprint;
+    private CompiledForest compiledForest;
 
     /**
      * Constructs a model based on a pre-trained RandomForest
@@ -35,6 +45,15 @@ public class WekaModel implements Model{
         this.randomForest = randomForest;
     }
 
+    private WekaModel(Logger logger, Tokenizer tokenizer, Instances header, CompiledForest compiledForest) {
+        this.logger = logger;
+        this.trainNeededFlag = false;
+        this.randomForest = null;
+        this.tokenizer = tokenizer;
+        this.trainingInstances = header;
+        this.compiledForest = compiledForest;
+    }
+
     /**
      * Constructs a model instance with specific number of trees and threads.
      *
@@ -52,19 +71,19 @@ public class WekaModel implements Model{
     }
 
     @Override
-    public void setData(Data data, Set<String> additionalTrainingText){
-        final Integer[] yTrain = data.stream()
-                .map(Data.Entry::getLabel)
-                .toArray(Integer[]::new);
-
-        final String[] dataTrain = data.stream()
-                .map(Data.Entry::getBody)
-                .toArray(String[]::new);
+    public void setData(Corpus corpus, Set<String> additionalTrainingText){
+        if (this.randomForest == null) {
+            throw new IllegalStateException("The vocabulary of a model loaded from its binary form cannot be changed");
+        }
 
         final String[] additionalTrain = additionalTrainingText.toArray(new String[0]);
 
-        this.tokenizer = this.createTokenizer(dataTrain, additionalTrain);
-        this.trainingInstances = this.createInstances(tokenizer, yTrain.length, dataTrain, yTrain);
+        this.tokenizer = Tokenizer.fit(corpus.getWords(), corpus.getOccurrences(), additionalTrain);
+        this.trainingInstances = this.createInstances(tokenizer, corpus);
+
+        if (!this.trainNeededFlag) {
+            this.compile();
+        }
     }
 
     /**
@@ -74,6 +93,10 @@ public class WekaModel implements Model{
      */
     @Override
     public void train() throws Exception {
+        if (this.randomForest == null) {
+            throw new IllegalStateException("A model loaded from its binary form cannot be trained");
+        }
+
         this.logger.info(String.format("Training Random Forest Classifier on %d threads with %d trees...",
                 this.randomForest.getNumExecutionSlots(),
                 this.randomForest.getNumIterations()
@@ -86,6 +109,8 @@ public class WekaModel implements Model{
         this.logger.info(String.format("Random Forest Classifier trained in %.1f seconds",
                 (float)(endTime - startTime) / 1000000000
         ));
+
+        this.compile();
     }
 
     /**
@@ -97,11 +122,20 @@ public class WekaModel implements Model{
      */
     @Override
     public double computeProbability(String body) throws Exception {
+        return computeProbability(countTokens(body));
+    }
+
+    @Override
+    public double computeProbability(TokenCounts counts) throws Exception {
         if (this.trainNeededFlag) {
             throw new IllegalStateException("The model is not fitted");
         }
 
-        final Instance instance = this.createSingleInstance(this.trainingInstances, body, 0, this.tokenizer);
+        if (this.compiledForest != null) {
+            return this.compiledForest.probability(counts, 1);
+        }
+
+        final Instance instance = this.createSingleInstance(this.trainingInstances, counts, 0);
         double[] dist = this.randomForest.distributionForInstance(instance);
 
         return dist[1];
@@ -113,55 +147,299 @@ public class WekaModel implements Model{
             throw new IllegalStateException("The model is not fitted");
         }
 
-        final Instance instance = this.createSingleInstance(this.trainingInstances, body, 0, this.tokenizer);
+        if (this.compiledForest != null) {
+            return this.compiledForest.classify(countTokens(body));
+        }
+
+        final Instance instance = this.createSingleInstance(this.trainingInstances, countTokens(body), 0);
         return this.randomForest.classifyInstance(instance);
     }
 
     /**
-     * Serialize the Random forest instance and save to a path
+     * Tokenize a text with the fitted tokenizer.
+     *
+     * @param text A piece of source code
+     * @return The counts of the tokens of the text
+     */
+    @Override
+    public TokenCounts countTokens(String text) {
+        return this.tokenizer.countTokens(text);
+    }
+
+    @Override
+    public boolean hasVocabulary() {
+        return this.tokenizer != null && this.trainingInstances != null;
+    }
+
+    /**
+     * @return The fingerprint of the file the forest was saved to or loaded from, combined with the fingerprint of the
+     * vocabulary, null if the forest was not saved or the vocabulary is not set
+     */
+    @Override
+    public String getFingerprint() {
+        if (this.forestFingerprint == null || this.tokenizer == null) {
+            return null;
+        }
+
+        return Fingerprint.of(Arrays.asList(this.forestFingerprint, this.tokenizer.getFingerprint()));
+    }
+
+    /**
+     * Save the model in binary form: a versioned header, the class values, the vocabulary of the tokenizer and its
+     * fingerprint, followed by the arrays of the flattened forest. The file is written next to its destination and
+     * moved in place once complete. A forest which cannot be flattened is saved with Java serialization instead.
      *
      * @param path The path to the randomforest file
      * @throws Exception Thrown if the file would not be written
      */
     @Override
     public void save(String path) throws Exception {
-        SerializationHelper.write(path, this.randomForest);
+        if (this.compiledForest == null) {
+            this.logger.info("Random forest cannot be flattened, saving it with Java serialization");
+            this.saveSerialized(path);
+            return;
+        }
+
+        final File file = new File(path);
+        final File temporary = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+
+                final Attribute classAttribute = this.trainingInstances.classAttribute();
+                out.writeInt(classAttribute.numValues());
+                for (int i = 0; i < classAttribute.numValues(); ++i) {
+                    Corpus.writeString(out, classAttribute.value(i));
+                }
+
+                out.writeInt(this.tokenizer.getVocabularySize());
+                for (String word : this.tokenizer.getWords()) {
+                    Corpus.writeString(out, word);
+                }
+                Corpus.writeString(out, this.tokenizer.getFingerprint());
+
+                this.compiledForest.write(out);
+            }
+
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+
+        this.forestFingerprint = fingerprint(path);
+    }
+
+    /**
+     * Serialize the Random forest instance and save to a path, followed by the header of the training instances,
+     * the vocabulary of the tokenizer and its fingerprint, as done before the binary format.
+     *
+     * @param path The path to the randomforest file
+     * @throws Exception Thrown if the file would not be written
+     */
+    void saveSerialized(String path) throws Exception {
+        SerializationHelper.writeAll(path, new Object[]{
+                this.randomForest,
+                new Instances(this.trainingInstances, 0),
+                new ArrayList<>(this.tokenizer.getWords()),
+                this.tokenizer.getFingerprint()
+        });
+
+        this.forestFingerprint = fingerprint(path);
     }
 
     /**
-     * Method to load a random forest from a serialized file
+     * Method to load a model from a file written by {@link #save(String)}. The binary format is memory-mapped and
+     * read without recursion, the model is then ready to compute probabilities but cannot be trained again. Files
+     * written by previous versions hold a serialized random forest, optionally followed by its vocabulary: if the
+     * vocabulary is missing, {@link #setData(Data, Set)} needs to be called first.
      *
      * @param logger    The logger attached to the running instance.
-     * @param path      The path to the serialized RandomForest
-     * @return Deserialized {@code weka.RandomForest} instance
-     * @throws Exception Thrown if the random forest can not be deserialized.
+     * @param path      The path to the model
+     * @return The loaded model
+     * @throws Exception Thrown if the model can not be read.
      */
     public static Model load(Logger logger, String path) throws Exception {
-        final RandomForest randomForest;
+        return load(logger, path, true);
+    }
+
+    /**
+     * Load a model only if it is in the binary format written by {@link #save(String)}. Unlike {@link #load}, the
+     * file is never deserialized, so a file written by someone else cannot run code in the current process.
+     *
+     * @param logger The logger attached to the running instance.
+     * @param path   The path to the model
+     * @return The loaded model
+     * @throws Exception Thrown if the model can not be read or is not in the binary format.
+     */
+    static Model loadBinary(Logger logger, String path) throws Exception {
+        return load(logger, path, false);
+    }
+
+    private static Model load(Logger logger, String path, boolean allowSerialized) throws Exception {
+        final long startTime = System.nanoTime();
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.remaining() < 2 * Integer.BYTES || buffer.getInt(0) != MAGIC) {
+            if (!allowSerialized) {
+                throw new IOException(String.format("Model '%s' is not in the binary format, serialized models are not accepted", path));
+            }
+
+            return loadSerialized(logger, path);
+        }
+
+        final WekaModel model;
+        try {
+            model = read(logger, buffer, path);
+        } catch (IllegalArgumentException | BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException(String.format("Model '%s' is corrupted: %s", path, e.getMessage()), e);
+        }
+
+        model.forestFingerprint = fingerprint(path);
+        logger.debug(String.format("Loaded model '%s' in %.1f ms", path, (float) (System.nanoTime() - startTime) / 1000000));
+
+        return model;
+    }
+
+    private static WekaModel read(Logger logger, ByteBuffer buffer, String path) throws IOException {
+        buffer.getInt();
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException(String.format("Model '%s' has unsupported version %d", path, version));
+        }
+
+        final List<String> classes = new ArrayList<>();
+        for (int i = buffer.getInt(); i > 0; --i) {
+            classes.add(Corpus.readString(buffer));
+        }
+
+        final List<String> words = new ArrayList<>();
+        for (int i = buffer.getInt(); i > 0; --i) {
+            words.add(Corpus.readString(buffer));
+        }
+
+        final Tokenizer tokenizer = Tokenizer.of(words);
+        if (!tokenizer.getFingerprint().equals(Corpus.readString(buffer))) {
+            throw new IllegalArgumentException("the vocabulary does not match its fingerprint");
+        }
+
+        final CompiledForest forest = CompiledForest.read(buffer);
+        if (forest.getNumberClasses() != classes.size() || forest.getVocabularySize() != tokenizer.getVocabularySize()) {
+            throw new IllegalArgumentException("the forest does not match the vocabulary");
+        }
+
+        return new WekaModel(logger, tokenizer, createEmptyInstances(tokenizer, 0, classes), forest);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Model loadSerialized(Logger logger, String path) throws Exception {
+        final Object[] objects;
         try{
-            randomForest = (RandomForest) SerializationHelper.read(path);
-            return new WekaModel(logger, randomForest);
+            objects = SerializationHelper.readAll(path);
         }catch (StackOverflowError stackOverflowError){
             logger.error("Stackoverflow due to insufficient stack size, please increment with -Xss10m");
             throw new IOException(stackOverflowError);
         }
 
+        if (objects.length == 0 || !(objects[0] instanceof RandomForest)) {
+            throw new IOException(String.format("File '%s' does not contain a random forest", path));
+        }
+
+        final WekaModel model = new WekaModel(logger, (RandomForest) objects[0]);
+        model.forestFingerprint = fingerprint(path);
+
+        if (objects.length < 4) {
+            logger.info(String.format("Model '%s' does not contain its vocabulary, it will be rebuilt from the training data", path));
+            return model;
+        }
+
+        final Instances header = (Instances) objects[1];
+        final Tokenizer tokenizer = Tokenizer.of((List<String>) objects[2]);
+
+        if (!tokenizer.getFingerprint().equals(objects[3]) || header.numAttributes() != tokenizer.getVocabularySize() + 1) {
+            logger.warn(String.format("Vocabulary of model '%s' does not match its fingerprint, it will be rebuilt from the training data", path));
+            return model;
+        }
+
+        model.tokenizer = tokenizer;
+        model.trainingInstances = header;
+        model.compile();
+
+        return model;
+    }
+
+    private static String fingerprint(String path) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            return Fingerprint.of(in);
+        }
+    }
+
+    /**
+     * Flatten the forest so that probabilities are computed without building Weka instances. The forest is still
+     * used if it cannot be flattened.
+     */
+    private void compile() {
+        if (this.randomForest == null) {
+            return;
+        }
+
+        try {
+            final long startTime = System.nanoTime();
+            this.compiledForest = CompiledForest.compile(this.randomForest, this.trainingInstances);
+            this.logger.debug(String.format("Flattened %d trees with %d nodes in %.1f ms",
+                    this.compiledForest.getNumberTrees(),
+                    this.compiledForest.getNumberNodes(),
+                    (float) (System.nanoTime() - startTime) / 1000000
+            ));
+        } catch (IllegalArgumentException e) {
+            this.compiledForest = null;
+            this.logger.debug(String.format("Random forest cannot be flattened, using Weka to compute probabilities: %s", e.getMessage()));
+        }
     }
 
     /**
      * Method to create a not empty weka Instances object
      *
-     * @param tokenizer         The fitted kerasTokenizer from which the feature vector are extracted
-     * @param numTrainInstances The size of the training set
-     * @param featureTrain      The body of each test method
-     * @param labelTrain        The label of each training sample
+     * @param tokenizer The fitted tokenizer from which the feature vector are extracted
+     * @param corpus    The labelled training corpus
      * @return The Training instances
      */
-    private Instances createInstances(KerasTokenizer tokenizer, int numTrainInstances, String[] featureTrain, Integer[] labelTrain) {
-        final Instances dataset = createEmptyInstances(tokenizer, numTrainInstances, labelTrain);
+    private Instances createInstances(Tokenizer tokenizer, Corpus corpus) {
+        final int[] labels = new int[corpus.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = corpus.getLabel(i);
+        }
+
+        final List<String> classes = Arrays.stream(labels)
+                .distinct()
+                .sorted()
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+
+        final Instances dataset = createEmptyInstances(tokenizer, labels.length, classes);
+
+        // Index of each word of the corpus in the vocabulary, 0 if it is not counted
+        final String[] words = corpus.getWords();
+        final int[] indexes = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            indexes[i] = tokenizer.indexOf(words[i]);
+        }
 
-        for (int i = 0; i < numTrainInstances; i++) {
-            Instance instance = createSingleInstance(dataset, featureTrain[i], labelTrain[i], tokenizer);
+        for (int i = 0; i < labels.length; i++) {
+            final int[] sequence = corpus.getTokens(i);
+            int size = 0;
+
+            for (int word : sequence) {
+                if (indexes[word] != 0) {
+                    sequence[size++] = indexes[word];
+                }
+            }
+
+            Instance instance = createSingleInstance(dataset, TokenCounts.of(Arrays.copyOf(sequence, size)), labels[i]);
             dataset.add(instance);
         }
 
@@ -170,17 +448,32 @@ public class WekaModel implements Model{
 
     /**
      * Method to create a weka Instance.
+     * <p>
+     * The instance is the count vector of the tokenizer preceded by the label: the count of the token of index
+     * {@code i} is the value of the attribute {@code i + 1}. Only the non-zero values are stored, no vector as wide
+     * as the vocabulary is allocated.
      *
      * @param dataset    Dataset
-     * @param methodBody The test method body
+     * @param counts     The counts of the tokens of the test method body
      * @param label      The test label value
-     * @param tokenizer  The kerasTokenizer from which the feature vector is extracted
      * @return The weka instance
      */
-    private Instance createSingleInstance(Instances dataset, String methodBody, double label, KerasTokenizer tokenizer) {
-        double[] featureVector = tokenizer.textsToMatrix(new String[]{methodBody}, TokenizerMode.COUNT).toDoubleVector();
+    private Instance createSingleInstance(Instances dataset, TokenCounts counts, double label) {
+        final int offset = label != 0 ? 1 : 0;
+        final double[] values = new double[counts.size() + offset];
+        final int[] indices = new int[counts.size() + offset];
+
+        if (offset == 1) {
+            values[0] = label;
+            indices[0] = 0;
+        }
+
+        for (int i = 0; i < counts.size(); ++i) {
+            values[i + offset] = counts.getCount(i);
+            indices[i + offset] = counts.getIndex(i) + 1;
+        }
 
-        Instance instance = new SparseInstance(1.0, ArrayUtils.insert(0, featureVector, label));
+        Instance instance = new SparseInstance(1.0, values, indices, this.tokenizer.getVocabularySize() + 1);
         instance.setDataset(dataset);
 
         return instance;
@@ -192,20 +485,13 @@ public class WekaModel implements Model{
      *
      * @param tokenizer         Tokenizer fitted on training data
      * @param numTrainInstances Number on training samples
+     * @param classes           The values of the label
      * @return Empty initialized instances object
      */
-    private Instances createEmptyInstances(KerasTokenizer tokenizer, int numTrainInstances, Integer[] labels) {
-        Map<Integer, String> stringIndexes = tokenizer.getIndexWord();
+    private static Instances createEmptyInstances(Tokenizer tokenizer, int numTrainInstances, List<String> classes) {
+        final Attribute labelAttribute = new Attribute("flakime_label", classes);
 
-        final List<String> uniqueLabels = Arrays.stream(labels)
-                .distinct()
-                .sorted()
-                .map(String::valueOf)
-                .collect(Collectors.toList());
-
-        final Attribute labelAttribute = new Attribute("flakime_label", uniqueLabels);
-
-        final ArrayList<Attribute> featuresList = (ArrayList<Attribute>) stringIndexes.values().stream()
+        final ArrayList<Attribute> featuresList = (ArrayList<Attribute>) tokenizer.getWords().stream()
                 .map(Attribute::new)
                 .collect(Collectors.toList());
 
@@ -217,18 +503,4 @@ public class WekaModel implements Model{
 
         return trainInstances;
     }
-
-    /**
-     * Method to create and fit a {@code KerasTokenizer}
-     *
-     * @param trainingVocabulary  The training testmethod bodies
-     * @param additonalVocabulary The additional testmehtod bodies
-     * @return The fitted kerasTokenizer
-     */
-    private KerasTokenizer createTokenizer(String[] trainingVocabulary, String[] additonalVocabulary) {
-        String[] concat = ArrayUtils.addAll(trainingVocabulary, additonalVocabulary);
-        KerasTokenizer kerasTokenizer = new KerasTokenizer();
-        kerasTokenizer.fitOnTexts(concat);
-        return kerasTokenizer;
-    }
 }
@@ -0,0 +1,55 @@
+package lu.uni.serval.flakime.core.report;
+
+/**
+ * A flake read from a binary flake log (see {@link FlakeLogReader}).
+ */
+public class FlakeEvent {
+    private final String method;
+    private final int line;
+    private final float probability;
+    private final long nanoTime;
+    private final long threadId;
+
+    public FlakeEvent(String method, int line, float probability, long nanoTime, long threadId) {
+        this.method = method;
+        this.line = line;
+        this.probability = probability;
+        this.nanoTime = nanoTime;
+        this.threadId = threadId;
+    }
+
+    /**
+     * @return The long name of the flaking method
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return The line of the flake point
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * @return The probability of the flake point
+     */
+    public float getProbability() {
+        return probability;
+    }
+
+    /**
+     * @return The value of {@link System#nanoTime()} in the test JVM when the flake occurred
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * @return The id of the flaking thread in the test JVM
+     */
+    public long getThreadId() {
+        return threadId;
+    }
+}
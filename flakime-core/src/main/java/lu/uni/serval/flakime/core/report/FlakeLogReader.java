@@ -0,0 +1,229 @@
+package lu.uni.serval.flakime.core.report;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import lu.uni.serval.flakime.runtime.BinaryFlakeLog;
+
+/**
+ * Reader of the binary flake logs written by the runtime when the report format is {@code binary}. Logs are read
+ * through a fixed-size window, whatever their size.
+ */
+public class FlakeLogReader {
+    private static final int WINDOW_RECORDS = 4096;
+
+    private FlakeLogReader() throws IllegalAccessException {
+        throw new IllegalAccessException("FlakeLogReader should not be instantiated");
+    }
+
+    /**
+     * Stream the flakes of a log. The stream holds the log file open and must be closed.
+     *
+     * @param log The binary log file
+     * @return The flakes in the order they were claimed in the log
+     * @throws IOException Thrown if the log or its method dictionary cannot be read or is not a flake log
+     */
+    public static Stream<FlakeEvent> read(File log) throws IOException {
+        final Map<Integer, String> methods = readDictionary(getDictionaryFile(log));
+        final FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.READ);
+
+        final long end;
+        try {
+            end = readHeader(log, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        final Iterator<FlakeEvent> iterator = new RecordIterator(channel, methods, end);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    /**
+     * Count the flakes of every binary log of a directory.
+     *
+     * @param outputDirectory The report output directory
+     * @return The number of flakes by method and line
+     * @throws IOException Thrown if a log cannot be read
+     */
+    public static Map<String, Map<Integer, Long>> countFlakes(File outputDirectory) throws IOException {
+        final Map<String, Map<Integer, Long>> counts = new TreeMap<>();
+        final File[] logs = outputDirectory.listFiles((directory, name) -> name.endsWith(BinaryFlakeLog.LOG_EXTENSION));
+
+        if (logs == null) {
+            return counts;
+        }
+
+        for (File log : logs) {
+            try (Stream<FlakeEvent> events = read(log)) {
+                events.forEach(event -> counts
+                        .computeIfAbsent(event.getMethod(), m -> new TreeMap<>())
+                        .merge(event.getLine(), 1L, Long::sum));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        return counts;
+    }
+
+    private static File getDictionaryFile(File log) {
+        final String name = log.getName();
+        final String base = name.endsWith(BinaryFlakeLog.LOG_EXTENSION)
+                ? name.substring(0, name.length() - BinaryFlakeLog.LOG_EXTENSION.length())
+                : name;
+
+        return new File(log.getParentFile(), base + BinaryFlakeLog.DICTIONARY_EXTENSION);
+    }
+
+    private static Map<Integer, String> readDictionary(File dictionary) throws IOException {
+        final Map<Integer, String> methods = new HashMap<>();
+
+        if (!dictionary.exists()) {
+            return methods;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(dictionary.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int separator = line.indexOf('\t');
+                if (separator > 0) {
+                    methods.put(Integer.parseInt(line.substring(0, separator)), line.substring(separator + 1));
+                }
+            }
+        }
+
+        return methods;
+    }
+
+    /**
+     * @return The position of the end of the records, the end of the file if the log was not closed
+     */
+    private static long readHeader(File log, FileChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(BinaryFlakeLog.HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // Fill the header
+        }
+        header.flip();
+
+        if (header.remaining() < BinaryFlakeLog.HEADER_SIZE || header.getInt() != BinaryFlakeLog.MAGIC) {
+            throw new IOException(String.format("%s is not a flake log", log.getAbsolutePath()));
+        }
+
+        final int version = header.getInt();
+        final int recordSize = header.getInt();
+        if (version != BinaryFlakeLog.VERSION || recordSize != BinaryFlakeLog.RECORD_SIZE) {
+            throw new IOException(String.format("Unsupported flake log version %d in %s", version, log.getAbsolutePath()));
+        }
+
+        final int records = header.getInt();
+        return records > 0 ? BinaryFlakeLog.HEADER_SIZE + (long) records * BinaryFlakeLog.RECORD_SIZE : Long.MAX_VALUE;
+    }
+
+    private static class RecordIterator implements Iterator<FlakeEvent> {
+        private final FileChannel channel;
+        private final Map<Integer, String> methods;
+        private final ByteBuffer window = ByteBuffer.allocateDirect(WINDOW_RECORDS * BinaryFlakeLog.RECORD_SIZE);
+        private final long end;
+        private long position = BinaryFlakeLog.HEADER_SIZE;
+        private FlakeEvent next;
+        private boolean done = false;
+
+        private RecordIterator(FileChannel channel, Map<Integer, String> methods, long end) {
+            this.channel = channel;
+            this.methods = methods;
+            this.end = end;
+            this.window.limit(0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !done) {
+                next = readRecord();
+                done = next == null;
+            }
+
+            return next != null;
+        }
+
+        @Override
+        public FlakeEvent next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final FlakeEvent event = next;
+            next = null;
+            return event;
+        }
+
+        private FlakeEvent readRecord() {
+            while (window.remaining() >= BinaryFlakeLog.RECORD_SIZE || fill()) {
+                final int methodId = window.getInt();
+                final int line = window.getInt();
+                final float probability = window.getFloat();
+                final long nanoTime = window.getLong();
+                final long threadId = window.getLong();
+
+                // Claimed by a writer which did not complete it
+                if (methodId == 0) {
+                    continue;
+                }
+
+                return new FlakeEvent(methods.getOrDefault(methodId, String.valueOf(methodId)), line, probability, nanoTime, threadId);
+            }
+
+            return null;
+        }
+
+        private boolean fill() {
+            try {
+                window.clear();
+                if (end - position < window.capacity()) {
+                    window.limit((int) Math.max(0, end - position));
+                }
+
+                while (window.hasRemaining()) {
+                    final int read = channel.read(window, position);
+                    if (read <= 0) {
+                        break;
+                    }
+                    position += read;
+                }
+
+                // Only keep whole records, a truncated one is read again with the next window if it grows
+                final int read = window.position();
+                final int usable = read - read % BinaryFlakeLog.RECORD_SIZE;
+                position -= read - usable;
+                window.flip();
+                window.limit(usable);
+
+                return window.remaining() >= BinaryFlakeLog.RECORD_SIZE;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package lu.uni.serval.flakime.core.utils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timing, allocation and counts of the phases of an instrumentation run.
+ * <p>
+ * A phase is measured between {@link #start(String)} and the closing of the returned {@link Phase}, on the thread
+ * which started it: wall time, CPU time and bytes allocated by the thread. A phase may be measured any number of times
+ * and from several threads, its measures are then summed. The CPU time and the allocations are only reported when the
+ * JVM supports measuring them.
+ * <p>
+ * The CPU time and the allocations of a phase are those of the threads it was started on. Work handed by a phase to
+ * other threads is not part of them: to account for it, the workers measure their own phases, such as
+ * {@link #COMPILE_PAYLOADS} and {@link #WRITE_CLASSES}, which are summed over the workers.
+ * <p>
+ * The metrics are written as a JSON document by {@link #write(File)}. The collector is thread-safe.
+ */
+public class BuildMetrics {
+    /**
+     * Phase computing the flake points of a class and injecting them, measured by the backends.
+     */
+    public static final String COMPILE_PAYLOADS = "compilePayloads";
+
+    /**
+     * Phase writing an instrumented class file, measured by the backends.
+     */
+    public static final String WRITE_CLASSES = "writeClasses";
+
+    /**
+     * Counter of the instrumented classes.
+     */
+    public static final String CLASSES = "classes";
+
+    /**
+     * Counter of the test methods of the instrumented classes.
+     */
+    public static final String METHODS = "methods";
+
+    /**
+     * Counter of the flake points inserted in the test methods.
+     */
+    public static final String POINTS = "points";
+
+    /**
+     * Counter of the flake points which could not be inserted. A method which could not be instrumented at all counts
+     * for its planned points, or for one failure if none was planned before it failed.
+     */
+    public static final String FAILED_INSERTIONS = "failedInsertions";
+
+    /**
+     * Counter of the bytes added to the class files by the instrumentation.
+     */
+    public static final String BYTES_ADDED = "bytesAdded";
+
+    private static final int VERSION = 1;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+    private static final boolean ALLOCATIONS = isAllocationSupported();
+
+    private final long startTime = System.nanoTime();
+    private final Map<String, Totals> phases = new LinkedHashMap<>();
+    private final Map<String, LongAdder> counters = new LinkedHashMap<>();
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+
+    public BuildMetrics() {
+        // The counters of the instrumentation are always reported, even when nothing was counted
+        for (String counter : new String[]{CLASSES, METHODS, POINTS, FAILED_INSERTIONS, BYTES_ADDED}) {
+            add(counter, 0);
+        }
+    }
+
+    /**
+     * Start measuring a phase on the current thread.
+     *
+     * @param name The name of the phase
+     * @return The running phase, to close once the phase is over
+     */
+    public Phase start(String name) {
+        return new Phase(totals(name));
+    }
+
+    /**
+     * @param name The name of the counter
+     * @param delta The value added to the counter
+     */
+    public void add(String name, long delta) {
+        final LongAdder counter;
+
+        synchronized (counters) {
+            counter = counters.computeIfAbsent(name, k -> new LongAdder());
+        }
+
+        counter.add(delta);
+    }
+
+    /**
+     * @param name The name of the counter
+     * @return The value of the counter, 0 if nothing was added to it
+     */
+    public long getCounter(String name) {
+        synchronized (counters) {
+            final LongAdder counter = counters.get(name);
+            return counter == null ? 0 : counter.sum();
+        }
+    }
+
+    /**
+     * Describe the run, for instance with the model or the backend in use.
+     *
+     * @param name The name of the attribute
+     * @param value The value of the attribute
+     */
+    public void setAttribute(String name, String value) {
+        synchronized (attributes) {
+            attributes.put(name, value);
+        }
+    }
+
+    /**
+     * Write the metrics collected so far. The wall time of the run is the time elapsed since the creation of the
+     * collector.
+     *
+     * @param file The JSON file to write
+     * @throws IOException if the file could not be written
+     */
+    public void write(File file) throws IOException {
+        final long wallTime = System.nanoTime() - startTime;
+        final File parent = file.getAbsoluteFile().getParentFile();
+
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory " + parent.getAbsolutePath());
+        }
+
+        try (JsonGenerator generator = new JsonFactory().createGenerator(file, JsonEncoding.UTF8)) {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+            generator.writeNumberField("version", VERSION);
+            generator.writeNumberField("wallTimeNanos", wallTime);
+
+            generator.writeObjectFieldStart("attributes");
+            synchronized (attributes) {
+                for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                    generator.writeStringField(attribute.getKey(), attribute.getValue());
+                }
+            }
+            generator.writeEndObject();
+
+            generator.writeArrayFieldStart("phases");
+            for (Map.Entry<String, Totals> phase : phases()) {
+                final Totals totals = phase.getValue();
+
+                generator.writeStartObject();
+                generator.writeStringField("name", phase.getKey());
+                generator.writeNumberField("count", totals.count.sum());
+                generator.writeNumberField("wallTimeNanos", totals.wallTime.sum());
+                if (CPU_TIME) {
+                    generator.writeNumberField("cpuTimeNanos", totals.cpuTime.sum());
+                }
+                if (ALLOCATIONS) {
+                    generator.writeNumberField("allocatedBytes", totals.allocatedBytes.sum());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+
+            generator.writeObjectFieldStart("counters");
+            synchronized (counters) {
+                for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+                    generator.writeNumberField(counter.getKey(), counter.getValue().sum());
+                }
+            }
+            generator.writeEndObject();
+
+            generator.writeEndObject();
+        }
+    }
+
+    private Totals totals(String name) {
+        synchronized (phases) {
+            return phases.computeIfAbsent(name, k -> new Totals());
+        }
+    }
+
+    private List<Map.Entry<String, Totals>> phases() {
+        synchronized (phases) {
+            return new ArrayList<>(phases.entrySet());
+        }
+    }
+
+    private static boolean isAllocationSupported() {
+        try {
+            return THREADS instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    private static long cpuTime() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATIONS ? ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    /**
+     * A phase being measured on the thread which started it.
+     */
+    public static class Phase implements AutoCloseable {
+        private boolean cancelled = false;
+        private final Totals totals;
+        private final long wallTime = System.nanoTime();
+        private final long cpuTime = cpuTime();
+        private final long allocatedBytes = allocatedBytes();
+
+        private Phase(Totals totals) {
+            this.totals = totals;
+        }
+
+        /**
+         * Drop the measures of the phase, which is then neither timed nor counted when it is closed.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Add the measures of the phase to its totals, unless it was cancelled.
+         */
+        @Override
+        public void close() {
+            if (cancelled) {
+                return;
+            }
+
+            totals.wallTime.add(System.nanoTime() - wallTime);
+            totals.cpuTime.add(cpuTime() - cpuTime);
+            totals.allocatedBytes.add(allocatedBytes() - allocatedBytes);
+            totals.count.increment();
+        }
+    }
+
+    private static class Totals {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder wallTime = new LongAdder();
+        private final LongAdder cpuTime = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+    }
+}
@@ -0,0 +1,87 @@
+package lu.uni.serval.flakime.core.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+
+/**
+ * Helper functions computing stable content fingerprints (SHA-256, hex encoded).
+ */
+public class Fingerprint {
+    private static final String ALGORITHM = "SHA-256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Fingerprint() {
+
+    }
+
+    /**
+     * @param content The bytes to fingerprint
+     * @return The hex encoded digest of the content
+     */
+    public static String of(byte[] content) {
+        final MessageDigest digest = newDigest();
+        digest.update(content);
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param in The stream to fingerprint, read until its end but not closed
+     * @return The hex encoded digest of the content of the stream
+     * @throws IOException if the stream could not be read
+     */
+    public static String of(InputStream in) throws IOException {
+        final MessageDigest digest = newDigest();
+        final byte[] buffer = new byte[8192];
+        int read;
+
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Fingerprint an ordered collection of strings. Each part is length-prefixed so that the boundaries between
+     * parts are part of the fingerprint.
+     *
+     * @param parts The strings to fingerprint
+     * @return The hex encoded digest of the parts
+     */
+    public static String of(Collection<String> parts) {
+        final MessageDigest digest = newDigest();
+
+        for (String part : parts) {
+            final byte[] bytes = String.valueOf(part).getBytes(StandardCharsets.UTF_8);
+            digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) ':');
+            digest.update(bytes);
+        }
+
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(String.format("%s is not supported by this JVM", ALGORITHM), e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+
+        return new String(chars);
+    }
+}
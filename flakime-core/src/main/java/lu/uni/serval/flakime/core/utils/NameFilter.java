@@ -1,5 +1,6 @@
 package lu.uni.serval.flakime.core.utils;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -22,6 +23,13 @@ public class NameFilter {
         return !filterMap.isEmpty();
     }
 
+    /**
+     * @return The regular expressions of the filter
+     */
+    public Set<String> getRules(){
+        return Collections.unmodifiableSet(filterMap.keySet());
+    }
+
     public boolean matches(String name){
         if(!hasRules()){
             return true;
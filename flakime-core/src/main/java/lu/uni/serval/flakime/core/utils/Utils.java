@@ -21,7 +21,7 @@ public class Utils {
     public static boolean isTest(CtMethod m, NameFilter methodFilters,NameFilter annotationFilters) {
         String methodName = m.getName();
 
-        if(m.getMethodInfo().isConstructor()){
+        if(m.getMethodInfo2().isConstructor()){
             return false;
         }
 
@@ -30,7 +30,7 @@ public class Utils {
         }
 
         String runtimeAnnotation = "RuntimeVisibleAnnotations";
-        List<AttributeInfo> ai = m.getMethodInfo().getAttributes().stream()
+        List<AttributeInfo> ai = m.getMethodInfo2().getAttributes().stream()
                 .filter(attributeInfo -> attributeInfo.getName().equals(runtimeAnnotation)).collect(Collectors.toList());
 
         for(AttributeInfo attribute:ai){
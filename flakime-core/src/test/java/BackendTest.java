@@ -0,0 +1,157 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import lu.uni.serval.flakime.core.data.Project;
+import lu.uni.serval.flakime.core.data.TestMethod;
+import lu.uni.serval.flakime.core.instrumentation.backend.BackendFactory;
+import lu.uni.serval.flakime.core.instrumentation.models.Model;
+import lu.uni.serval.flakime.core.utils.BuildMetrics;
+import lu.uni.serval.flakime.runtime.FlakimeRuntime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BackendTest {
+    private static final String[] CLASSES = {
+            "org.example.MathUtilsTest", "org.example.NetworkUtilsTest", "org.example.ThreadUtilsTest", "org.example.TimeUtilsTest"
+    };
+
+    // Tests of the fixture which neither wait, open sockets nor take random branches
+    private static final String[][] TESTS = {
+            {"org.example.TimeUtilsTest", "testGetTimeInSeconds"},
+            {"org.example.TimeUtilsTest", "testGetTimeInDays"},
+            {"org.example.MathUtilsTest", "testInflateWithNegativeNumber"},
+            {"org.example.MathUtilsTest", "testInflateWithNegativeNumber22"}
+    };
+
+    @TempDir
+    File directory;
+
+    @Test
+    void backendsProduceEquivalentClasses() throws Exception {
+        final InstrumentedFixture javassist = InstrumentedFixture.instrument(new File(directory, "javassist"), "javassist", 1.0, "text");
+        final InstrumentedFixture asm = InstrumentedFixture.instrument(new File(directory, "asm"), "asm", 1.0, "text");
+
+        for (String className : CLASSES) {
+            assertEquals(members(javassist, className), members(asm, className), className);
+        }
+
+        for (String[] test : TESTS) {
+            final Throwable javassistFlake = javassist.run(test[0], test[1]);
+            final Throwable asmFlake = asm.run(test[0], test[1]);
+
+            assertNotNull(javassistFlake, test[1]);
+            assertEquals(FlakimeRuntime.EXCEPTION_MESSAGE, javassistFlake.getMessage(), test[1]);
+            assertNotNull(asmFlake, test[1]);
+            assertEquals(FlakimeRuntime.EXCEPTION_MESSAGE, asmFlake.getMessage(), test[1]);
+        }
+
+        final List<String> javassistReport = flakes(javassist);
+        assertEquals(TESTS.length, javassistReport.size());
+        assertEquals(javassistReport, flakes(asm));
+    }
+
+    @Test
+    void uninstrumentedBehaviourIsKept() throws Exception {
+        final InstrumentedFixture javassist = InstrumentedFixture.instrument(new File(directory, "javassist"), "javassist", 0.0, "text");
+        final InstrumentedFixture asm = InstrumentedFixture.instrument(new File(directory, "asm"), "asm", 0.0, "text");
+
+        for (String[] test : TESTS) {
+            assertNull(javassist.run(test[0], test[1]), test[1]);
+            assertNull(asm.run(test[0], test[1]), test[1]);
+        }
+
+        assertTrue(javassist.getReports(".out").isEmpty());
+        assertTrue(asm.getReports(".out").isEmpty());
+    }
+
+    @Test
+    void pointsOfFailedMethodsAreNotCounted() throws Exception {
+        final String failing = TESTS[0][1];
+        final long[] points = new long[2];
+
+        for (int i = 0; i < points.length; ++i) {
+            final String backend = i == 0 ? BackendFactory.JAVASSIST : BackendFactory.ASM;
+            final BuildMetrics complete = new BuildMetrics();
+            final BuildMetrics partial = new BuildMetrics();
+
+            InstrumentedFixture.instrument(new File(directory, backend + "-complete"), backend, InstrumentedFixture.constantModel(1.0), complete, "text");
+            final InstrumentedFixture fixture = InstrumentedFixture.instrument(new File(directory, backend), backend, failingModel(failing), partial, "text");
+
+            assertEquals(0, complete.getCounter(BuildMetrics.FAILED_INSERTIONS), backend);
+            assertEquals(1, partial.getCounter(BuildMetrics.FAILED_INSERTIONS), backend);
+            assertTrue(partial.getCounter(BuildMetrics.POINTS) < complete.getCounter(BuildMetrics.POINTS), backend);
+
+            assertNull(fixture.run(TESTS[0][0], failing), backend);
+            assertNotNull(fixture.run(TESTS[1][0], TESTS[1][1]), backend);
+
+            points[i] = partial.getCounter(BuildMetrics.POINTS);
+        }
+
+        assertEquals(points[0], points[1]);
+    }
+
+    /**
+     * @return A model flaking every statement, except for the methods with the given name which cannot be instrumented
+     */
+    private static Model failingModel(String methodName) {
+        final Model model = InstrumentedFixture.constantModel(1.0);
+
+        return new Model() {
+            @Override
+            public void preProcess(Project p, double flakeRate) {
+            }
+
+            @Override
+            public double getTestFlakinessProbability(TestMethod test, int lineNumber, double flakeRate) {
+                if (test.getName().equals(methodName)) {
+                    throw new IllegalStateException("No probability for " + methodName);
+                }
+
+                return model.getTestFlakinessProbability(test, lineNumber, flakeRate);
+            }
+
+            @Override
+            public double getTestFlakinessProbability(TestMethod test, double flakeRate) {
+                return model.getTestFlakinessProbability(test, flakeRate);
+            }
+
+            @Override
+            public void postProcess() {
+            }
+        };
+    }
+
+    /**
+     * @return The fields and methods of a class as loaded by the JVM, which also verifies the class
+     */
+    private static List<String> members(InstrumentedFixture fixture, String className) throws ClassNotFoundException {
+        final Class<?> clazz = Class.forName(className, true, fixture.getClassLoader());
+        final List<String> members = new ArrayList<>();
+
+        for (Field field : clazz.getDeclaredFields()) {
+            members.add(field.toGenericString());
+        }
+
+        for (Method method : clazz.getDeclaredMethods()) {
+            members.add(method.toGenericString());
+        }
+
+        return members.stream().sorted().collect(Collectors.toList());
+    }
+
+    /**
+     * @return The line, probability and method of each reported flake, without their timestamp
+     */
+    private static List<String> flakes(InstrumentedFixture fixture) throws InterruptedException, IOException {
+        return fixture.awaitReportRows(TESTS.length).stream()
+                .map(row -> row.substring(row.indexOf(',') + 1))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,81 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lu.uni.serval.flakime.core.report.FlakeEvent;
+import lu.uni.serval.flakime.core.report.FlakeLogReader;
+import lu.uni.serval.flakime.runtime.FlakimeRuntime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FlakeBehaviourTest {
+    private static final String[] BACKENDS = {"javassist", "asm"};
+    private static final String CLASS_NAME = "org.example.TimeUtilsTest";
+    private static final String METHOD_NAME = "testGetTimeInSeconds";
+    private static final String LONG_NAME = CLASS_NAME + "." + METHOD_NAME + "()";
+    private static final int FIRST_LINE = 12;
+    private static final int RUNS = 3;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void flakesAtFirstPointWithRateOne() throws Exception {
+        for (String backend : BACKENDS) {
+            final InstrumentedFixture fixture = InstrumentedFixture.instrument(new File(directory, backend), backend, 1.0, "text");
+
+            for (int i = 0; i < RUNS; ++i) {
+                final Throwable flake = fixture.run(CLASS_NAME, METHOD_NAME);
+                assertNotNull(flake, backend);
+                assertEquals(FlakimeRuntime.EXCEPTION_MESSAGE, flake.getMessage(), backend);
+            }
+
+            final List<String> rows = fixture.awaitReportRows(RUNS);
+            assertEquals(RUNS, rows.size(), backend);
+            for (String row : rows) {
+                assertEquals(String.format("%d,%.2f,%s", FIRST_LINE, 1.0, LONG_NAME), row.substring(row.indexOf(',') + 1), backend);
+            }
+        }
+    }
+
+    @Test
+    void flakesAreLoggedInBinaryFormat() throws Exception {
+        for (String backend : BACKENDS) {
+            final InstrumentedFixture fixture = InstrumentedFixture.instrument(new File(directory, backend), backend, 1.0, "binary");
+
+            for (int i = 0; i < RUNS; ++i) {
+                assertNotNull(fixture.run(CLASS_NAME, METHOD_NAME), backend);
+            }
+
+            final List<File> logs = fixture.getReports(".bin");
+            assertEquals(1, logs.size(), backend);
+
+            try (Stream<FlakeEvent> events = FlakeLogReader.read(logs.get(0))) {
+                final List<FlakeEvent> flakes = events.collect(Collectors.toList());
+                assertEquals(RUNS, flakes.size(), backend);
+
+                for (FlakeEvent flake : flakes) {
+                    assertEquals(LONG_NAME, flake.getMethod(), backend);
+                    assertEquals(FIRST_LINE, flake.getLine(), backend);
+                    assertEquals(1.0f, flake.getProbability(), backend);
+                }
+            }
+        }
+    }
+
+    @Test
+    void passesWithRateZero() throws Exception {
+        for (String backend : BACKENDS) {
+            final InstrumentedFixture fixture = InstrumentedFixture.instrument(new File(directory, backend), backend, 0.0, "text");
+
+            for (int i = 0; i < RUNS; ++i) {
+                assertNull(fixture.run(CLASS_NAME, METHOD_NAME), backend);
+            }
+
+            assertTrue(fixture.awaitReportRows(0).isEmpty(), backend);
+            assertTrue(fixture.getReports(".out").isEmpty(), backend);
+        }
+    }
+}
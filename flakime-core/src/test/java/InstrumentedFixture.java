@@ -0,0 +1,197 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lu.uni.serval.flakime.core.data.Project;
+import lu.uni.serval.flakime.core.data.TestClass;
+import lu.uni.serval.flakime.core.data.TestMethod;
+import lu.uni.serval.flakime.core.instrumentation.RuntimeInstaller;
+import lu.uni.serval.flakime.core.instrumentation.backend.BackendFactory;
+import lu.uni.serval.flakime.core.instrumentation.backend.InstrumentationBackend;
+import lu.uni.serval.flakime.core.instrumentation.models.Model;
+import lu.uni.serval.flakime.core.utils.BuildMetrics;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Copy of the compiled tests of {@code simple-java-2}, instrumented and loaded in a class loader of its own.
+ * <p>
+ * The flakime runtime is installed next to the instrumented classes and the class loader does not delegate to the
+ * one of the tests, so that every fixture initializes its own runtime from its own configuration.
+ */
+class InstrumentedFixture {
+    private final File classDirectory;
+    private final File outputDirectory;
+    private final URLClassLoader classLoader;
+
+    private InstrumentedFixture(File classDirectory, File outputDirectory, URLClassLoader classLoader) {
+        this.classDirectory = classDirectory;
+        this.outputDirectory = outputDirectory;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * @param directory The directory holding the instrumented classes and the reports
+     * @param backend The name of the instrumentation backend
+     * @param probability The probability of every flake point
+     * @param reportFormat The format of the flake reports
+     * @return The instrumented fixture
+     * @throws Exception if the fixture could not be instrumented
+     */
+    static InstrumentedFixture instrument(File directory, String backend, double probability, String reportFormat) throws Exception {
+        return instrument(directory, backend, constantModel(probability), new BuildMetrics(), reportFormat);
+    }
+
+    /**
+     * @param directory The directory holding the instrumented classes and the reports
+     * @param backend The name of the instrumentation backend
+     * @param model The model giving the probability of the flake points
+     * @param metrics The metrics the backend reports to
+     * @param reportFormat The format of the flake reports
+     * @return The instrumented fixture
+     * @throws Exception if the fixture could not be instrumented
+     */
+    static InstrumentedFixture instrument(File directory, String backend, Model model, BuildMetrics metrics, String reportFormat) throws Exception {
+        final SimpleJavaStub simpleJavaStub = SimpleJavaStub.getInstance();
+        final File classDirectory = new File(directory, "test-classes");
+        final File outputDirectory = new File(directory, "flakime");
+
+        FileUtils.copyDirectory(new File(simpleJavaStub.getBuild().getTestOutputDirectory()), classDirectory);
+
+        final Project project = new Project(
+                Utils.logger,
+                Stream.of("^@org\\.junit\\.jupiter\\.api\\.Test*.", "@org\\.junit\\.Test").collect(Collectors.toSet()),
+                Collections.emptySet(),
+                Collections.emptySet(),
+                classDirectory,
+                new File(simpleJavaStub.getBuild().getTestSourceDirectory()),
+                Collections.singletonList(simpleJavaStub.getBuild().getOutputDirectory()));
+
+        final InstrumentationBackend instrumentationBackend = BackendFactory.fromName(backend, Utils.logger, 1.0, metrics);
+
+        for (TestClass testClass : project) {
+            instrumentationBackend.instrument(testClass, model);
+            testClass.detach();
+        }
+
+        RuntimeInstaller.install(Utils.logger, classDirectory, outputDirectory, "FLAKIME_DISABLE", false, reportFormat);
+
+        final URLClassLoader classLoader = new URLClassLoader(new URL[]{
+                classDirectory.toURI().toURL(),
+                new File(simpleJavaStub.getBuild().getOutputDirectory()).toURI().toURL(),
+                location(org.junit.jupiter.api.Assertions.class),
+                location(org.opentest4j.AssertionFailedError.class)
+        }, null);
+
+        return new InstrumentedFixture(classDirectory, outputDirectory, classLoader);
+    }
+
+    /**
+     * Run a test method of the fixture, as JUnit would.
+     *
+     * @param className The name of the test class
+     * @param methodName The name of the test method
+     * @return The exception thrown by the test, {@code null} if it passed
+     * @throws ReflectiveOperationException if the test method could not be called
+     */
+    Throwable run(String className, String methodName) throws ReflectiveOperationException {
+        final Class<?> testClass = Class.forName(className, true, classLoader);
+        final Method method = testClass.getDeclaredMethod(methodName);
+        method.setAccessible(true);
+
+        Object instance = null;
+        if (!Modifier.isStatic(method.getModifiers())) {
+            final Constructor<?> constructor = testClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            instance = constructor.newInstance();
+        }
+
+        try {
+            method.invoke(instance);
+            return null;
+        } catch (InvocationTargetException e) {
+            return e.getCause();
+        }
+    }
+
+    /**
+     * Wait for the reporter thread of the runtime to write the text reports.
+     *
+     * @param rows The number of rows expected
+     * @return The rows of the reports, fewer than expected if they were not written in time
+     * @throws IOException if a report could not be read
+     * @throws InterruptedException if interrupted while waiting
+     */
+    List<String> awaitReportRows(int rows) throws IOException, InterruptedException {
+        List<String> lines = readReportRows();
+
+        for (int i = 0; i < 50 && lines.size() < rows; ++i) {
+            Thread.sleep(100);
+            lines = readReportRows();
+        }
+
+        return lines;
+    }
+
+    private List<String> readReportRows() throws IOException {
+        final List<String> rows = new ArrayList<>();
+
+        for (File report : getReports(".out")) {
+            rows.addAll(Files.readAllLines(report.toPath()));
+        }
+
+        return rows;
+    }
+
+    List<File> getReports(String extension) {
+        final File[] files = outputDirectory.listFiles((dir, name) -> name.startsWith("_output_") && name.endsWith(extension));
+        return files == null ? Collections.emptyList() : Stream.of(files).sorted().collect(Collectors.toList());
+    }
+
+    File getClassDirectory() {
+        return classDirectory;
+    }
+
+    File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    static Model constantModel(double probability) {
+        return new Model() {
+            @Override
+            public void preProcess(Project p, double flakeRate) {
+            }
+
+            @Override
+            public double getTestFlakinessProbability(TestMethod test, int lineNumber, double flakeRate) {
+                return probability;
+            }
+
+            @Override
+            public double getTestFlakinessProbability(TestMethod test, double flakeRate) {
+                return probability;
+            }
+
+            @Override
+            public void postProcess() {
+            }
+        };
+    }
+
+    private static URL location(Class<?> clazz) {
+        return clazz.getProtectionDomain().getCodeSource().getLocation();
+    }
+}
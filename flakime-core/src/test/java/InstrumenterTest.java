@@ -24,8 +24,11 @@ import javassist.bytecode.BadBytecode;
 import lu.uni.serval.flakime.core.data.Project;
 import lu.uni.serval.flakime.core.data.TestClass;
 import lu.uni.serval.flakime.core.data.TestMethod;
+import lu.uni.serval.flakime.core.instrumentation.FlakePointTable;
 import lu.uni.serval.flakime.core.instrumentation.FlakimeInstrumenter;
 import lu.uni.serval.flakime.core.instrumentation.models.Model;
+import lu.uni.serval.flakime.core.instrumentation.models.uniform.UniformDistrubtionModel;
+import lu.uni.serval.flakime.runtime.FlakePoints;
 import org.apache.commons.io.FilenameUtils;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -34,29 +37,73 @@ class InstrumenterTest {
 
     @Test
     void computePayloadTest_normalOperation() throws CannotCompileException {
-        String output_dir = "";
         String result = null;
         int lineNumber = 12;
         TestMethod m_testMethod = mock(TestMethod.class);
         Model m_model = mock(Model.class);
         when(m_testMethod.getLongName()).thenReturn("org.example.test#test1()");
         when(m_model.getTestFlakinessProbability(m_testMethod,lineNumber,1.0)).thenReturn(0.5);
-        result = FlakimeInstrumenter.computePayload(m_testMethod,m_model,lineNumber,new File(output_dir),1.0,false);
-        Pattern p = Pattern.compile("^.*<\\s*0\\.5[\\s\\S]*throw new Exception.*");
-        assertTrue(p.matcher(result).find());
+        FlakePointTable table = new FlakePointTable();
+        result = FlakimeInstrumenter.computePayload(m_testMethod,m_model,lineNumber,1.0,table);
+        assertEquals("__FLAKIME_CHECK__(__FLAKIME_RANDOM__, 0);",result);
+
+        FlakePoints points = FlakePoints.decode(table.toFlakePoints().encode());
+        assertEquals(1,points.size());
+        assertEquals("org.example.test#test1()",points.getMethod(0));
+        assertEquals(lineNumber,points.getLine(0));
+        assertEquals(0.5,points.getProbability(0));
     }
 
     @Test
     void computePayloadTest_zeroProbability() {
-        String output_dir = "";
         String result = null;
         int lineNumber = 12;
         TestMethod m_testMethod = mock(TestMethod.class);
         Model m_model = mock(Model.class);
         when(m_testMethod.getLongName()).thenReturn("org.example.test#test1()");
         when(m_model.getTestFlakinessProbability(m_testMethod,lineNumber,1.0)).thenReturn(0.0);
-        result = FlakimeInstrumenter.computePayload(m_testMethod,m_model,lineNumber,new File(output_dir),1.0,false);
+        FlakePointTable table = new FlakePointTable();
+        result = FlakimeInstrumenter.computePayload(m_testMethod,m_model,lineNumber,1.0,table);
         assertEquals("",result);
+        assertTrue(table.isEmpty());
+    }
+
+    @Test
+    void statementProbabilitiesMatchPerStatementProbabilities() throws Exception {
+        final Model model = new UniformDistrubtionModel(Utils.logger);
+        final Model adapter = new Model() {
+            @Override
+            public void preProcess(Project p, double flakeRate) {
+            }
+
+            @Override
+            public double getTestFlakinessProbability(TestMethod test, int lineNumber, double flakeRate) {
+                return model.getTestFlakinessProbability(test, lineNumber, flakeRate);
+            }
+
+            @Override
+            public double getTestFlakinessProbability(TestMethod test, double flakeRate) {
+                return model.getTestFlakinessProbability(test, flakeRate);
+            }
+
+            @Override
+            public void postProcess() {
+            }
+        };
+
+        for (TestClass testClass : Utils.createProject_noFilter()) {
+            for (TestMethod testMethod : testClass) {
+                final int[] lineNumbers = testMethod.getStatementLines();
+                final double[] probabilities = model.getStatementFlakinessProbabilities(testMethod, 0.5);
+
+                assertEquals(lineNumbers.length, probabilities.length);
+                for (int i = 0; i < lineNumbers.length; ++i) {
+                    assertEquals(model.getTestFlakinessProbability(testMethod, lineNumbers[i], 0.5), probabilities[i]);
+                }
+
+                assertArrayEquals(probabilities, adapter.getStatementFlakinessProbabilities(testMethod, 0.5));
+            }
+        }
     }
 
 
@@ -1,6 +1,9 @@
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -8,13 +11,22 @@ import java.util.stream.Stream;
 import javassist.CtMethod;
 import javassist.NotFoundException;
 import lu.uni.serval.flakime.core.data.Project;
+import lu.uni.serval.flakime.core.data.TestClass;
+import lu.uni.serval.flakime.core.data.TestMethod;
+import lu.uni.serval.flakime.core.data.TestMethodMetadata;
+import lu.uni.serval.flakime.core.instrumentation.FlakimeInstrumenter;
+import lu.uni.serval.flakime.core.instrumentation.backend.BackendFactory;
 import lu.uni.serval.flakime.core.utils.NameFilter;
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.shared.invoker.MavenInvocationException;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class ProjectLoadingTest {
+    @TempDir
+    File directory;
 
     @Test
     void nofilter_projectLoadTest() throws NotFoundException, IOException, URISyntaxException, MavenInvocationException {
@@ -61,7 +73,74 @@ class ProjectLoadingTest {
 
     }
 
+    @Test
+    void stream_loadsFreshClassesInNameOrder() throws NotFoundException, IOException, URISyntaxException, MavenInvocationException {
+        Project p = Utils.createProject_junitAnnotation();
+
+        List<TestClass> first = p.stream().collect(Collectors.toList());
+        assertEquals(p.getTestClassNames(), first.stream().map(TestClass::getName).collect(Collectors.toList()));
+        first.forEach(TestClass::detach);
+
+        List<TestClass> second = p.stream().collect(Collectors.toList());
+        assertEquals(p.getTestClassNames(), second.stream().map(TestClass::getName).collect(Collectors.toList()));
+        for (int i = 0; i < first.size(); ++i) {
+            assertNotSame(first.get(i).getCtClass(), second.get(i).getCtClass());
+            assertEquals(first.get(i).getnTestMethods(), second.get(i).getnTestMethods());
+        }
+        second.forEach(TestClass::detach);
+    }
+
+    @Test
+    void getTestMethodMetadata_describesEveryTestMethod() throws NotFoundException, IOException, URISyntaxException, MavenInvocationException {
+        Project p = Utils.createProject_junitAnnotation();
 
+        List<TestMethodMetadata> metadata = p.getTestMethodMetadata();
+        assertEquals(9, metadata.size());
 
+        int i = 0;
+        for (TestClass testClass : p) {
+            for (TestMethod testMethod : testClass) {
+                TestMethodMetadata methodMetadata = metadata.get(i++);
+                assertEquals(testMethod.getLongName(), methodMetadata.getLongName());
+                assertEquals(testMethod.getSourceCodeFile(), methodMetadata.getSourceCodeFile());
+                assertArrayEquals(testMethod.getStatementLines(), methodMetadata.getStatementLines());
+                assertArrayEquals(testMethod.getBlockStartLines(), methodMetadata.getBlockStartLines());
+                assertArrayEquals(testMethod.getBlockEndLines(), methodMetadata.getBlockEndLines());
+            }
+            testClass.detach();
+        }
     }
 
+    @Test
+    void stream_seesClassesWrittenByPreviousTraversal() throws Exception {
+        SimpleJavaStub simpleJavaStub = SimpleJavaStub.getInstance();
+        File classDirectory = new File(directory, "test-classes");
+        FileUtils.copyDirectory(new File(simpleJavaStub.getBuild().getTestOutputDirectory()), classDirectory);
+
+        Project p = new Project(
+                Utils.logger,
+                Stream.of("^@org\\.junit\\.jupiter\\.api\\.Test*.", "@org\\.junit\\.Test").collect(Collectors.toSet()),
+                Collections.emptySet(),
+                Collections.emptySet(),
+                classDirectory,
+                new File(simpleJavaStub.getBuild().getTestSourceDirectory()),
+                Collections.singletonList(simpleJavaStub.getBuild().getOutputDirectory()));
+
+        String instrumented = p.getTestClassNames().get(0);
+        TestClass testClass = p.loadTestClass(instrumented);
+        assertFalse(FlakimeInstrumenter.isInstrumented(testClass.getCtClass()));
+        BackendFactory.fromName("javassist", Utils.logger, 1.0).instrument(testClass, InstrumentedFixture.constantModel(0.5));
+        testClass.detach();
+
+        List<String> instrumentedClasses = new ArrayList<>();
+        for (TestClass reloaded : p) {
+            if (FlakimeInstrumenter.isInstrumented(reloaded.getCtClass())) {
+                instrumentedClasses.add(reloaded.getName());
+            }
+            reloaded.detach();
+        }
+
+        assertEquals(Collections.singletonList(instrumented), instrumentedClasses);
+        assertEquals(4, p.getNumberClasses());
+    }
+}
@@ -0,0 +1,130 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import lu.uni.serval.flakime.core.data.Project;
+import lu.uni.serval.flakime.core.data.TestClass;
+import lu.uni.serval.flakime.core.data.TestMethod;
+import lu.uni.serval.flakime.core.instrumentation.models.vocabulary.Corpus;
+import lu.uni.serval.flakime.core.instrumentation.models.vocabulary.ModelServer;
+import lu.uni.serval.flakime.core.instrumentation.models.vocabulary.VocabularyModel;
+import lu.uni.serval.flakime.core.instrumentation.models.vocabulary.WekaModel;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VocabularyModelTest {
+    @TempDir
+    File directory;
+
+    @Test
+    void parallelScoringMatchesSequentialScoring() throws Exception {
+        final File modelFile = trainModel();
+        final Project project = Utils.createProject_noFilter();
+
+        final Map<String, Double> sequential = probabilities(project, modelFile, 1);
+        final Map<String, Double> parallel = probabilities(project, modelFile, 4);
+
+        assertFalse(sequential.isEmpty());
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    void cachedScoresMatchComputedScores() throws Exception {
+        final File modelFile = trainModel();
+        final File cacheFile = new File(directory, "flakime/score_cache");
+        final Project project = Utils.createProject_noFilter();
+
+        final Map<String, Double> computed = probabilities(project, modelFile, 1);
+        final Map<String, Double> first = probabilities(project, modelFile, 2, cacheFile);
+        assertTrue(cacheFile.exists());
+
+        final Map<String, Double> cached = probabilities(project, modelFile, 2, cacheFile);
+
+        assertEquals(computed, first);
+        assertEquals(computed, cached);
+    }
+
+    @Test
+    void daemonScoresMatchInProcessScores() throws Exception {
+        final File modelFile = trainModel();
+        final File cacheFile = new File(directory, "flakime/score_cache");
+        final Project project = Utils.createProject_noFilter();
+
+        final Map<String, Double> computed = probabilities(project, modelFile, 1);
+        final int port;
+
+        try (ModelServer server = ModelServer.start(Utils.logger, 0)) {
+            port = server.getPort();
+
+            assertEquals(computed, probabilities(project, modelFile, 1, null, port));
+            assertEquals(computed, probabilities(project, modelFile, 1, cacheFile, port));
+            assertTrue(cacheFile.exists());
+        }
+
+        // Without a daemon, the tests are scored in process
+        assertEquals(computed, probabilities(project, modelFile, 1, null, port));
+    }
+
+    private Map<String, Double> probabilities(Project project, File modelFile, int threads) throws Exception {
+        return probabilities(project, modelFile, threads, null);
+    }
+
+    private Map<String, Double> probabilities(Project project, File modelFile, int threads, File cacheFile) throws Exception {
+        return probabilities(project, modelFile, threads, cacheFile, 0);
+    }
+
+    private Map<String, Double> probabilities(Project project, File modelFile, int threads, File cacheFile, int daemonPort) throws Exception {
+        final VocabularyModel model = new VocabularyModel(Utils.logger);
+        model.setPathToModel(modelFile.getAbsolutePath());
+        model.setScoringThreads(threads);
+        model.setScoreCache(cacheFile);
+        model.setDaemonPort(daemonPort);
+        model.preProcess(project, 1.0);
+
+        final Map<String, Double> probabilities = new HashMap<>();
+        for (TestClass testClass : project) {
+            for (TestMethod testMethod : testClass) {
+                probabilities.put(testMethod.getLongName(), model.getTestFlakinessProbability(testMethod, 1.0));
+
+                final int[] lines = testMethod.getStatementLines();
+                final double[] statementProbabilities = model.getStatementFlakinessProbabilities(testMethod, 1.0);
+                assertEquals(lines.length, statementProbabilities.length);
+
+                for (int i = 0; i < lines.length; ++i) {
+                    final double probability = model.getTestFlakinessProbability(testMethod, lines[i], 1.0);
+                    assertEquals(probability, statementProbabilities[i]);
+                    probabilities.put(testMethod.getLongName() + ":" + lines[i], probability);
+                }
+            }
+        }
+
+        return probabilities;
+    }
+
+    private File trainModel() throws Exception {
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 20; ++i) {
+            json.append(i == 0 ? "" : ",").append(String.format(
+                    "{\"Body\": \"%s\", \"ProjectName\": \"p\", \"Label\": %d}",
+                    i % 2 == 1 ? "int result = add(a, b); assertEquals(" + i + ", result);" : "Thread.sleep(" + i + "); assertTrue(isDone());",
+                    i % 2));
+        }
+        json.append("]");
+
+        final File corpusFile = new File(directory, "vocabulary.json");
+        FileUtils.write(corpusFile, json, StandardCharsets.UTF_8);
+
+        final WekaModel model = new WekaModel(Utils.logger, 5, 1);
+        model.setData(Corpus.load(Utils.logger, corpusFile.toURI().toURL(), null), Collections.emptySet());
+        model.train();
+
+        final File modelFile = new File(directory, "rfc_classifier");
+        model.save(modelFile.getAbsolutePath());
+
+        return modelFile;
+    }
+}
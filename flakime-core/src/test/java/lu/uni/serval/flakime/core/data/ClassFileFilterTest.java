@@ -0,0 +1,90 @@
+package lu.uni.serval.flakime.core.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import javassist.ClassPool;
+import javassist.CtMethod;
+import lu.uni.serval.flakime.core.helpers.TestLogger;
+import lu.uni.serval.flakime.core.utils.NameFilter;
+import lu.uni.serval.flakime.core.utils.Utils;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClassFileFilterTest {
+    private static final NameFilter JUNIT_ANNOTATIONS = new NameFilter(Collections.singleton("^@org\\.junit\\.jupiter\\.api\\.Test*."));
+    private static final NameFilter NO_FILTER = new NameFilter(Collections.emptySet());
+
+    @TempDir
+    File directory;
+
+    @Test
+    void classesAreScreenedByAnnotation() throws URISyntaxException {
+        final ClassFileFilter filter = new ClassFileFilter(JUNIT_ANNOTATIONS, NO_FILTER);
+
+        assertTrue(filter.mayContainTests(classFile(ClassFileFilterTest.class)));
+        assertFalse(filter.mayContainTests(classFile(TestLogger.class)));
+    }
+
+    @Test
+    void classesAreScreenedByMethodName() throws URISyntaxException {
+        final ClassFileFilter filter = new ClassFileFilter(JUNIT_ANNOTATIONS, new NameFilter(Collections.singleton("^info$")));
+
+        assertTrue(filter.mayContainTests(classFile(TestLogger.class)));
+    }
+
+    @Test
+    void filtersOnElementValuesAreNotScreened() throws Exception {
+        final NameFilter slowTests = new NameFilter(Collections.singleton(".*Tag\\(value=\"slow\"\\).*"));
+        final ClassFileFilter filter = new ClassFileFilter(slowTests, NO_FILTER);
+
+        final CtMethod method = ClassPool.getDefault().get(Tagged.class.getName()).getDeclaredMethod("slow");
+        assertTrue(Utils.isTest(method, NO_FILTER, slowTests));
+        assertTrue(filter.mayContainTests(classFile(Tagged.class)));
+        assertTrue(filter.mayContainTests(classFile(TestLogger.class)));
+    }
+
+    @Test
+    void annotationsInStringValuesAreScreened() throws Exception {
+        final NameFilter markers = new NameFilter(Collections.singleton("@org\\.example\\.Marker"));
+        final ClassFileFilter filter = new ClassFileFilter(markers, NO_FILTER);
+
+        final CtMethod method = ClassPool.getDefault().get(Tagged.class.getName()).getDeclaredMethod("described");
+        assertTrue(Utils.isTest(method, NO_FILTER, markers));
+        assertTrue(filter.mayContainTests(classFile(Tagged.class)));
+        assertFalse(filter.mayContainTests(classFile(TestLogger.class)));
+    }
+
+    @Test
+    void unreadableFilesAreKept() throws IOException {
+        final File file = new File(directory, "Broken.class");
+        FileUtils.write(file, "not a class file", StandardCharsets.UTF_8);
+
+        final ClassFileFilter filter = new ClassFileFilter(JUNIT_ANNOTATIONS, NO_FILTER);
+
+        assertTrue(filter.mayContainTests(file));
+        assertTrue(filter.mayContainTests(new File(directory, "Missing.class")));
+    }
+
+    private static File classFile(Class<?> clazz) throws URISyntaxException {
+        final String name = clazz.getName();
+        return new File(clazz.getResource(name.substring(name.lastIndexOf('.') + 1) + ".class").toURI());
+    }
+
+    static class Tagged {
+        @Tag("slow")
+        void slow() {
+        }
+
+        @DisplayName("see @org.example.Marker")
+        void described() {
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package lu.uni.serval.flakime.core.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SourceCacheTest {
+    @TempDir
+    File directory;
+
+    @Test
+    void linesAreSplitAsByBufferedReader() throws IOException {
+        final String text = "class A {\n\tvoid a() {}\r\n\r\n\tvoid b() {}\r}";
+        final File file = write("A.java", text);
+
+        final SourceCache.SourceFile sourceFile = new SourceCache(1024, StandardCharsets.UTF_8).get(file);
+        final List<String> expected = new BufferedReader(new StringReader(text)).lines().collect(Collectors.toList());
+
+        assertEquals(expected.size(), sourceFile.getNumberLines());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i), sourceFile.getLine(i + 1));
+        }
+
+        assertEquals("\tvoid a() {}\tvoid b() {}", sourceFile.getLines(2, 4));
+        assertThrows(IndexOutOfBoundsException.class, () -> sourceFile.getLine(6));
+    }
+
+    @Test
+    void leastRecentlyUsedFilesAreEvicted() throws IOException {
+        final File a = write("A.java", "aaaa\n");
+        final File b = write("B.java", "bbbb\n");
+        final File c = write("C.java", "cccc\n");
+        final File large = write("Large.java", "0123456789\n0123456789\n");
+
+        final SourceCache cache = new SourceCache(10, StandardCharsets.UTF_8);
+
+        final SourceCache.SourceFile first = cache.get(a);
+        cache.get(b);
+        assertSame(first, cache.get(a));
+        assertEquals(10, cache.size());
+
+        cache.get(c);
+        assertEquals(10, cache.size());
+        assertSame(first, cache.get(a));
+
+        assertEquals("0123456789", cache.get(large).getLine(2));
+        assertEquals(10, cache.size());
+        assertSame(first, cache.get(a));
+    }
+
+    private File write(String name, String content) throws IOException {
+        final File file = new File(directory, name);
+        FileUtils.write(file, content, StandardCharsets.UTF_8);
+
+        return file;
+    }
+}
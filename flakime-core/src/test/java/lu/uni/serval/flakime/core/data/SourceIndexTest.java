@@ -0,0 +1,75 @@
+package lu.uni.serval.flakime.core.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import lu.uni.serval.flakime.core.helpers.TestLogger;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SourceIndexTest {
+    private static final TestLogger logger = new TestLogger();
+
+    @TempDir
+    File directory;
+
+    private File main;
+    private File generated;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        main = new File(directory, "src/test/java");
+        generated = new File(directory, "target/generated-test-sources");
+
+        write(new File(main, "org/example/FooTest.java"));
+        write(new File(main, "org/example/BarTest.java"));
+        write(new File(generated, "org/example/BarTest.java"));
+        write(new File(generated, "org/example/gen/GeneratedTest.java"));
+    }
+
+    @Test
+    void classesAreResolvedAcrossRoots() {
+        final SourceIndex index = new SourceIndex(logger, Arrays.asList(main, generated, new File(directory, "missing")));
+
+        assertEquals(3, index.size());
+        assertEquals(new File(main, "org/example/FooTest.java"), index.find("org.example.FooTest").orElse(null));
+        assertEquals(new File(main, "org/example/BarTest.java"), index.find("org.example.BarTest").orElse(null));
+        assertEquals(new File(generated, "org/example/gen/GeneratedTest.java"), index.find("org.example.gen.GeneratedTest").orElse(null));
+        assertFalse(index.find("org.example.BazTest").isPresent());
+    }
+
+    @Test
+    void nestedClassesAreResolvedToTheirOuterFile() {
+        final SourceIndex index = new SourceIndex(logger, Arrays.asList(main, generated));
+
+        assertEquals(new File(main, "org/example/FooTest.java"), index.find("org.example.FooTest$Nested").orElse(null));
+        assertEquals(new File(main, "org/example/FooTest.java"), index.find("org.example.FooTest$Nested$Deeper").orElse(null));
+    }
+
+    @Test
+    void everyPackageOfASingleRootIsIndexed() throws IOException {
+        final File root = new File(directory, "single");
+        for (int i = 0; i < 20; ++i) {
+            for (int j = 0; j < 5; ++j) {
+                write(new File(root, String.format("org/example/p%d/q%d/Test%d.java", i, j, j)));
+            }
+        }
+        write(new File(root, "org/example/p0/notes.txt"));
+
+        final SourceIndex index = new SourceIndex(logger, Collections.singletonList(root));
+
+        assertEquals(100, index.size());
+        assertEquals(new File(root, "org/example/p19/q4/Test4.java"), index.find("org.example.p19.q4.Test4").orElse(null));
+        assertFalse(index.find("org.example.p0.notes").isPresent());
+    }
+
+    private static void write(File file) throws IOException {
+        FileUtils.write(file, "class " + file.getName(), StandardCharsets.UTF_8);
+    }
+}
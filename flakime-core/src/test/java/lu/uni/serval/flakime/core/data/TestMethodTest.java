@@ -0,0 +1,204 @@
+package lu.uni.serval.flakime.core.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.Loader;
+import javassist.NotFoundException;
+import javassist.bytecode.LineNumberAttribute;
+import javassist.bytecode.analysis.ControlFlow;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import lu.uni.serval.flakime.core.helpers.TestLogger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TestMethodTest {
+    private static final int LARGE_STATEMENTS = 2400;
+
+    @TempDir
+    File directory;
+
+    @BeforeEach
+    void compile() throws IOException {
+        final StringBuilder large = new StringBuilder();
+        large.append("package fixture;\n")
+                .append("public class Large {\n")
+                .append("    public static int large(boolean flag) {\n")
+                .append("        int x = 0;\n")
+                .append("        if (flag) {\n");
+        for (int i = 0; i < LARGE_STATEMENTS; ++i) {
+            large.append("            x = x * 31 + ").append(i % 100).append(";\n");
+        }
+        large.append("        }\n")
+                .append("        return x;\n")
+                .append("    }\n")
+                .append("}\n");
+
+        compile("Small.java", "package fixture;\n" +
+                "public class Small {\n" +
+                "    public static int small(int n) {\n" +
+                "        int sum = 0;\n" +
+                "        for (int i = 0; i < n; ++i) {\n" +
+                "            if (i % 2 == 0) {\n" +
+                "                sum += i;\n" +
+                "            } else {\n" +
+                "                sum -= 1;\n" +
+                "            }\n" +
+                "        }\n" +
+                "        switch (sum) {\n" +
+                "            case 0: return -1;\n" +
+                "            case 1: return -2;\n" +
+                "            default: return sum;\n" +
+                "        }\n" +
+                "    }\n" +
+                "}\n");
+        compile("Large.java", large.toString());
+    }
+
+    @Test
+    void batchInsertionEqualsSingleInsertions() throws Exception {
+        assertBatchEqualsSingle("fixture.Small", "small");
+    }
+
+    @Test
+    void batchInsertionEqualsSingleInsertionsWhenJumpsAreWidened() throws Exception {
+        final CtClass batch = assertBatchEqualsSingle("fixture.Large", "large");
+
+        assertTrue(batch.getDeclaredMethod("large").getMethodInfo2().getCodeAttribute().getCodeLength() > Short.MAX_VALUE);
+
+        final Class<?> loaded = new Loader(getClass().getClassLoader(), batch.getClassPool()).loadClass("fixture.Large");
+        final Method large = loaded.getMethod("large", boolean.class);
+        assertEquals(largeResult(), large.invoke(null, true));
+        assertEquals(0, large.invoke(null, false));
+    }
+
+    @Test
+    void repeatedCallsReturnTheSameLinesInNewArrays() throws Exception {
+        final CtClass ctClass = load("fixture.Small");
+        final TestMethod testMethod = new TestMethod(new TestLogger(), ctClass.getDeclaredMethod("small"), null, ctClass);
+
+        final int[] statementLines = testMethod.getStatementLines();
+        final int[] startLines = testMethod.getBlockStartLines();
+        final int[] endLines = testMethod.getBlockEndLines();
+        assertTrue(statementLines.length > 0);
+
+        assertNotSame(statementLines, testMethod.getStatementLines());
+        assertNotSame(startLines, testMethod.getBlockStartLines());
+        assertNotSame(endLines, testMethod.getBlockEndLines());
+
+        final int[] expected = statementLines.clone();
+        statementLines[0] = -42;
+        startLines[0] = -42;
+        assertArrayEquals(expected, testMethod.getStatementLines());
+        assertNotEquals(-42, testMethod.getBlockStartLines()[0]);
+        assertArrayEquals(endLines, testMethod.getBlockEndLines());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void deprecatedAccessorsDescribeTheSameLines() throws Exception {
+        final CtClass ctClass = load("fixture.Small");
+        final TestMethod testMethod = new TestMethod(new TestLogger(), ctClass.getDeclaredMethod("small"), null, ctClass);
+
+        // Models compiled against the previous versions call these descriptors
+        assertEquals(Set.class, TestMethod.class.getMethod("getStatementLineNumbers").getReturnType());
+        assertEquals(ControlFlow.Block[].class, TestMethod.class.getMethod("getBlocks").getReturnType());
+
+        final Set<Integer> lineNumbers = testMethod.getStatementLineNumbers();
+        assertArrayEquals(testMethod.getStatementLines(), lineNumbers.stream().mapToInt(Integer::intValue).toArray());
+        lineNumbers.clear();
+        assertTrue(testMethod.getStatementLines().length > 0);
+
+        final ControlFlow.Block[] blocks = testMethod.getBlocks();
+        final int[] startLines = testMethod.getBlockStartLines();
+        assertEquals(startLines.length, blocks.length);
+        for (int i = 0; i < blocks.length; ++i) {
+            assertEquals(startLines[i], testMethod.getCtMethod().getMethodInfo2().getLineNumber(blocks[i].position()));
+        }
+    }
+
+    @Test
+    void linesAreComputedFromTheOriginalBytecode() throws Exception {
+        final CtClass original = load("fixture.Small");
+        final TestMethod reference = new TestMethod(new TestLogger(), original.getDeclaredMethod("small"), null, original);
+
+        final CtClass ctClass = load("fixture.Small");
+        final TestMethod testMethod = new TestMethod(new TestLogger(), ctClass.getDeclaredMethod("small"), null, ctClass);
+        // Adds basic blocks to the method
+        testMethod.insertBefore("if ($1 > 100) { $1 = 100; } else { $1 = $1 + 0; }");
+
+        assertArrayEquals(reference.getBlockStartLines(), testMethod.getBlockStartLines());
+        assertArrayEquals(reference.getBlockEndLines(), testMethod.getBlockEndLines());
+        assertArrayEquals(reference.getStatementLines(), testMethod.getStatementLines());
+
+        // Whereas the modified bytecode has more blocks
+        final TestMethod modified = new TestMethod(new TestLogger(), ctClass.getDeclaredMethod("small"), null, ctClass);
+        assertTrue(modified.getBlockStartLines().length > reference.getBlockStartLines().length);
+    }
+
+    /**
+     * Insert a payload at every line of a method, at once in one copy of the class and line after line in
+     * another copy.
+     *
+     * @return The class instrumented in a single pass
+     */
+    private CtClass assertBatchEqualsSingle(String className, String methodName) throws Exception {
+        final CtClass batch = load(className);
+        final CtClass single = load(className);
+
+        final TestMethod testMethod = new TestMethod(new TestLogger(), batch.getDeclaredMethod(methodName), null, batch);
+        final LineNumberAttribute lines = (LineNumberAttribute) batch.getDeclaredMethod(methodName).getMethodInfo2()
+                .getCodeAttribute().getAttribute(LineNumberAttribute.tag);
+        final Map<Integer, String> payloads = new TreeMap<>();
+        for (int i = 0; i < lines.tableLength(); ++i) {
+            payloads.put(lines.lineNumber(i), String.format("Math.abs(%d);", lines.lineNumber(i)));
+        }
+
+        assertEquals(payloads.size(), testMethod.insertAt(payloads));
+
+        final CtMethod singleMethod = single.getDeclaredMethod(methodName);
+        for (Map.Entry<Integer, String> payload : payloads.entrySet()) {
+            singleMethod.insertAt(payload.getKey(), payload.getValue());
+        }
+
+        assertArrayEquals(single.toBytecode(), batch.toBytecode());
+        return batch;
+    }
+
+    private CtClass load(String className) throws NotFoundException {
+        final ClassPool classPool = new ClassPool(true);
+        classPool.appendClassPath(directory.getAbsolutePath());
+
+        return classPool.get(className);
+    }
+
+    private static int largeResult() {
+        int x = 0;
+        for (int i = 0; i < LARGE_STATEMENTS; ++i) {
+            x = x * 31 + i % 100;
+        }
+        return x;
+    }
+
+    private void compile(String fileName, String source) throws IOException {
+        final File file = new File(directory, fileName);
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull(compiler, "The test needs a JDK to compile its fixtures");
+        assertEquals(0, compiler.run(null, null, null, "-g", "-nowarn", "-Xlint:-options", "-source", "8", "-target", "8",
+                "-d", directory.getAbsolutePath(), file.getAbsolutePath()));
+    }
+}
@@ -0,0 +1,89 @@
+package lu.uni.serval.flakime.core.instrumentation;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import lu.uni.serval.flakime.core.helpers.TestLogger;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IncrementalManifestTest {
+    private static final TestLogger logger = new TestLogger();
+    private static final String CLASS_NAME = "org.example.FooTest";
+
+    @TempDir
+    File directory;
+
+    private File cacheDirectory;
+    private File classFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cacheDirectory = new File(directory, "cache");
+        classFile = new File(directory, "classes/org/example/FooTest.class");
+        write(classFile, "original");
+    }
+
+    @Test
+    void unchangedClassIsReused() throws IOException {
+        runInstrumentation("config");
+
+        final IncrementalManifest manifest = IncrementalManifest.load(logger, cacheDirectory, "config");
+        assertFalse(manifest.requiresInstrumentation(CLASS_NAME, classFile));
+        assertEquals(1, manifest.getNumberReusedClasses());
+        assertEquals(0.5, manifest.getReusedTestProbabilities().get("org.example.FooTest.test()"));
+        assertEquals("instrumented", read(classFile));
+    }
+
+    @Test
+    void recompiledClassGetsInstrumentedVersionBack() throws IOException {
+        runInstrumentation("config");
+        write(classFile, "original");
+
+        final IncrementalManifest manifest = IncrementalManifest.load(logger, cacheDirectory, "config");
+        assertFalse(manifest.requiresInstrumentation(CLASS_NAME, classFile));
+        assertEquals("instrumented", read(classFile));
+    }
+
+    @Test
+    void changedClassIsInstrumented() throws IOException {
+        runInstrumentation("config");
+        write(classFile, "changed");
+
+        final IncrementalManifest manifest = IncrementalManifest.load(logger, cacheDirectory, "config");
+        assertTrue(manifest.requiresInstrumentation(CLASS_NAME, classFile));
+        assertEquals("changed", read(classFile));
+        assertEquals(0, manifest.getNumberReusedClasses());
+    }
+
+    @Test
+    void configurationChangeRestoresOriginal() throws IOException {
+        runInstrumentation("config");
+
+        final IncrementalManifest manifest = IncrementalManifest.load(logger, cacheDirectory, "other");
+        assertTrue(manifest.requiresInstrumentation(CLASS_NAME, classFile));
+        assertEquals("original", read(classFile));
+    }
+
+    private void runInstrumentation(String configuration) throws IOException {
+        final IncrementalManifest manifest = IncrementalManifest.load(logger, cacheDirectory, configuration);
+        assertTrue(manifest.requiresInstrumentation(CLASS_NAME, classFile));
+
+        write(classFile, "instrumented");
+        manifest.record(CLASS_NAME, classFile, Collections.singletonMap("org.example.FooTest.test()", 0.5));
+        manifest.save();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+    }
+
+    private static String read(File file) throws IOException {
+        return FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+    }
+}
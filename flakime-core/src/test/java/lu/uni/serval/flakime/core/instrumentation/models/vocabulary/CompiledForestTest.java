@@ -0,0 +1,90 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+class CompiledForestTest {
+    private static final int VOCABULARY_SIZE = 50;
+
+    @Test
+    void probabilitiesMatchTheForest() throws Exception {
+        final Random random = new Random(42);
+        final Instances instances = emptyInstances();
+
+        for (int i = 0; i < 200; ++i) {
+            final int label = random.nextInt(2);
+            final int[] sequence = randomSequence(random, label);
+            instances.add(instance(instances, TokenCounts.of(sequence), label));
+        }
+
+        final RandomForest forest = new RandomForest();
+        forest.setNumIterations(20);
+        forest.setSeed(0);
+        forest.buildClassifier(instances);
+
+        final CompiledForest compiled = CompiledForest.compile(forest, new Instances(instances, 0));
+        assertEquals(20, compiled.getNumberTrees());
+
+        for (int i = 0; i < 500; ++i) {
+            final TokenCounts counts = TokenCounts.of(randomSequence(random, random.nextInt(2)));
+            final double[] expected = forest.distributionForInstance(instance(instances, counts, 0));
+
+            assertEquals(expected[1], compiled.probability(counts, 1));
+            assertEquals(expected[0], compiled.probability(counts, 0));
+        }
+
+        assertEquals(forest.distributionForInstance(instance(instances, TokenCounts.EMPTY, 0))[1], compiled.probability(TokenCounts.EMPTY, 1));
+    }
+
+    private static int[] randomSequence(Random random, int label) {
+        final int[] sequence = new int[1 + random.nextInt(30)];
+
+        for (int i = 0; i < sequence.length; ++i) {
+            // Flaky bodies use the upper half of the vocabulary more often
+            sequence[i] = label == 1 && random.nextBoolean()
+                    ? VOCABULARY_SIZE / 2 + random.nextInt(VOCABULARY_SIZE / 2)
+                    : 1 + random.nextInt(VOCABULARY_SIZE - 1);
+        }
+
+        return sequence;
+    }
+
+    private static Instances emptyInstances() {
+        final ArrayList<Attribute> attributes = new ArrayList<>();
+        attributes.add(new Attribute("flakime_label", Arrays.asList("0", "1")));
+
+        for (int i = 0; i < VOCABULARY_SIZE; ++i) {
+            attributes.add(new Attribute("token" + i));
+        }
+
+        final Instances instances = new Instances("trainData", attributes, 0);
+        instances.setClassIndex(0);
+
+        return instances;
+    }
+
+    private static SparseInstance instance(Instances dataset, TokenCounts counts, int label) {
+        final double[] values = new double[counts.size() + 1];
+        final int[] indices = new int[counts.size() + 1];
+        values[0] = label;
+
+        for (int i = 0; i < counts.size(); ++i) {
+            values[i + 1] = counts.getCount(i);
+            indices[i + 1] = counts.getIndex(i) + 1;
+        }
+
+        final SparseInstance instance = new SparseInstance(1.0, values, indices, VOCABULARY_SIZE + 1);
+        instance.setDataset(dataset);
+
+        return instance;
+    }
+}
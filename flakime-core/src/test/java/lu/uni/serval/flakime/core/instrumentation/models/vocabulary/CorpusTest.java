@@ -0,0 +1,76 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import lu.uni.serval.flakime.core.helpers.TestLogger;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CorpusTest {
+    private static final TestLogger logger = new TestLogger();
+
+    private static final String JSON = "[" +
+            "{\"Body\": \"Thread.sleep(10); assertTrue(done);\", \"ClassName\": \"A\", \"MethodName\": \"a\", \"ProjectName\": \"p1\", \"Label\": 1, \"Extra\": {\"x\": [1, 2]}}," +
+            "{\"Body\": \"assertEquals(2, sum(1, 1));\", \"ClassName\": \"B\", \"MethodName\": \"b\", \"ProjectName\": \"p2\", \"Label\": 0}," +
+            "{\"Body\": \"\", \"ClassName\": \"C\", \"MethodName\": \"c\", \"ProjectName\": \"p1\", \"Label\": 0}" +
+            "]";
+
+    @TempDir
+    File directory;
+
+    @Test
+    void corpusIsTokenizedFromTheStreamedEntries() throws IOException {
+        final Corpus corpus = Corpus.of(data());
+
+        assertEquals(3, corpus.size());
+        assertEquals(1, corpus.getLabel(0));
+        assertEquals("p2", corpus.getProject(1));
+        assertEquals("p1", corpus.getProject(2));
+        assertEquals(Arrays.asList("thread", "sleep", "10", "asserttrue", "done", "assertequals", "2", "sum", "1"), Arrays.asList(corpus.getWords()));
+        assertArrayEquals(new int[]{1, 1, 1, 1, 1, 1, 1, 1, 2}, corpus.getOccurrences());
+        assertArrayEquals(new int[]{5, 6, 7, 8, 8}, corpus.getTokens(1));
+        assertArrayEquals(new int[0], corpus.getTokens(2));
+    }
+
+    @Test
+    void cacheIsMappedOnTheNextLoad() throws IOException {
+        final File source = new File(directory, "vocabulary.json");
+        final File cache = new File(directory, "cache/corpus.bin");
+        FileUtils.write(source, JSON, StandardCharsets.UTF_8);
+
+        final Corpus parsed = Corpus.load(logger, source.toURI().toURL(), cache);
+        assertTrue(cache.exists());
+
+        final long modified = cache.lastModified();
+        final Corpus mapped = Corpus.load(logger, source.toURI().toURL(), cache);
+        assertEquals(modified, cache.lastModified());
+
+        assertArrayEquals(parsed.getWords(), mapped.getWords());
+        assertArrayEquals(parsed.getOccurrences(), mapped.getOccurrences());
+        assertEquals(parsed.size(), mapped.size());
+        for (int i = 0; i < parsed.size(); ++i) {
+            assertEquals(parsed.getLabel(i), mapped.getLabel(i));
+            assertEquals(parsed.getProject(i), mapped.getProject(i));
+            assertArrayEquals(parsed.getTokens(i), mapped.getTokens(i));
+        }
+
+        FileUtils.write(source, JSON.replace("\"Label\": 1", "\"Label\": 0"), StandardCharsets.UTF_8);
+        assertEquals(0, Corpus.load(logger, source.toURI().toURL(), cache).getLabel(0));
+    }
+
+    private Data data() throws IOException {
+        final File source = new File(directory, "data.json");
+        FileUtils.write(source, JSON, StandardCharsets.UTF_8);
+
+        try (InputStream in = new FileInputStream(source)) {
+            return new Data(in);
+        }
+    }
+}
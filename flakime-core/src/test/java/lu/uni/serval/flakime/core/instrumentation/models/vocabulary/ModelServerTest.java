@@ -0,0 +1,317 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import lu.uni.serval.flakime.core.helpers.TestLogger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ModelServerTest {
+    private static final TestLogger logger = new TestLogger();
+
+    @TempDir
+    File directory;
+
+    @Test
+    void testsAreScoredAsInProcess() throws Exception {
+        final String path = trainModel(false);
+        final Model local = WekaModel.load(logger, path);
+
+        final List<Map<Integer, String>> blocks = new ArrayList<>();
+        final List<int[]> statements = new ArrayList<>();
+        blocks.add(blocks(10, "Thread.sleep(100);", 11, "server.start(); assertTrue(done);"));
+        statements.add(new int[]{10, 11});
+        blocks.add(blocks(20, "int sum = sum(1, 1);", 21, "assertEquals(2, sum);"));
+        statements.add(new int[]{20, 21});
+
+        try (ModelServer server = ModelServer.start(logger, 0, new File(directory, "daemon.token"));
+             ModelClient client = ModelClient.connect(logger, server.getPort(), server.getTokenFile())) {
+            assertNotNull(client);
+            assertEquals(local.getFingerprint(), client.fingerprint(path));
+
+            final VocabularyModel.Score[] scores = client.score(path, blocks, statements);
+            assertEquals(2, scores.length);
+
+            for (int i = 0; i < scores.length; ++i) {
+                final VocabularyModel.Score expected = VocabularyModel.computeScore(local, blocks.get(i), statements.get(i));
+                assertEquals(expected.getProbability(), scores[i].getProbability());
+                assertArrayEquals(expected.getProbabilities(statements.get(i)), scores[i].getProbabilities(statements.get(i)));
+            }
+
+            // The connection is kept open between requests
+            assertEquals(local.getFingerprint(), client.fingerprint(path));
+        }
+    }
+
+    @Test
+    void tokenFileIsOwnerOnlyAndDeletedOnClose() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+
+        final File tokenFile = new File(directory, "daemon.token");
+        try (ModelServer server = ModelServer.start(logger, 0, tokenFile)) {
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile.toPath())));
+            assertEquals(ModelProtocol.TOKEN_LENGTH, tokenFile.length());
+        }
+
+        assertFalse(tokenFile.exists());
+    }
+
+    @Test
+    void clientsWithoutTheTokenAreRejected() throws Exception {
+        try (ModelServer server = ModelServer.start(logger, 0, new File(directory, "daemon.token"));
+             ModelServer other = ModelServer.start(logger, 0, new File(directory, "other.token"))) {
+            assertNull(ModelClient.connect(logger, server.getPort(), other.getTokenFile()));
+            assertNull(ModelClient.connect(logger, server.getPort(), new File(directory, "missing.token")));
+
+            final ModelClient client = ModelClient.connect(logger, server.getPort(), server.getTokenFile());
+            assertNotNull(client);
+            client.close();
+        }
+    }
+
+    @Test
+    void tokenReadableByOthersIsIgnored() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+
+        try (ModelServer server = ModelServer.start(logger, 0, new File(directory, "daemon.token"))) {
+            Files.setPosixFilePermissions(server.getTokenFile().toPath(), PosixFilePermissions.fromString("rw-r--r--"));
+            assertNull(ModelClient.connect(logger, server.getPort(), server.getTokenFile()));
+        }
+    }
+
+    @Test
+    void clientDoesNotTrustAnotherProcessOnThePort() throws Exception {
+        final File tokenFile = new File(directory, "daemon.token");
+        ModelProtocol.createToken(tokenFile);
+        final AtomicInteger extraBytes = new AtomicInteger(-1);
+
+        try (ServerSocket impostor = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final Thread thread = new Thread(() -> {
+                try (Socket socket = impostor.accept();
+                     DataInputStream in = new DataInputStream(socket.getInputStream());
+                     DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+                    in.readFully(new byte[2 * Integer.BYTES + ModelProtocol.NONCE_LENGTH]);
+                    out.writeInt(ModelProtocol.OK);
+                    out.write(new byte[ModelProtocol.NONCE_LENGTH + 32]);
+                    out.flush();
+
+                    // Nothing else must be sent once the proof of the impostor is rejected
+                    int extra = 0;
+                    while (in.read() >= 0) {
+                        ++extra;
+                    }
+                    extraBytes.set(extra);
+                } catch (IOException e) {
+                    extraBytes.set(-2);
+                }
+            });
+            thread.start();
+
+            assertNull(ModelClient.connect(logger, impostor.getLocalPort(), tokenFile));
+            thread.join(5000);
+        }
+
+        assertEquals(0, extraBytes.get());
+    }
+
+    @Test
+    void serializedModelsAreRefused() throws Exception {
+        final String path = trainModel(true);
+
+        try (ModelServer server = ModelServer.start(logger, 0, new File(directory, "daemon.token"));
+             ModelClient client = ModelClient.connect(logger, server.getPort(), server.getTokenFile())) {
+            assertNotNull(client);
+
+            final IOException e = assertThrows(IOException.class, () -> client.fingerprint(path));
+            assertTrue(e.getMessage().contains("not in the binary format"), e.getMessage());
+        }
+    }
+
+    @Test
+    void oversizedLengthsCloseTheConnection() throws Exception {
+        final String path = trainModel(false);
+
+        try (ModelServer server = ModelServer.start(logger, 0, new File(directory, "daemon.token"))) {
+            final byte[] token = ModelProtocol.readToken(server.getTokenFile());
+
+            for (int[] request : new int[][]{
+                    {ModelProtocol.FINGERPRINT, Integer.MAX_VALUE},
+                    {ModelProtocol.FINGERPRINT, -1},
+                    {ModelProtocol.SCORE, 0, Integer.MAX_VALUE},
+                    {ModelProtocol.SCORE, 0, 1, ModelProtocol.MAX_COUNT + 1},
+                    {ModelProtocol.SCORE, 0, 1, 0, -5}
+            }) {
+                try (Socket socket = authenticatedSocket(server.getPort(), token)) {
+                    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    out.writeInt(request[0]);
+                    // A zero in second place stands for the path of the model
+                    for (int i = 1; i < request.length; ++i) {
+                        if (request[i] == 0 && i == 1) {
+                            ModelProtocol.writeString(out, path);
+                        } else {
+                            out.writeInt(request[i]);
+                        }
+                    }
+                    out.flush();
+
+                    assertEquals(-1, socket.getInputStream().read(), Arrays.toString(request));
+                }
+            }
+
+            try (ModelClient client = ModelClient.connect(logger, server.getPort(), server.getTokenFile())) {
+                assertNotNull(client);
+                assertNotNull(client.fingerprint(path));
+            }
+        }
+    }
+
+    @Test
+    void requestsLargerThanTheBudgetCloseTheConnection() throws Exception {
+        final String path = trainModel(false);
+
+        try (ModelServer server = ModelServer.start(logger, 0, new File(directory, "daemon.token"));
+             Socket socket = authenticatedSocket(server.getPort(), ModelProtocol.readToken(server.getTokenFile()))) {
+            // Every count is under the limit, but the statements of the methods add up to more than the budget
+            final int methods = (int) (ModelProtocol.MAX_REQUEST_LENGTH / (ModelProtocol.MAX_COUNT * Integer.BYTES)) + 1;
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            try {
+                out.writeInt(ModelProtocol.SCORE);
+                ModelProtocol.writeString(out, path);
+                out.writeInt(methods);
+                for (int i = 0; i < methods; ++i) {
+                    out.writeInt(0);
+                    out.writeInt(ModelProtocol.MAX_COUNT);
+                    out.write(new byte[ModelProtocol.MAX_COUNT * Integer.BYTES]);
+                }
+                out.flush();
+            } catch (IOException e) {
+                // The server may close the connection before the whole request is sent
+            }
+
+            assertClosed(socket);
+        }
+    }
+
+    @Test
+    void silentConnectionsAreClosedAndLimited() throws Exception {
+        try (ModelServer server = ModelServer.start(logger, 0, new File(directory, "daemon.token"))) {
+            final List<Socket> silent = new ArrayList<>();
+
+            try {
+                for (int i = 0; i < ModelServer.MAX_CONNECTIONS; ++i) {
+                    final Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                    socket.setSoTimeout(5000);
+                    silent.add(socket);
+                }
+
+                // Give the server the time to take every connection before checking that no slot is left
+                Thread.sleep(200);
+                assertNull(ModelClient.connect(logger, server.getPort(), server.getTokenFile()));
+
+                final long start = System.nanoTime();
+                for (Socket socket : silent) {
+                    assertClosed(socket);
+                }
+                assertTrue(System.nanoTime() - start < 4_000_000_000L);
+            } finally {
+                for (Socket socket : silent) {
+                    socket.close();
+                }
+            }
+
+            // Closed connections give their slot back
+            Thread.sleep(200);
+            try (ModelClient client = ModelClient.connect(logger, server.getPort(), server.getTokenFile())) {
+                assertNotNull(client);
+            }
+        }
+    }
+
+    /**
+     * Check that the server closed a connection, which is seen as a reset when the server did not read everything.
+     */
+    private static void assertClosed(Socket socket) {
+        try {
+            assertEquals(-1, socket.getInputStream().read());
+        } catch (IOException e) {
+            assertFalse(e instanceof java.net.SocketTimeoutException, e.getMessage());
+        }
+    }
+
+    /**
+     * @return A socket on which the handshake was made, ready for a request
+     */
+    private static Socket authenticatedSocket(int port, byte[] token) throws IOException {
+        final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setSoTimeout(5000);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        final byte[] clientNonce = ModelProtocol.nonce();
+
+        out.writeInt(ModelProtocol.MAGIC);
+        out.writeInt(ModelProtocol.VERSION);
+        out.write(clientNonce);
+        assertEquals(ModelProtocol.OK, in.readInt());
+
+        final byte[] serverNonce = ModelProtocol.readBytes(in, ModelProtocol.NONCE_LENGTH);
+        ModelProtocol.readBytes(in, 32);
+        out.write(ModelProtocol.proof(token, ModelProtocol.CLIENT, clientNonce, serverNonce));
+        assertEquals(ModelProtocol.OK, in.readInt());
+
+        return socket;
+    }
+
+    private String trainModel(boolean serialized) throws Exception {
+        final List<Data.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            final Data.Entry entry = new Data.Entry();
+            entry.setLabel(i % 2);
+            entry.setBody(i % 2 == 1
+                    ? String.format("Thread.sleep(%d); server.start(); assertTrue(done);", i)
+                    : String.format("int sum = sum(%d, 1); assertEquals(%d, sum);", i, i + 1));
+            entries.add(entry);
+        }
+
+        final WekaModel model = new WekaModel(logger, 5, 1);
+        model.setData(new Data(entries), Collections.emptySet());
+        model.train();
+
+        final String path = new File(directory, serialized ? "serialized_classifier" : "rfc_classifier").getAbsolutePath();
+        if (serialized) {
+            model.saveSerialized(path);
+        } else {
+            model.save(path);
+        }
+
+        return path;
+    }
+
+    private static Map<Integer, String> blocks(int firstLine, String first, int secondLine, String second) {
+        final Map<Integer, String> blocks = new HashMap<>();
+        blocks.put(firstLine, first);
+        blocks.put(secondLine, second);
+
+        return blocks;
+    }
+}
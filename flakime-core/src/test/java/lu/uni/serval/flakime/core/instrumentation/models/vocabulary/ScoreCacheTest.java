@@ -0,0 +1,88 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import lu.uni.serval.flakime.core.helpers.TestLogger;
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ScoreCacheTest {
+    private static final TestLogger logger = new TestLogger();
+
+    @TempDir
+    File directory;
+
+    @Test
+    void leastRecentlyUsedEntriesArePruned() throws IOException {
+        final File file = new File(directory, "score_cache");
+
+        final ScoreCache first = ScoreCache.load(logger, file, 2);
+        first.put("a", 0.1, new int[]{3, 4}, new double[]{0.05, 0.1});
+        first.put("b", 0.2, new int[0], new double[0]);
+        first.save();
+
+        final ScoreCache second = ScoreCache.load(logger, file, 2);
+        assertEquals(2, second.size());
+        final ScoreCache.Entry a = second.get("a").orElseThrow(AssertionError::new);
+        assertEquals(0.1, a.getProbability());
+        assertEquals(2, a.size());
+        assertEquals(4, a.getLine(1));
+        assertEquals(0.1, a.getProbability(1));
+        second.put("c", 0.3, new int[0], new double[0]);
+        second.save();
+
+        final ScoreCache third = ScoreCache.load(logger, file, 2);
+        assertEquals(2, third.size());
+        assertTrue(third.get("a").isPresent());
+        assertFalse(third.get("b").isPresent());
+        assertTrue(third.get("c").isPresent());
+    }
+
+    @Test
+    void corruptedCountsGiveAnEmptyCache() throws IOException {
+        final File file = new File(directory, "score_cache");
+        final ScoreCache cache = ScoreCache.load(logger, file, 10);
+        cache.put("a", 0.1, new int[]{3, 4}, new double[]{0.05, 0.1});
+        cache.save();
+        final byte[] saved = Files.readAllBytes(file.toPath());
+
+        // The number of entries follows the header, the number of statements of "a" follows its key, generation and
+        // probability
+        final int entriesOffset = 3 * Integer.BYTES;
+        final int statementsOffset = 4 * Integer.BYTES + 2 + 1 + Integer.BYTES + Double.BYTES;
+
+        for (int offset : new int[]{entriesOffset, statementsOffset}) {
+            for (int count : new int[]{-1, Integer.MAX_VALUE, 1 << 20}) {
+                final byte[] corrupted = saved.clone();
+                ByteBuffer.wrap(corrupted).putInt(offset, count);
+                Files.write(file.toPath(), corrupted);
+
+                assertEquals(0, ScoreCache.load(logger, file, 10).size(), String.format("count %d at %d", count, offset));
+            }
+        }
+
+        // Truncated files are ignored as well
+        Files.write(file.toPath(), Arrays.copyOf(saved, saved.length - 1));
+        assertEquals(0, ScoreCache.load(logger, file, 10).size());
+    }
+
+    @Test
+    void unreadableCacheIsIgnored() throws IOException {
+        final File file = new File(directory, "score_cache");
+        FileUtils.write(file, "not a cache", StandardCharsets.UTF_8);
+
+        assertEquals(0, ScoreCache.load(logger, file, 10).size());
+        assertNotEquals(
+                ScoreCache.key("model", Collections.singletonMap(3, "a();"), new int[]{3}),
+                ScoreCache.key("other", Collections.singletonMap(3, "a();"), new int[]{3})
+        );
+    }
+}
@@ -0,0 +1,34 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class TokenCountsTest {
+    @Test
+    void sequencesAreCounted() {
+        final TokenCounts counts = TokenCounts.of(new int[]{4, 1, 4, 7, 4});
+
+        assertEquals(3, counts.size());
+        assertEquals(1, counts.getIndex(0));
+        assertEquals(1, counts.getCount(0));
+        assertEquals(4, counts.getIndex(1));
+        assertEquals(3, counts.getCount(1));
+        assertEquals(7, counts.getIndex(2));
+        assertEquals(1, counts.getCount(2));
+        assertSame(TokenCounts.EMPTY, TokenCounts.of(new int[0]));
+    }
+
+    @Test
+    void countsAreMerged() {
+        final TokenCounts left = TokenCounts.of(new int[]{1, 3, 3, 8});
+        final TokenCounts right = TokenCounts.of(new int[]{2, 3, 9, 9});
+        final TokenCounts sum = left.plus(right);
+
+        assertEquals(5, sum.size());
+        assertArrayEquals(new int[]{1, 2, 3, 8, 9}, new int[]{sum.getIndex(0), sum.getIndex(1), sum.getIndex(2), sum.getIndex(3), sum.getIndex(4)});
+        assertArrayEquals(new int[]{1, 1, 3, 1, 2}, new int[]{sum.getCount(0), sum.getCount(1), sum.getCount(2), sum.getCount(3), sum.getCount(4)});
+        assertSame(left, left.plus(TokenCounts.EMPTY));
+        assertSame(right, TokenCounts.EMPTY.plus(right));
+    }
+}
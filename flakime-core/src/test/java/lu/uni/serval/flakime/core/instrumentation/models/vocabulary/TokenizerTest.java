@@ -0,0 +1,30 @@
+package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class TokenizerTest {
+    @Test
+    void textsAreSplitOnSpacesAndFilters() {
+        assertEquals(
+                Arrays.asList("assertequals", "foo", "bar", "1"),
+                Tokenizer.split("  assertEquals(foo.bar(),\t1);\n")
+        );
+    }
+
+    @Test
+    void wordsAreIndexedByIncreasingOccurrences() {
+        final Tokenizer tokenizer = Tokenizer.fit(new String[]{"b a c a", "c a d"});
+
+        assertEquals(Arrays.asList("b", "d", "c", "a"), tokenizer.getWords());
+
+        final TokenCounts counts = tokenizer.countTokens("a c c d unknown");
+        assertEquals(2, counts.size());
+        assertEquals(2, counts.getIndex(0));
+        assertEquals(1, counts.getCount(0));
+        assertEquals(3, counts.getIndex(1));
+        assertEquals(2, counts.getCount(1));
+    }
+}
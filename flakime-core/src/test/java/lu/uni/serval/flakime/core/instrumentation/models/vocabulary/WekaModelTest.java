@@ -1,22 +1,102 @@
 package lu.uni.serval.flakime.core.instrumentation.models.vocabulary;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 import lu.uni.serval.flakime.core.helpers.TestLogger;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import weka.core.SerializationHelper;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 
 class WekaModelTest {
     private static final TestLogger logger = new TestLogger();
 
+    @TempDir
+    File directory;
+
+    @Test
+    void vocabularyIsSavedWithTheForest() throws Exception {
+        final WekaModel model = new WekaModel(logger, 5, 1);
+        model.setData(syntheticData(), Collections.singleton("extra tokens from the project"));
+        model.train();
+
+        final String path = new File(directory, "rfc_classifier").getAbsolutePath();
+        model.save(path);
+
+        final Model loaded = WekaModel.load(logger, path);
+        assertTrue(loaded.hasVocabulary());
+
+        for (String body : new String[]{"Thread.sleep(100); assertTrue(done);", "assertEquals(1, sum(1));", "unknown"}) {
+            assertEquals(model.computeProbability(body), loaded.computeProbability(body));
+            assertEquals(model.computeClass(body), loaded.computeClass(body));
+        }
+
+        assertThrows(IllegalStateException.class, loaded::train);
+    }
+
+    @Test
+    void serializedModelsAreStillLoaded() throws Exception {
+        final WekaModel model = new WekaModel(logger, 5, 1);
+        model.setData(syntheticData(), Collections.emptySet());
+        model.train();
+
+        final String path = new File(directory, "serialized_classifier").getAbsolutePath();
+        model.saveSerialized(path);
+
+        final Model loaded = WekaModel.load(logger, path);
+        assertTrue(loaded.hasVocabulary());
+        assertEquals(model.computeProbability("Thread.sleep(100);"), loaded.computeProbability("Thread.sleep(100);"));
+    }
+
+    @Test
+    void forestWithoutVocabularyNeedsData() throws Exception {
+        final WekaModel model = new WekaModel(logger, 5, 1);
+        model.setData(syntheticData(), Collections.emptySet());
+        model.train();
+
+        final String path = new File(directory, "legacy_classifier").getAbsolutePath();
+        final Model forest = WekaModel.load(logger, saveForestOnly(model, path));
+        assertFalse(forest.hasVocabulary());
+
+        forest.setData(syntheticData(), Collections.emptySet());
+        assertTrue(forest.hasVocabulary());
+        assertEquals(model.computeProbability("Thread.sleep(100);"), forest.computeProbability("Thread.sleep(100);"));
+    }
+
+    private static String saveForestOnly(WekaModel model, String path) throws Exception {
+        model.saveSerialized(path);
+        SerializationHelper.write(path, SerializationHelper.readAll(path)[0]);
+
+        return path;
+    }
+
+    private static Data syntheticData() {
+        final List<Data.Entry> entries = new ArrayList<>();
+
+        for (int i = 0; i < 20; ++i) {
+            final Data.Entry entry = new Data.Entry();
+            entry.setLabel(i % 2);
+            entry.setBody(i % 2 == 1
+                    ? String.format("Thread.sleep(%d); server.start(); assertTrue(done);", i)
+                    : String.format("int sum = sum(%d, 1); assertEquals(%d, sum);", i, i + 1));
+            entries.add(entry);
+        }
+
+        return new Data(entries);
+    }
+
     @Test
     void extractOverall() throws Exception {
         final String csvOutputFolder = System.getProperty("csvOutputFolder");
@@ -0,0 +1,145 @@
+package lu.uni.serval.flakime.core.report;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lu.uni.serval.flakime.runtime.BinaryFlakeLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FlakeLogReaderTest {
+    @TempDir
+    File directory;
+
+    @Test
+    void eventsAreReadBack() throws IOException {
+        final BinaryFlakeLog log = new BinaryFlakeLog(directory, "fork1");
+        log.report("org.example.FooTest.test()", 12, 0.25);
+        log.report("org.example.FooTest.other()", 20, 0.5);
+        log.report("org.example.FooTest.test()", 14, 0.75);
+        log.close();
+
+        final List<FlakeEvent> events;
+        try (Stream<FlakeEvent> stream = FlakeLogReader.read(new File(directory, "fork1.bin"))) {
+            events = stream.collect(Collectors.toList());
+        }
+
+        assertEquals(3, events.size());
+        assertEquals("org.example.FooTest.test()", events.get(0).getMethod());
+        assertEquals(12, events.get(0).getLine());
+        assertEquals(0.25f, events.get(0).getProbability());
+        assertEquals("org.example.FooTest.other()", events.get(1).getMethod());
+        assertEquals(14, events.get(2).getLine());
+        assertEquals(Thread.currentThread().getId(), events.get(2).getThreadId());
+        assertTrue(events.get(0).getNanoTime() <= events.get(2).getNanoTime());
+    }
+
+    @Test
+    void flakesAreCountedAcrossLogs() throws IOException {
+        for (String fork : new String[]{"fork1", "fork2"}) {
+            final BinaryFlakeLog log = new BinaryFlakeLog(directory, fork);
+            for (int i = 0; i < 5000; ++i) {
+                log.report("org.example.FooTest.test()", 12 + i % 2, 0.5);
+            }
+            log.close();
+        }
+
+        final Map<String, Map<Integer, Long>> counts = FlakeLogReader.countFlakes(directory);
+
+        assertEquals(1, counts.size());
+        assertEquals(5000L, counts.get("org.example.FooTest.test()").get(12));
+        assertEquals(5000L, counts.get("org.example.FooTest.test()").get(13));
+    }
+
+    @Test
+    void recordsNotWrittenAreSkipped() throws IOException {
+        final BinaryFlakeLog log = new BinaryFlakeLog(directory, "fork1");
+        for (int i = 0; i < 4; ++i) {
+            log.report("org.example.FooTest.test()", 10 + i, 0.5);
+        }
+        log.close();
+
+        // A record claimed by a writer which did not complete it
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, "fork1.bin"), "rw")) {
+            file.seek(BinaryFlakeLog.HEADER_SIZE + BinaryFlakeLog.RECORD_SIZE);
+            file.writeInt(0);
+        }
+
+        assertEquals(Arrays.asList(10, 12, 13), lines(new File(directory, "fork1.bin")));
+    }
+
+    @Test
+    void openLogIsReadToTheEnd() throws IOException {
+        final BinaryFlakeLog log = new BinaryFlakeLog(directory, "fork1");
+        for (int i = 0; i < 3; ++i) {
+            log.report("org.example.FooTest.test()", 10 + i, 0.5);
+        }
+
+        try {
+            assertEquals(Arrays.asList(10, 11, 12), lines(new File(directory, "fork1.bin")));
+        } finally {
+            log.close();
+        }
+
+        assertEquals(Arrays.asList(10, 11, 12), lines(new File(directory, "fork1.bin")));
+    }
+
+    @Test
+    void reportsWhileClosingAreSafe() throws Exception {
+        final BinaryFlakeLog log = new BinaryFlakeLog(directory, "fork1");
+        final int writers = 4;
+        final CountDownLatch started = new CountDownLatch(writers);
+        final AtomicInteger reported = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> threads = new ArrayList<>();
+        log.report("org.example.FooTest.test()", 1, 0.5);
+
+        for (int w = 0; w < writers; ++w) {
+            final Thread thread = new Thread(() -> {
+                started.countDown();
+                try {
+                    for (int i = 0; i < 20000; ++i) {
+                        log.report("org.example.FooTest.test()", 2, 0.5);
+                        reported.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        started.await();
+        log.close();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+        final List<Integer> lines = lines(new File(directory, "fork1.bin"));
+        assertEquals(1, lines.get(0));
+        assertTrue(lines.size() <= 1 + reported.get());
+        // Reports made after the log was closed are dropped
+        log.report("org.example.FooTest.test()", 3, 0.5);
+        assertEquals(lines, lines(new File(directory, "fork1.bin")));
+    }
+
+    private static List<Integer> lines(File log) throws IOException {
+        try (Stream<FlakeEvent> stream = FlakeLogReader.read(log)) {
+            return stream.map(FlakeEvent::getLine).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package lu.uni.serval.flakime.core.utils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BuildMetricsTest {
+    @TempDir
+    File directory;
+
+    @Test
+    void phasesAndCountersAreSummedOverThreads() throws Exception {
+        final BuildMetrics metrics = new BuildMetrics();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            final List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+                tasks.add(executor.submit(() -> {
+                    try (BuildMetrics.Phase ignored = metrics.start(BuildMetrics.COMPILE_PAYLOADS)) {
+                        metrics.add(BuildMetrics.POINTS, 3);
+                    }
+                }));
+            }
+
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        try (BuildMetrics.Phase ignored = metrics.start(BuildMetrics.WRITE_CLASSES)) {
+            metrics.setAttribute("backend", "JavassistBackend");
+        }
+
+        final File file = new File(directory, "flakime/flakime-metrics.json");
+        metrics.write(file);
+
+        final JsonNode root = new ObjectMapper().readTree(file);
+        assertEquals(1, root.get("version").asInt());
+        assertEquals("JavassistBackend", root.get("attributes").get("backend").asText());
+
+        final JsonNode phases = root.get("phases");
+        assertEquals(2, phases.size());
+        assertEquals(BuildMetrics.COMPILE_PAYLOADS, phases.get(0).get("name").asText());
+        assertEquals(8, phases.get(0).get("count").asLong());
+        assertTrue(phases.get(0).get("wallTimeNanos").asLong() >= 0);
+        assertEquals(BuildMetrics.WRITE_CLASSES, phases.get(1).get("name").asText());
+
+        final JsonNode counters = root.get("counters");
+        assertEquals(24, counters.get(BuildMetrics.POINTS).asLong());
+        assertEquals(0, counters.get(BuildMetrics.FAILED_INSERTIONS).asLong());
+        assertEquals(24, metrics.getCounter(BuildMetrics.POINTS));
+    }
+
+    @Test
+    void cancelledPhasesAreNotMeasured() throws Exception {
+        final BuildMetrics metrics = new BuildMetrics();
+
+        for (int i = 0; i < 3; ++i) {
+            try (BuildMetrics.Phase phase = metrics.start("loadClasses")) {
+                if (i != 1) {
+                    phase.cancel();
+                }
+            }
+        }
+
+        final File file = new File(directory, "flakime-metrics.json");
+        metrics.write(file);
+
+        final JsonNode phases = new ObjectMapper().readTree(file).get("phases");
+        assertEquals(1, phases.size());
+        assertEquals(1, phases.get(0).get("count").asLong());
+    }
+}
@@ -0,0 +1,60 @@
+package lu.uni.serval.flakime.core.flakime.maven;
+
+import lu.uni.serval.flakime.core.flakime.maven.utils.MavenLogger;
+import lu.uni.serval.flakime.core.instrumentation.models.vocabulary.ModelServer;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.IOException;
+
+/**
+ * Run a model daemon in the foreground until the build is interrupted.
+ * <p>
+ * Builds configured with the {@code daemonPort} model parameter send the tests to score to the daemon, which keeps
+ * the vocabulary models loaded between builds. The daemon only listens on the loopback interface and only serves the
+ * builds of the same user, which read its token from {@code ~/.flakime/daemon-<port>.token}.
+ */
+@Mojo(name = "flakime-daemon", requiresProject = false)
+public class FlakimeDaemonMojo extends AbstractMojo {
+
+    @Parameter(defaultValue = "7657", property = "flakime.daemonPort")
+    private int port;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        final ModelServer server;
+
+        try {
+            server = ModelServer.start(new MavenLogger(getLog()), port);
+        } catch (IOException e) {
+            throw new MojoExecutionException(String.format("Failed to start model daemon on port %d: %s", port, e.getMessage()), e);
+        }
+
+        // Ctrl+C ends the JVM without returning from awaitTermination, the token file is deleted by the hook
+        final Thread shutdownHook = new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                getLog().warn(String.format("Failed to stop model daemon: %s", e.getMessage()));
+            }
+        }, "flakime-daemon-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        getLog().info(String.format("Model daemon listening on port %d with token file %s, press Ctrl+C to stop it", server.getPort(), server.getTokenFile()));
+
+        try {
+            server.awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                server.close();
+            } catch (IOException e) {
+                getLog().warn(String.format("Failed to stop model daemon: %s", e.getMessage()));
+            }
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package lu.uni.serval.flakime.core.flakime.maven;
 
+import javassist.CannotCompileException;
 import javassist.NotFoundException;
 import lu.uni.serval.flakime.core.data.Project;
 import lu.uni.serval.flakime.core.data.TestClass;
 import lu.uni.serval.flakime.core.data.TestMethod;
 import lu.uni.serval.flakime.core.flakime.maven.utils.MavenLogger;
 import lu.uni.serval.flakime.core.instrumentation.FlakimeInstrumenter;
+import lu.uni.serval.flakime.core.instrumentation.IncrementalManifest;
+import lu.uni.serval.flakime.core.instrumentation.RuntimeInstaller;
+import lu.uni.serval.flakime.core.instrumentation.backend.BackendFactory;
+import lu.uni.serval.flakime.core.instrumentation.backend.InstrumentationBackend;
 import lu.uni.serval.flakime.core.instrumentation.models.Model;
 import lu.uni.serval.flakime.core.instrumentation.models.ModelFactory;
+import lu.uni.serval.flakime.core.utils.BuildMetrics;
+import lu.uni.serval.flakime.core.utils.Fingerprint;
 
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.plugin.AbstractMojo;
@@ -24,6 +31,14 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 @Mojo(name = "flakime-injector", defaultPhase = LifecyclePhase.TEST_COMPILE, requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME)
@@ -65,14 +80,32 @@ public class FlakimeMojo extends AbstractMojo {
     @Parameter(defaultValue = "FLAKIME_DISABLE", property = "flakime.disableFlag")
     private String disableFlagName;
 
+    @Parameter(defaultValue = "text", property = "flakime.reportFormat")
+    private String reportFormat;
+
     @Parameter(defaultValue = "false",property = "flakime.skip")
     private boolean skip;
 
+    @Parameter(defaultValue = "1", property = "flakime.instrumentationThreads")
+    private int instrumentationThreads;
+
+    @Parameter(defaultValue = "false", property = "flakime.incremental")
+    private boolean incremental;
+
+    @Parameter(defaultValue = "javassist", property = "flakime.backend")
+    private String backend;
+
+    @Parameter(defaultValue = "${plugin.version}", readonly = true)
+    private String pluginVersion;
+
+    private final BuildMetrics metrics = new BuildMetrics();
+
     /**
      * Plugin entry point.
      * This method initialize the selected model, apply the method and class filters and trigger the injection.
-     *
-     *
+     * <p>
+     * The timing, allocations and counts of each phase are written to {@code flakime-metrics.json} in the output
+     * directory, next to the test probabilities.
      *
      * @throws MojoExecutionException Thrown if any of the steps throws an exception
      *                                during its execution.
@@ -89,7 +122,24 @@ public class FlakimeMojo extends AbstractMojo {
 
                 initialiseModelProperties();
 
-                final Project project = initializeProject(mavenProject, mavenLogger);
+                final InstrumentationBackend backendImpl;
+                final IncrementalManifest manifest;
+
+                try (BuildMetrics.Phase ignored = metrics.start("initializeModel")) {
+                    modelImpl = ModelFactory.fromName(model, modelParameters, mavenLogger);
+                    backendImpl = BackendFactory.fromName(backend, mavenLogger, flakeRate, metrics);
+                    manifest = initializeManifest(modelImpl, mavenLogger);
+                }
+
+                metrics.setAttribute("model", modelImpl.getClass().getName());
+                metrics.setAttribute("backend", backendImpl.getClass().getSimpleName());
+                metrics.setAttribute("pluginVersion", pluginVersion);
+
+                final Project project;
+                try (BuildMetrics.Phase ignored = metrics.start("initializeProject")) {
+                    project = initializeProject(mavenProject, mavenLogger,
+                            manifest != null ? manifest::requiresInstrumentation : (className, classFile) -> true);
+                }
 
                 if(!disableReport){
                     logger.info("Report output directory: " + outputDirectory.getAbsolutePath());
@@ -97,37 +147,45 @@ public class FlakimeMojo extends AbstractMojo {
 
                 initializeFilters();
 
-                modelImpl = ModelFactory.fromName(model, modelParameters, mavenLogger);
                 logger.info("Test source directory : "+testSourceDirectory);
                 logger.info("Test bin directory : "+testClassDirectory);
                 logger.info("Annotation Filters :["+String.join(",", annotationFilters)+"]");
                 logger.info("Method Filters :["+String.join(",", methodFilters)+"]");
                 logger.info("Class Filters :["+String.join(",", classFilters)+"]");
                 logger.info(String.format("Model %s loaded", modelImpl.getClass().getName()));
+                logger.info(String.format("Instrumentation backend: %s", backendImpl.getClass().getSimpleName()));
                 logger.info(String.format("FlakeRate: %f", flakeRate));
 
-                int ntests = project.getTestClasses().stream().reduce(0, (sub, elem) -> sub + elem.getnTestMethods(), Integer::sum);
-                logger.info(String.format("Found %d classes with %d tests", project.getNumberClasses(),ntests));
+                logger.info(String.format("Found %d test classes", project.getNumberClasses()));
+                if (manifest != null) {
+                    logger.info(String.format("Reusing %d up-to-date classes", manifest.getNumberReusedClasses()));
+                    metrics.add("reusedClasses", manifest.getNumberReusedClasses());
+                }
                 logger.debug(String.format("Running preProcess of %s", modelImpl.getClass().getSimpleName()));
 
-                modelImpl.preProcess(project,flakeRate);
+                try (BuildMetrics.Phase ignored = metrics.start("preProcess")) {
+                    modelImpl.preProcess(project, flakeRate);
+                }
+
+                final Map<String, Double> testProbabilities;
+                try (BuildMetrics.Phase ignored = metrics.start("instrumentProject")) {
+                    testProbabilities = instrumentProject(project, modelImpl, backendImpl, manifest);
+                } finally {
+                    saveManifest(manifest);
+                }
 
-                final Map<String, Double> testProbabilities = new HashMap<>();
+                logger.info(String.format("Instrumented %d tests", testProbabilities.size()));
 
-                for (TestClass testClass : project) {
-                    logger.debug(String.format("Process class %s", testClass.getName()));
-                    for (TestMethod testMethod : testClass) {
-                        logger.debug(String.format("\tProcess method %s", testMethod.getName()));
-                        instrument(testMethod, modelImpl, outputDirectory, disableFlagName, flakeRate,disableReport);
-                        testProbabilities.put(
-                                testMethod.getLongName(),
-                                modelImpl.getTestFlakinessProbability(testMethod, 1.)
-                        );
-                    }
-                    testClass.write();
+                try (BuildMetrics.Phase ignored = metrics.start("installRuntime")) {
+                    RuntimeInstaller.install(mavenLogger, getDirectory(testClassDirectory), outputDirectory, disableFlagName, disableReport, reportFormat);
+                }
+
+                if (manifest != null) {
+                    testProbabilities.putAll(manifest.getReusedTestProbabilities());
                 }
 
                 saveTestProbabilities(testProbabilities);
+                saveMetrics();
 
             } catch (final Exception e) {
                 logger.error(e.getMessage(), e);
@@ -150,13 +208,155 @@ public class FlakimeMojo extends AbstractMojo {
         }
     }
 
-    private void instrument(TestMethod testMethod, Model modelImpl, File outputDirectory, String disableFlagName, double flakeRate, boolean disableReport){
-        try{
-            FlakimeInstrumenter.instrument(testMethod, modelImpl, outputDirectory, disableFlagName, flakeRate,disableReport);
-        }catch (Exception e){
-            getLog().warn(String.format("Failed to instrument method %s: %s", testMethod.getName(), e.getMessage()));
+    /**
+     * Instrument and write every test class of the project.
+     * <p>
+     * The classes are streamed from the project: each one is loaded, instrumented, written and detached before the
+     * next one is taken, so that at most one class per thread is held in memory.
+     * <p>
+     * Classes are independent from each other: each one lives in its own ClassPool and is written to its own file.
+     * When more than one instrumentation thread is configured, each worker of a fixed thread pool therefore takes the
+     * name of the next class of the project until there is none left. Only taking a name is serialized: the workers
+     * load and instrument their classes concurrently. The produced class files are identical to the ones of a
+     * single-threaded run.
+     * <p>
+     * The first failure of a worker cancels the run: the other workers finish the class they hold but take no new one,
+     * and the method only returns once every worker is done, so that no class is written or recorded in the manifest
+     * after the manifest is saved.
+     *
+     * @param project The project holding the test classes
+     * @param modelImpl The model used to compute the flakiness probabilities
+     * @param backendImpl The backend injecting the flake points and writing the classes
+     * @param manifest The manifest recording the written classes, {@code null} if not running incrementally
+     * @return The overall flakiness probability of each instrumented test method
+     * @throws Exception Thrown if a class could not be written
+     */
+    private Map<String, Double> instrumentProject(Project project, Model modelImpl, InstrumentationBackend backendImpl, IncrementalManifest manifest) throws Exception {
+        final Map<String, Double> testProbabilities = new ConcurrentHashMap<>();
+        final int nThreads = instrumentationThreads > 0 ? instrumentationThreads : Runtime.getRuntime().availableProcessors();
+        final Iterator<String> classNames = project.getTestClassNames().iterator();
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        metrics.setAttribute("instrumentationThreads", String.valueOf(nThreads));
+
+        if (nThreads == 1) {
+            for (TestClass testClass = next(project, classNames, cancelled); testClass != null; testClass = next(project, classNames, cancelled)) {
+                processClass(testClass, modelImpl, backendImpl, testProbabilities, manifest);
+            }
+
+            return testProbabilities;
+        }
+
+        getLog().info(String.format("Instrumenting classes on %d threads", nThreads));
+        final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+
+        try {
+            final List<Future<Void>> tasks = new ArrayList<>();
+
+            for (int i = 0; i < nThreads; ++i) {
+                tasks.add(executor.submit(() -> {
+                    try {
+                        for (TestClass testClass = next(project, classNames, cancelled); testClass != null; testClass = next(project, classNames, cancelled)) {
+                            processClass(testClass, modelImpl, backendImpl, testProbabilities, manifest);
+                        }
+                    } catch (Throwable e) {
+                        cancelled.set(true);
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<Void> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            throw new MojoExecutionException(String.format("Failed to instrument test classes: %s", e.getCause().getMessage()), e.getCause());
+        } finally {
+            cancelled.set(true);
+            executor.shutdownNow();
+
+            // The workers may still be writing the class they hold
+            while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                getLog().info("Waiting for the instrumentation threads to finish");
+            }
+        }
+
+        return testProbabilities;
+    }
+
+    /**
+     * Take the name of the next class of the project and load the class in its ClassPool. Only taking the name holds
+     * the lock shared by the workers.
+     *
+     * @param cancelled Set once the run failed, no class is taken anymore
+     * @return The next class which could be loaded, {@code null} once every class was taken or the run was cancelled
+     */
+    private TestClass next(Project project, Iterator<String> classNames, AtomicBoolean cancelled) {
+        while (true) {
+            final String className;
+
+            synchronized (classNames) {
+                if (cancelled.get() || Thread.currentThread().isInterrupted() || !classNames.hasNext()) {
+                    return null;
+                }
+
+                className = classNames.next();
+            }
+
+            try (BuildMetrics.Phase phase = metrics.start("loadClasses")) {
+                final TestClass testClass = project.loadTestClass(className);
+
+                if (testClass != null) {
+                    return testClass;
+                }
+
+                // Only the classes handed to the workers are counted as loaded
+                phase.cancel();
+            }
+        }
+    }
+
+    /**
+     * Instrument and write a test class, then detach it from its ClassPool.
+     */
+    private void processClass(TestClass testClass, Model modelImpl, InstrumentationBackend backendImpl, Map<String, Double> testProbabilities, IncrementalManifest manifest) throws IOException, CannotCompileException {
+        getLog().debug(String.format("Process class %s", testClass.getName()));
+
+        try {
+            instrumentClass(testClass, modelImpl, backendImpl, testProbabilities, manifest);
+        } finally {
+            testClass.detach();
+        }
+    }
+
+    private void instrumentClass(TestClass testClass, Model modelImpl, InstrumentationBackend backendImpl, Map<String, Double> testProbabilities, IncrementalManifest manifest) throws IOException, CannotCompileException {
+        if (FlakimeInstrumenter.isInstrumented(testClass.getCtClass())) {
+            getLog().warn(String.format("Class %s is already instrumented, skipping it", testClass.getName()));
+            metrics.add("skippedClasses", 1);
+            return;
+        }
+
+        final Map<String, Double> classProbabilities = new HashMap<>();
+
+        backendImpl.instrument(testClass, modelImpl);
+
+        for (TestMethod testMethod : testClass) {
+            classProbabilities.put(
+                    testMethod.getLongName(),
+                    modelImpl.getTestFlakinessProbability(testMethod, 1.)
+            );
+        }
+
+        testProbabilities.putAll(classProbabilities);
+        metrics.add(BuildMetrics.CLASSES, 1);
+        metrics.add(BuildMetrics.METHODS, testClass.getnTestMethods());
+
+        if (manifest != null) {
+            manifest.record(testClass.getName(), testClass.getClassFile(), classProbabilities);
         }
     }
+
     /**
      * This method parse the {@code Maven project} into a {@code Project}
      *
@@ -172,13 +372,99 @@ public class FlakimeMojo extends AbstractMojo {
     public Project initializeProject(MavenProject mavenProject, MavenLogger mavenLogger)
             throws NotFoundException, DependencyResolutionRequiredException {
 
+        return initializeProject(mavenProject, mavenLogger, (className, classFile) -> true);
+    }
+
+    /**
+     * This method parse the {@code Maven project} into a {@code Project}, only loading the classes accepted by the
+     * selector.
+     *
+     * @param mavenProject  The target maven project containing the tests.
+     * @param mavenLogger   Reference to logger
+     * @param classSelector Predicate deciding from the class name and class file whether a class is loaded
+     * @return The instantiated project
+     * @throws NotFoundException                     Thrown if the directories
+     *                                               contains only jars or do not
+     *                                               exist.
+     * @throws DependencyResolutionRequiredException Thrown if an artifact is used
+     *                                               but not resolved
+     */
+    public Project initializeProject(MavenProject mavenProject, MavenLogger mavenLogger, BiPredicate<String, File> classSelector)
+            throws NotFoundException, DependencyResolutionRequiredException {
+
         return new Project(mavenLogger, annotationFilters, methodFilters, classFilters, getDirectory(testClassDirectory),
-                getDirectory(testSourceDirectory), mavenProject.getTestClasspathElements());
+                getTestSourceDirectories(mavenProject), mavenProject.getTestClasspathElements(), classSelector);
+    }
+
+    /**
+     * The configured test source directory comes first, followed by the other test source roots of the project, such
+     * as the ones added by source generators.
+     *
+     * @param mavenProject The target maven project containing the tests.
+     * @return The test source roots, by decreasing priority
+     */
+    private List<File> getTestSourceDirectories(MavenProject mavenProject) {
+        final Set<File> directories = new LinkedHashSet<>();
+        directories.add(getDirectory(testSourceDirectory));
+
+        if (mavenProject.getTestCompileSourceRoots() != null) {
+            for (String root : mavenProject.getTestCompileSourceRoots()) {
+                directories.add(getDirectory(root));
+            }
+        }
+
+        return new ArrayList<>(directories);
+    }
+
+    /**
+     * Load the manifest of the previous incremental run.
+     *
+     * @param modelImpl The model used for this run
+     * @param mavenLogger Reference to logger
+     * @return The manifest or {@code null} if the run is not incremental
+     */
+    private IncrementalManifest initializeManifest(Model modelImpl, MavenLogger mavenLogger) {
+        if (!incremental) {
+            return null;
+        }
+
+        if (!modelImpl.isClassLocal()) {
+            getLog().info(String.format("Model %s depends on the whole project, instrumenting all classes", modelImpl.getClass().getSimpleName()));
+            return null;
+        }
+
+        final List<String> configuration = new ArrayList<>();
+        configuration.add(pluginVersion);
+        configuration.add(modelImpl.getClass().getName());
+        configuration.add(backend.trim().toLowerCase());
+        configuration.add(new TreeMap<>(modelParameters).toString());
+        configuration.add(String.valueOf(flakeRate));
+        configuration.add(String.valueOf(disableReport));
+        configuration.add(disableFlagName);
+        configuration.add(outputDirectory.getAbsolutePath());
+        configuration.add(new TreeSet<>(annotationFilters).toString());
+        configuration.add(new TreeSet<>(methodFilters).toString());
+        configuration.add(new TreeSet<>(classFilters).toString());
+
+        return IncrementalManifest.load(mavenLogger, new File(outputDirectory, "incremental"), Fingerprint.of(configuration));
+    }
+
+    private void saveManifest(IncrementalManifest manifest) {
+        if (manifest == null) {
+            return;
+        }
+
+        try {
+            manifest.save();
+        } catch (IOException e) {
+            getLog().warn(String.format("Failed to save incremental manifest: %s", e.getMessage()));
+        }
     }
 
     private void initialiseModelProperties(){
         this.modelParameters = Optional.ofNullable(modelParameters).orElse(new Properties());
         this.modelParameters.putIfAbsent("modelPath",mavenProject.getBuild().getDirectory()+"/rfc_classifier");
+        this.modelParameters.putIfAbsent("scoreCachePath", new File(outputDirectory, "score_cache").getAbsolutePath());
 
     }
 
@@ -192,6 +478,17 @@ public class FlakimeMojo extends AbstractMojo {
         }
     }
 
+    private void saveMetrics() {
+        final File file = new File(outputDirectory, "flakime-metrics.json");
+
+        try {
+            metrics.write(file);
+            getLog().debug("Metrics written to " + file.getAbsolutePath());
+        } catch (IOException e) {
+            getLog().warn(String.format("Failed to write metrics file '%s': %s", file.getAbsolutePath(), e.getMessage()));
+        }
+    }
+
     private void saveTestProbabilities(Map<String, Double> testProbabilities){
         File file = new File(outputDirectory, "test_probabilities.csv");
         if(!file.getParentFile().mkdirs()){
@@ -202,7 +499,7 @@ public class FlakimeMojo extends AbstractMojo {
             writer.write("name;probability");
             writer.newLine();
 
-            for(Map.Entry<String, Double> entry: testProbabilities.entrySet()){
+            for(Map.Entry<String, Double> entry: new TreeMap<>(testProbabilities).entrySet()){
                 writer.write(String.format("%s;%.4f", entry.getKey(), entry.getValue()));
                 writer.newLine();
             }
@@ -0,0 +1,156 @@
+package lu.uni.serval.flakime.core.flakime.maven;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs the injector on the compiled {@code simple-java-2} project with one and with several instrumentation threads.
+ */
+class InstrumentationThreadsTest {
+    private static final File SOURCES = new File("src/test/resources/simple-java-2/src");
+
+    @TempDir
+    File directory;
+
+    private File mainClasses;
+    private File testClasses;
+    private List<String> dependencies;
+
+    @BeforeEach
+    void compile() throws Exception {
+        mainClasses = new File(directory, "classes");
+        testClasses = new File(directory, "test-classes");
+        dependencies = new ArrayList<>();
+
+        dependencies.add(mainClasses.getAbsolutePath());
+        dependencies.add(location(org.junit.jupiter.api.Test.class));
+        dependencies.add(location(org.opentest4j.AssertionFailedError.class));
+        dependencies.add(location(org.apiguardian.api.API.class));
+
+        compile(new File(SOURCES, "main/java"), mainClasses, new ArrayList<>());
+        compile(new File(SOURCES, "test/java"), testClasses, dependencies);
+    }
+
+    @Test
+    void outputDoesNotDependOnTheNumberOfThreads() throws Exception {
+        final File sequential = execute(1);
+        final File parallel = execute(4);
+
+        final List<String> classFiles = classFiles(new File(sequential, "test-classes"));
+        assertFalse(classFiles.isEmpty());
+        assertEquals(classFiles, classFiles(new File(parallel, "test-classes")));
+
+        for (String classFile : classFiles) {
+            assertArrayEquals(
+                    Files.readAllBytes(new File(sequential, "test-classes/" + classFile).toPath()),
+                    Files.readAllBytes(new File(parallel, "test-classes/" + classFile).toPath()),
+                    classFile
+            );
+        }
+
+        assertFalse(Arrays.equals(
+                Files.readAllBytes(new File(testClasses, "org/example/TimeUtilsTest.class").toPath()),
+                Files.readAllBytes(new File(sequential, "test-classes/org/example/TimeUtilsTest.class").toPath())
+        ));
+
+        final List<String> probabilities = Files.readAllLines(new File(sequential, "flakime/test_probabilities.csv").toPath());
+        assertEquals(10, probabilities.size());
+        assertEquals(probabilities, Files.readAllLines(new File(parallel, "flakime/test_probabilities.csv").toPath()));
+    }
+
+    /**
+     * Instrument a copy of the compiled test classes.
+     *
+     * @param threads The number of instrumentation threads
+     * @return The build directory of the run
+     */
+    private File execute(int threads) throws Exception {
+        final File build = new File(directory, "threads-" + threads);
+        final File classes = new File(build, "test-classes");
+        FileUtils.copyDirectory(testClasses, classes);
+
+        final MavenProject mavenProject = new MavenProject() {
+            @Override
+            public List<String> getTestClasspathElements() {
+                final List<String> elements = new ArrayList<>();
+                elements.add(classes.getAbsolutePath());
+                elements.addAll(dependencies);
+                return elements;
+            }
+        };
+        mavenProject.getBuild().setDirectory(build.getAbsolutePath());
+
+        final FlakimeMojo mojo = new FlakimeMojo();
+        mojo.setLog(new SilentLog());
+        mojo.mavenProject = mavenProject;
+        mojo.model = "uniformDistribution";
+        mojo.flakeRate = 0.1;
+        mojo.annotationFilters = new HashSet<>();
+        mojo.methodFilters = new HashSet<>();
+        mojo.classFilters = new HashSet<>();
+        ReflectionUtils.setVariableValueInObject(mojo, "testClassDirectory", classes.getAbsolutePath());
+        ReflectionUtils.setVariableValueInObject(mojo, "testSourceDirectory", new File(SOURCES, "test/java").getAbsolutePath());
+        ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", new File(build, "flakime"));
+        ReflectionUtils.setVariableValueInObject(mojo, "disableFlagName", "FLAKIME_DISABLE");
+        ReflectionUtils.setVariableValueInObject(mojo, "reportFormat", "text");
+        ReflectionUtils.setVariableValueInObject(mojo, "instrumentationThreads", threads);
+        ReflectionUtils.setVariableValueInObject(mojo, "backend", "javassist");
+        ReflectionUtils.setVariableValueInObject(mojo, "pluginVersion", "test");
+
+        mojo.execute();
+
+        return build;
+    }
+
+    private static List<String> classFiles(File directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            return files.filter(f -> f.toString().endsWith(".class"))
+                    .map(f -> directory.toPath().relativize(f).toString())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static String location(Class<?> clazz) throws URISyntaxException {
+        return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+    }
+
+    private static void compile(File sourceDirectory, File classDirectory, List<String> classpath) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull(compiler, "The test needs a JDK to compile the test project");
+
+        final List<String> arguments = new ArrayList<>(Arrays.asList(
+                "-g", "-nowarn", "-Xlint:-options", "-source", "8", "-target", "8",
+                "-encoding", "UTF-8",
+                "-classpath", String.join(File.pathSeparator, classpath),
+                "-d", classDirectory.getAbsolutePath()
+        ));
+
+        try (Stream<Path> files = Files.walk(sourceDirectory.toPath())) {
+            files.filter(f -> f.toString().endsWith(".java")).forEach(f -> arguments.add(f.toString()));
+        }
+
+        Files.createDirectories(classDirectory.toPath());
+        assertEquals(0, compiler.run(null, null, null, arguments.toArray(new String[0])), "Failed to compile " + sourceDirectory);
+    }
+}
@@ -0,0 +1,216 @@
+package lu.uni.serval.flakime.runtime;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary log of the flakes, one per JVM.
+ * <p>
+ * The log starts with a header of {@value #HEADER_SIZE} bytes (magic number, version, record size, number of records)
+ * followed by fixed-width records of {@value #RECORD_SIZE} bytes: method id ({@code int}), line ({@code int}),
+ * probability ({@code float}), {@link System#nanoTime()} ({@code long}) and thread id ({@code long}), in big-endian
+ * order. Method ids start at 1 and are resolved by the {@value #DICTIONARY_EXTENSION} file written next to the log,
+ * holding one {@code id<TAB>method} line per method. A record with method id 0 was claimed but not written, readers
+ * skip it. The number of records is written when the log is closed and is 0 until then, readers then read the whole
+ * file.
+ * <p>
+ * Records are written without lock in memory-mapped segments of the file. Each flake claims the index of its record
+ * with an atomic increment; only mapping a new segment and registering a new method are synchronized. Closing the log
+ * does not shrink the file, as a writer may still hold the last segment, and writing to the unmapped end of a
+ * truncated file makes the JVM fail.
+ */
+public final class BinaryFlakeLog implements FlakeSink {
+    /**
+     * First {@code int} of the header, {@code FLKE} in ASCII.
+     */
+    public static final int MAGIC = 0x464C4B45;
+
+    /**
+     * Version of the layout of the log, second {@code int} of the header.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Size in bytes of the header preceding the first record.
+     */
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * Size in bytes of a record, third {@code int} of the header.
+     */
+    public static final int RECORD_SIZE = 28;
+
+    /**
+     * Extension of the log file.
+     */
+    public static final String LOG_EXTENSION = ".bin";
+
+    /**
+     * Extension of the dictionary of the method ids, written next to the log.
+     */
+    public static final String DICTIONARY_EXTENSION = ".methods";
+
+    private static final int SEGMENT_RECORDS = 1 << 15;
+
+    private final File logFile;
+    private final File dictionaryFile;
+    private final AtomicLong nextRecord = new AtomicLong();
+    private final Map<String, Integer> methodIds = new ConcurrentHashMap<>();
+    private final Map<Long, MappedByteBuffer> segments = new HashMap<>();
+    private volatile Segment lastSegment = new Segment(-1, null);
+    private FileChannel channel;
+    private OutputStream dictionary;
+    private volatile boolean closed = false;
+
+    /**
+     * @param outputDirectory The directory of the log
+     * @param name The name of the log, without extension
+     */
+    public BinaryFlakeLog(File outputDirectory, String name) {
+        this.logFile = new File(outputDirectory, name + LOG_EXTENSION);
+        this.dictionaryFile = new File(outputDirectory, name + DICTIONARY_EXTENSION);
+    }
+
+    BinaryFlakeLog(File outputDirectory) {
+        this(outputDirectory, "_output_" + FlakeReporter.getJvmIdentifier());
+    }
+
+    @Override
+    public void report(String method, int line, double probability) {
+        final long timestamp = System.nanoTime();
+
+        try {
+            final int methodId = getMethodId(method);
+            final long record = nextRecord.getAndIncrement();
+            final ByteBuffer segment = getSegment(record / SEGMENT_RECORDS);
+
+            if (segment == null) {
+                return;
+            }
+
+            final int offset = (int) (record % SEGMENT_RECORDS) * RECORD_SIZE;
+            segment.putInt(offset + 4, line);
+            segment.putFloat(offset + 8, (float) probability);
+            segment.putLong(offset + 12, timestamp);
+            segment.putLong(offset + 20, Thread.currentThread().getId());
+            // Written last: a record is complete once its method id is set.
+            segment.putInt(offset, methodId);
+        } catch (IOException e) {
+            // The flake is thrown anyway, losing its report must not hide it.
+        }
+    }
+
+    private int getMethodId(String method) throws IOException {
+        final Integer id = methodIds.get(method);
+        return id != null ? id : registerMethod(method);
+    }
+
+    private synchronized int registerMethod(String method) throws IOException {
+        final Integer existing = methodIds.get(method);
+        if (existing != null) {
+            return existing;
+        }
+
+        open();
+
+        final int id = methodIds.size() + 1;
+        dictionary.write(String.format("%d\t%s\n", id, method).getBytes(StandardCharsets.UTF_8));
+        dictionary.flush();
+        methodIds.put(method, id);
+
+        return id;
+    }
+
+    private ByteBuffer getSegment(long index) throws IOException {
+        final Segment last = lastSegment;
+        if (index == last.index) {
+            // Unsynchronized: a record claimed while the log closes is still written, but not counted in the header
+            return closed ? null : last.buffer.duplicate();
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return null;
+            }
+
+            MappedByteBuffer segment = segments.get(index);
+            if (segment == null) {
+                open();
+                final long position = HEADER_SIZE + index * SEGMENT_RECORDS * RECORD_SIZE;
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) SEGMENT_RECORDS * RECORD_SIZE);
+                segments.put(index, segment);
+            }
+
+            if (index > lastSegment.index) {
+                lastSegment = new Segment(index, segment);
+            }
+
+            return segment.duplicate();
+        }
+    }
+
+    private synchronized void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+
+        logFile.getParentFile().mkdirs();
+        channel = new RandomAccessFile(logFile, "rw").getChannel();
+        dictionary = new FileOutputStream(dictionaryFile, true);
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0).flip();
+        channel.write(header, 0);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "flakime-binary-log-shutdown"));
+    }
+
+    /**
+     * Flush the mapped segments and write the number of records claimed in the header. Flakes reported afterwards
+     * are not logged.
+     */
+    public synchronized void close() {
+        if (closed || channel == null) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            for (MappedByteBuffer segment : segments.values()) {
+                segment.force();
+            }
+
+            final long records = Math.min(nextRecord.get(), (lastSegment.index + 1) * SEGMENT_RECORDS);
+            final ByteBuffer count = ByteBuffer.allocate(4);
+            count.putInt((int) Math.min(records, Integer.MAX_VALUE)).flip();
+            channel.write(count, HEADER_SIZE - 4);
+
+            dictionary.close();
+            channel.close();
+        } catch (IOException e) {
+            // Without the number of records, readers read the whole file.
+        }
+    }
+
+    private static final class Segment {
+        private final long index;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long index, MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package lu.uni.serval.flakime.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue with many producers and a single consumer.
+ * <p>
+ * Each slot carries a sequence number telling whether it is free for the producer claiming position {@code p}
+ * (sequence equal to {@code p}) or filled and ready for the consumer (sequence equal to {@code p + 1}). Producers
+ * claim positions with a compare-and-set on the tail, the consumer moves the head without any atomic operation.
+ *
+ * @param <T> The type of the events
+ */
+final class EventRingBuffer<T> {
+    private final int mask;
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+
+    /**
+     * @param capacity The number of slots, rounded up to a power of two
+     */
+    EventRingBuffer(int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+
+        for (int i = 0; i < size; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Add an event. Safe to call from any thread.
+     *
+     * @param event The event
+     * @return False if the buffer is full
+     */
+    boolean offer(T event) {
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, event);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest event. Must only be called by one thread at a time.
+     *
+     * @return The event or {@code null} if the buffer is empty
+     */
+    T poll() {
+        final int index = (int) head & mask;
+
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+
+        final T event = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.lazySet(index, head + mask + 1);
+        ++head;
+
+        return event;
+    }
+}
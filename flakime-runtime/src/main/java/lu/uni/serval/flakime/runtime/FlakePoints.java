@@ -0,0 +1,160 @@
+package lu.uni.serval.flakime.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Table of the flake points injected in a test class.
+ * <p>
+ * The instrumentation only leaves the index of the point at each injection site. The method, line and probability of
+ * every point are kept in this table, which is stored in a static field of the instrumented class and built from a
+ * string constant when the class is initialized.
+ */
+public final class FlakePoints {
+    /**
+     * Maximum number of characters of a chunk returned by {@link #encode()}, keeping each chunk well below the
+     * size limit of a string constant in a class file.
+     */
+    public static final int MAX_CHUNK_LENGTH = 16384;
+
+    private static final char RECORD_SEPARATOR = '\n';
+    private static final char FIELD_SEPARATOR = '\t';
+    private static final String METHOD_RECORD = "M";
+    private static final String POINT_RECORD = "P";
+
+    private final String[] methods;
+    private final int[] methodIndexes;
+    private final int[] lines;
+    private final double[] probabilities;
+
+    /**
+     * @param methods The long names of the instrumented methods
+     * @param methodIndexes For each point, the index of its method in {@code methods}
+     * @param lines For each point, the line of the statement it follows
+     * @param probabilities For each point, the probability to flake
+     */
+    public FlakePoints(String[] methods, int[] methodIndexes, int[] lines, double[] probabilities) {
+        this.methods = methods;
+        this.methodIndexes = methodIndexes;
+        this.lines = lines;
+        this.probabilities = probabilities;
+    }
+
+    /**
+     * Rebuild a table from the chunks produced by {@link #encode()}.
+     *
+     * @param chunks The encoded table
+     * @return The table
+     */
+    public static FlakePoints decode(String[] chunks) {
+        final StringBuilder content = new StringBuilder();
+        for (String chunk : chunks) {
+            content.append(chunk);
+        }
+
+        final List<String> methods = new ArrayList<>();
+        final List<String[]> points = new ArrayList<>();
+
+        int start = 0;
+        while (start < content.length()) {
+            int end = content.indexOf(String.valueOf(RECORD_SEPARATOR), start);
+            if (end < 0) {
+                end = content.length();
+            }
+
+            final String[] fields = split(content.substring(start, end));
+            if (fields[0].equals(METHOD_RECORD)) {
+                methods.add(fields[1]);
+            } else if (fields[0].equals(POINT_RECORD)) {
+                points.add(fields);
+            }
+
+            start = end + 1;
+        }
+
+        final int[] methodIndexes = new int[points.size()];
+        final int[] lines = new int[points.size()];
+        final double[] probabilities = new double[points.size()];
+
+        for (int i = 0; i < points.size(); ++i) {
+            methodIndexes[i] = Integer.parseInt(points.get(i)[1]);
+            lines[i] = Integer.parseInt(points.get(i)[2]);
+            probabilities[i] = Double.parseDouble(points.get(i)[3]);
+        }
+
+        return new FlakePoints(methods.toArray(new String[0]), methodIndexes, lines, probabilities);
+    }
+
+    /**
+     * Encode the table in strings which can be stored in the constant pool of a class.
+     *
+     * @return The encoded table, split in chunks of at most {@link #MAX_CHUNK_LENGTH} characters
+     */
+    public String[] encode() {
+        final StringBuilder content = new StringBuilder();
+
+        for (String method : methods) {
+            content.append(METHOD_RECORD).append(FIELD_SEPARATOR).append(method).append(RECORD_SEPARATOR);
+        }
+
+        for (int i = 0; i < size(); ++i) {
+            content.append(POINT_RECORD)
+                    .append(FIELD_SEPARATOR).append(methodIndexes[i])
+                    .append(FIELD_SEPARATOR).append(lines[i])
+                    .append(FIELD_SEPARATOR).append(probabilities[i])
+                    .append(RECORD_SEPARATOR);
+        }
+
+        final String[] chunks = new String[(content.length() + MAX_CHUNK_LENGTH - 1) / MAX_CHUNK_LENGTH];
+        for (int i = 0; i < chunks.length; ++i) {
+            chunks[i] = content.substring(i * MAX_CHUNK_LENGTH, Math.min(content.length(), (i + 1) * MAX_CHUNK_LENGTH));
+        }
+
+        return chunks;
+    }
+
+    private static String[] split(String record) {
+        final List<String> fields = new ArrayList<>();
+
+        int start = 0;
+        int end;
+        while ((end = record.indexOf(FIELD_SEPARATOR, start)) >= 0) {
+            fields.add(record.substring(start, end));
+            start = end + 1;
+        }
+        fields.add(record.substring(start));
+
+        return fields.toArray(new String[0]);
+    }
+
+    /**
+     * @return The number of points in the table
+     */
+    public int size() {
+        return lines.length;
+    }
+
+    /**
+     * @param point The index of the point
+     * @return The long name of the method holding the point
+     */
+    public String getMethod(int point) {
+        return methods[methodIndexes[point]];
+    }
+
+    /**
+     * @param point The index of the point
+     * @return The line of the statement followed by the point
+     */
+    public int getLine(int point) {
+        return lines[point];
+    }
+
+    /**
+     * @param point The index of the point
+     * @return The probability of the point to flake
+     */
+    public double getProbability(int point) {
+        return probabilities[point];
+    }
+}
@@ -0,0 +1,140 @@
+package lu.uni.serval.flakime.runtime;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous report of the flakes.
+ * <p>
+ * The thread flaking only pushes the event in a lock-free ring buffer. A daemon thread, started with the first
+ * event, writes the events in batches to a single file per JVM and a shutdown hook writes the events left when the
+ * JVM stops. Each row keeps the {@code timestamp,line,probability} columns of the former per-method files and adds
+ * the long name of the method as last column.
+ */
+final class FlakeReporter implements FlakeSink {
+    private static final int CAPACITY = 4096;
+    private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final File reportFile;
+    private final EventRingBuffer<Event> events = new EventRingBuffer<>(CAPACITY);
+    private final Object drainLock = new Object();
+    private volatile Thread flusher;
+    private Writer writer;
+
+    FlakeReporter(File outputDirectory) {
+        this.reportFile = new File(outputDirectory, String.format("_output_%s.out", getJvmIdentifier()));
+    }
+
+    /**
+     * @return An identifier of this JVM, unique among the JVMs running the tests and usable in a file name
+     */
+    static String getJvmIdentifier() {
+        final String name = ManagementFactory.getRuntimeMXBean().getName();
+        final long startTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+        return String.format("%s_%d", name.replaceAll("[^A-Za-z0-9._-]", "_"), startTime);
+    }
+
+    /**
+     * Enqueue a flake. Never blocks unless the buffer is full, in which case the caller waits for the flusher.
+     */
+    @Override
+    public void report(String method, int line, double probability) {
+        final Event event = new Event(System.currentTimeMillis(), method, line, probability);
+        final Thread thread = flusher != null ? flusher : start();
+
+        while (!events.offer(event)) {
+            LockSupport.unpark(thread);
+            Thread.yield();
+        }
+    }
+
+    private synchronized Thread start() {
+        if (flusher == null) {
+            final Thread thread = new Thread(this::run, "flakime-reporter");
+            thread.setDaemon(true);
+            thread.start();
+
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close, "flakime-reporter-shutdown"));
+            flusher = thread;
+        }
+
+        return flusher;
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            drain();
+            LockSupport.parkNanos(this, FLUSH_INTERVAL);
+        }
+    }
+
+    private void close() {
+        synchronized (drainLock) {
+            drain();
+
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                // Nothing left to do, the JVM is stopping.
+            }
+
+            writer = null;
+        }
+    }
+
+    private void drain() {
+        synchronized (drainLock) {
+            Event event = events.poll();
+            if (event == null) {
+                return;
+            }
+
+            try {
+                if (writer == null) {
+                    reportFile.getParentFile().mkdirs();
+                    writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile, true), StandardCharsets.UTF_8));
+                }
+
+                for (; event != null; event = events.poll()) {
+                    writer.write(event.toRow());
+                }
+
+                writer.flush();
+            } catch (IOException e) {
+                // The flakes are thrown anyway, losing their report must not hide them.
+                while (events.poll() != null) {
+                    // Drop the pending events
+                }
+            }
+        }
+    }
+
+    private static final class Event {
+        private final long timestamp;
+        private final String method;
+        private final int line;
+        private final double probability;
+
+        private Event(long timestamp, String method, int line, double probability) {
+            this.timestamp = timestamp;
+            this.method = method;
+            this.line = line;
+            this.probability = probability;
+        }
+
+        private String toRow() {
+            return timestamp + String.format(",%d,%.2f,%s\n", line, probability, method);
+        }
+    }
+}
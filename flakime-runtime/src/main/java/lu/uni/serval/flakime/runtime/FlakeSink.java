@@ -0,0 +1,15 @@
+package lu.uni.serval.flakime.runtime;
+
+/**
+ * Destination of the flakes reported by the runtime.
+ */
+interface FlakeSink {
+    /**
+     * Record a flake. Called by the flaking thread, right before the flake is thrown.
+     *
+     * @param method The long name of the flaking method
+     * @param line The line of the flake point
+     * @param probability The probability of the flake point
+     */
+    void report(String method, int line, double probability);
+}
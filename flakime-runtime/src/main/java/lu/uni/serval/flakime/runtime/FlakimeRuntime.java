@@ -0,0 +1,75 @@
+package lu.uni.serval.flakime.runtime;
+
+/**
+ * Entry points called by the instrumented test methods.
+ * <p>
+ * An instrumented test method calls {@link #enter()} once at its beginning, which draws the random value of the
+ * invocation, and keeps the value in a local variable. Each flake point then calls
+ * {@link #check(FlakePoints, int, double)} with the index of the point in the table of its class and that value: the
+ * test flakes at the first point whose probability is above the random value. As the value lives in the frame of the
+ * method, an instrumented method calling another one keeps its own value.
+ * <p>
+ * Whether flakes are disabled is decided once, when this class is initialized, and kept in a constant. When they are,
+ * both entry points return immediately and the JIT compiler removes the calls from the instrumented code.
+ */
+public final class FlakimeRuntime {
+    /**
+     * Message of the exception thrown by a flake point.
+     */
+    public static final String EXCEPTION_MESSAGE = "Flakime Exception";
+
+    private static final RuntimeConfiguration CONFIGURATION = RuntimeConfiguration.load();
+    private static final boolean DISABLED = CONFIGURATION.isDisabled();
+    private static final FlakeSink REPORTER = createReporter();
+
+    private FlakimeRuntime() {
+
+    }
+
+    /**
+     * Start an invocation of an instrumented test method.
+     *
+     * @return The random value of the invocation, to pass to each of its flake points
+     */
+    public static double enter() {
+        if (DISABLED) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        return Math.random();
+    }
+
+    /**
+     * Flake point reached by an invocation.
+     *
+     * @param points The table of the flake points of the instrumented class
+     * @param point The index of the reached point in the table
+     * @param random The random value returned by {@link #enter()} when the invocation started
+     * @throws Exception The flake, if the invocation is set to flake at this point
+     */
+    public static void check(FlakePoints points, int point, double random) throws Exception {
+        if (DISABLED) {
+            return;
+        }
+
+        if (random < points.getProbability(point)) {
+            if (REPORTER != null) {
+                REPORTER.report(points.getMethod(point), points.getLine(point), points.getProbability(point));
+            }
+
+            throw new Exception(EXCEPTION_MESSAGE);
+        }
+    }
+
+    private static FlakeSink createReporter() {
+        if (CONFIGURATION.isDisableReport()) {
+            return null;
+        }
+
+        if (CONFIGURATION.getReportFormat().equals(RuntimeConfiguration.BINARY_FORMAT)) {
+            return new BinaryFlakeLog(CONFIGURATION.getOutputDirectory());
+        }
+
+        return new FlakeReporter(CONFIGURATION.getOutputDirectory());
+    }
+}
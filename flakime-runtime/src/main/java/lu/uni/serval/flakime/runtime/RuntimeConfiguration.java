@@ -0,0 +1,124 @@
+package lu.uni.serval.flakime.runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Settings of the instrumentation needed when the tests run. They are written by flakime next to the instrumented
+ * test classes, in the {@value #RESOURCE} resource.
+ */
+public final class RuntimeConfiguration {
+    /**
+     * Name of the properties resource holding the configuration, at the root of the test classes.
+     */
+    public static final String RESOURCE = "flakime-runtime.properties";
+
+    /**
+     * Property naming the system property or environment variable disabling the flakes, {@code FLAKIME_DISABLE} by
+     * default.
+     */
+    public static final String DISABLE_FLAG = "disableFlag";
+
+    /**
+     * Property holding the directory of the flake reports. The reports are disabled when it is missing.
+     */
+    public static final String OUTPUT_DIRECTORY = "outputDirectory";
+
+    /**
+     * Property disabling the flake reports when {@code true}.
+     */
+    public static final String DISABLE_REPORT = "disableReport";
+
+    /**
+     * Property holding the format of the flake reports, {@value #TEXT_FORMAT} or {@value #BINARY_FORMAT}.
+     */
+    public static final String REPORT_FORMAT = "reportFormat";
+
+    /**
+     * Reports written as {@code timestamp,line,probability,method} rows, the default format.
+     */
+    public static final String TEXT_FORMAT = "text";
+
+    /**
+     * Reports written to a {@link BinaryFlakeLog}.
+     */
+    public static final String BINARY_FORMAT = "binary";
+
+    private static final String DEFAULT_DISABLE_FLAG = "FLAKIME_DISABLE";
+
+    private final String disableFlag;
+    private final File outputDirectory;
+    private final boolean disableReport;
+    private final String reportFormat;
+
+    RuntimeConfiguration(Properties properties) {
+        this.disableFlag = properties.getProperty(DISABLE_FLAG, DEFAULT_DISABLE_FLAG);
+        this.outputDirectory = properties.containsKey(OUTPUT_DIRECTORY) ? new File(properties.getProperty(OUTPUT_DIRECTORY)) : null;
+        this.disableReport = outputDirectory == null || Boolean.parseBoolean(properties.getProperty(DISABLE_REPORT));
+        this.reportFormat = properties.getProperty(REPORT_FORMAT, TEXT_FORMAT).trim().toLowerCase();
+    }
+
+    /**
+     * Load the configuration from the class path. A missing or unreadable resource results in the default
+     * configuration, with the report disabled.
+     *
+     * @return The configuration
+     */
+    static RuntimeConfiguration load() {
+        final Properties properties = new Properties();
+
+        try (InputStream in = RuntimeConfiguration.class.getResourceAsStream("/" + RESOURCE)) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            properties.clear();
+        }
+
+        return new RuntimeConfiguration(properties);
+    }
+
+    /**
+     * Resolve the disable flag. The flag is looked up as a system property first, then as an environment variable. A
+     * leading {@code $} in its name is ignored, so that {@code $MUT_IN_PROGRESS} designates the
+     * {@code MUT_IN_PROGRESS} variable.
+     *
+     * @return True if the flakes are disabled for this JVM
+     */
+    public boolean isDisabled() {
+        final String name = disableFlag.startsWith("$") ? disableFlag.substring(1) : disableFlag;
+        final String value = System.getProperty(name);
+
+        return Boolean.parseBoolean(value != null ? value : System.getenv(name));
+    }
+
+    /**
+     * @return The name of the system property or environment variable that control if the flake will occur
+     */
+    public String getDisableFlag() {
+        return disableFlag;
+    }
+
+    /**
+     * @return The directory where the flake position report files are written
+     */
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * @return True if the flakes must not be reported
+     */
+    public boolean isDisableReport() {
+        return disableReport;
+    }
+
+    /**
+     * @return The format of the report, {@value #TEXT_FORMAT} or {@value #BINARY_FORMAT}
+     */
+    public String getReportFormat() {
+        return reportFormat;
+    }
+}
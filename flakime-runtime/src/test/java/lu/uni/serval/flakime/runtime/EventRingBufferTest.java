@@ -0,0 +1,65 @@
+package lu.uni.serval.flakime.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class EventRingBufferTest {
+    @Test
+    void eventsArePolledInOrderUntilEmpty() {
+        final EventRingBuffer<Integer> buffer = new EventRingBuffer<>(4);
+
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(i, buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertTrue(buffer.offer(5));
+        assertEquals(5, buffer.poll());
+    }
+
+    @Test
+    void concurrentProducersDoNotLoseEvents() throws InterruptedException {
+        final int producers = 4;
+        final int eventsPerProducer = 100000;
+        final EventRingBuffer<int[]> buffer = new EventRingBuffer<>(64);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < producers; ++p) {
+            final int producer = p;
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < eventsPerProducer; ++i) {
+                    while (!buffer.offer(new int[]{producer, i})) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        final int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * eventsPerProducer) {
+            final int[] event = buffer.poll();
+            if (event == null) {
+                Thread.yield();
+                continue;
+            }
+
+            assertEquals(next[event[0]]++, event[1]);
+            ++received;
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(buffer.poll());
+    }
+}
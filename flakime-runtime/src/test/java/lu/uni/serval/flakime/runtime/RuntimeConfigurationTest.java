@@ -0,0 +1,69 @@
+package lu.uni.serval.flakime.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Properties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class RuntimeConfigurationTest {
+    private static final String PROPERTY_FLAG = "FLAKIME_TEST_PROPERTY_FLAG";
+    // Set to true by the surefire configuration of the module
+    private static final String ENVIRONMENT_FLAG = "FLAKIME_TEST_ENVIRONMENT_FLAG";
+
+    @AfterEach
+    void clearProperties() {
+        System.clearProperty(PROPERTY_FLAG);
+        System.clearProperty(ENVIRONMENT_FLAG);
+    }
+
+    @Test
+    void disableFlagIsReadFromSystemProperties() {
+        final RuntimeConfiguration configuration = configuration(PROPERTY_FLAG);
+        assertFalse(configuration.isDisabled());
+
+        System.setProperty(PROPERTY_FLAG, "true");
+        assertTrue(configuration.isDisabled());
+
+        System.setProperty(PROPERTY_FLAG, "false");
+        assertFalse(configuration.isDisabled());
+    }
+
+    @Test
+    void disableFlagIsReadFromEnvironment() {
+        assertEquals("true", System.getenv(ENVIRONMENT_FLAG), "The tests must run with the environment of the surefire configuration");
+        assertTrue(configuration(ENVIRONMENT_FLAG).isDisabled());
+    }
+
+    @Test
+    void systemPropertyOverridesEnvironment() {
+        System.setProperty(ENVIRONMENT_FLAG, "false");
+        assertFalse(configuration(ENVIRONMENT_FLAG).isDisabled());
+    }
+
+    @Test
+    void leadingDollarIsStripped() {
+        assertTrue(configuration("$" + ENVIRONMENT_FLAG).isDisabled());
+
+        System.setProperty(PROPERTY_FLAG, "true");
+        final RuntimeConfiguration configuration = configuration("$" + PROPERTY_FLAG);
+        assertEquals("$" + PROPERTY_FLAG, configuration.getDisableFlag());
+        assertTrue(configuration.isDisabled());
+    }
+
+    @Test
+    void defaultConfigurationDisablesReport() {
+        final RuntimeConfiguration configuration = new RuntimeConfiguration(new Properties());
+
+        assertEquals("FLAKIME_DISABLE", configuration.getDisableFlag());
+        assertTrue(configuration.isDisableReport());
+        assertEquals(RuntimeConfiguration.TEXT_FORMAT, configuration.getReportFormat());
+    }
+
+    private static RuntimeConfiguration configuration(String disableFlag) {
+        final Properties properties = new Properties();
+        properties.setProperty(RuntimeConfiguration.DISABLE_FLAG, disableFlag);
+
+        return new RuntimeConfiguration(properties);
+    }
+}